@@ -0,0 +1,235 @@
+package com.android.xz.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.xz.camera.callback.PreviewBufferCallback;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步预览回调，为一个消费者提供独立的分发线程
+ * <p>
+ * 相机线程中只做一次引用计数和入队，立即返回，消费者在自己的线程中收到{@link PreviewBufferCallback#onPreviewFrame(PreviewFrame)}，
+ * 回调返回后帧被释放。单个消费者处理慢只会让自己丢帧，不会拖慢相机和其他消费者。
+ * <p>
+ * 分发线程在第一帧到达时启动，{@link #stop()}后再次收到帧会重新启动。
+ * 分发线程空闲时park等待，停止时只设置标志并唤醒，不中断线程，正在执行的回调（GL、JNI调用）会正常执行完。
+ *
+ * @author xiaozhi
+ * @since 2024/9/10
+ */
+public class AsyncPreviewBufferCallback implements PreviewBufferCallback {
+
+    private static final String TAG = AsyncPreviewBufferCallback.class.getSimpleName();
+
+    /**
+     * {@link DeliveryPolicy#BOUNDED}默认队列长度
+     */
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private final PreviewBufferCallback mTarget;
+    private final DeliveryPolicy mPolicy;
+    private final ArrayBlockingQueue<PreviewFrame> mQueue;
+
+    private volatile Thread mThread;
+    private volatile boolean mRunning;
+
+    /* 统计数据 */
+    private final AtomicLong mInCount = new AtomicLong(0);
+    private final AtomicLong mDeliveredCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private long mLagSum;
+    private long mLagCount;
+    private long mMaxLag;
+    private long mLastLag;
+
+    public AsyncPreviewBufferCallback(PreviewBufferCallback target, DeliveryPolicy policy) {
+        this(target, policy, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param target   实际的消费者
+     * @param policy   分发策略
+     * @param capacity 队列长度，仅{@link DeliveryPolicy#BOUNDED}有效
+     */
+    public AsyncPreviewBufferCallback(PreviewBufferCallback target, DeliveryPolicy policy, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mTarget = target;
+        mPolicy = policy;
+        mQueue = new ArrayBlockingQueue<>(policy == DeliveryPolicy.LATEST_ONLY ? 1 : capacity);
+    }
+
+    public PreviewBufferCallback getTarget() {
+        return mTarget;
+    }
+
+    public DeliveryPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * 只有数据没有帧引用时无法跨线程持有，同步转调
+     */
+    @Override
+    public void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format) {
+        mTarget.onPreviewBufferFrame(data, width, height, format);
+    }
+
+    @Override
+    public void onPreviewFrame(PreviewFrame frame) {
+        mInCount.incrementAndGet();
+        if (mThread == null) {
+            start();
+        }
+        frame.acquire();
+        while (!mQueue.offer(frame)) {
+            PreviewFrame oldest = mQueue.poll();
+            if (oldest != null) {
+                oldest.release();
+                mDroppedCount.incrementAndGet();
+            }
+        }
+        if (!mRunning) {
+            // 分发线程已经退出，帧不会再被取走
+            drain();
+            return;
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    private synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::runLoop, "PreviewDelivery-" + mTarget.getClass().getSimpleName());
+        mThread.start();
+    }
+
+    /**
+     * 停止分发线程，等待正在执行的回调返回，释放队列中未分发的帧，相机关闭时调用
+     */
+    public synchronized void stop() {
+        Thread thread = mThread;
+        if (thread == null) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        drain();
+        mThread = null;
+    }
+
+    private void runLoop() {
+        while (mRunning) {
+            PreviewFrame frame = mQueue.poll();
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            recordLag(SystemClock.elapsedRealtimeNanos() - frame.getArrivalTimestamp());
+            try {
+                mTarget.onPreviewFrame(frame);
+                mDeliveredCount.incrementAndGet();
+            } catch (Exception e) {
+                Log.e(TAG, "deliver frame #" + frame.getSequence() + " failed", e);
+            } finally {
+                frame.release();
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        PreviewFrame frame;
+        while ((frame = mQueue.poll()) != null) {
+            frame.release();
+            mDroppedCount.incrementAndGet();
+        }
+    }
+
+    private synchronized void recordLag(long lag) {
+        mLastLag = lag;
+        mLagSum += lag;
+        mLagCount++;
+        if (lag > mMaxLag) {
+            mMaxLag = lag;
+        }
+    }
+
+    /**
+     * 收到的总帧数
+     */
+    public long getInCount() {
+        return mInCount.get();
+    }
+
+    /**
+     * 已分发给消费者的帧数
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * 消费者来不及处理而丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 当前排队的帧数
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * 最近一帧从相机回调到开始分发的延迟，单位ms
+     */
+    public synchronized float getLagMs() {
+        return mLastLag / 1e6f;
+    }
+
+    /**
+     * 平均分发延迟，单位ms
+     */
+    public synchronized float getAverageLagMs() {
+        return mLagCount == 0 ? 0 : mLagSum / 1e6f / mLagCount;
+    }
+
+    /**
+     * 最大分发延迟，单位ms
+     */
+    public synchronized float getMaxLagMs() {
+        return mMaxLag / 1e6f;
+    }
+
+    public synchronized void resetStats() {
+        mInCount.set(0);
+        mDeliveredCount.set(0);
+        mDroppedCount.set(0);
+        mLagSum = 0;
+        mLagCount = 0;
+        mMaxLag = 0;
+        mLastLag = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AsyncPreviewBufferCallback{%s, %s, in=%d, delivered=%d, dropped=%d, lag=%.2f/%.2fms}",
+                mTarget.getClass().getSimpleName(), mPolicy, mInCount.get(), mDeliveredCount.get(), mDroppedCount.get(),
+                getAverageLagMs(), getMaxLagMs());
+    }
+}
@@ -8,6 +8,7 @@ import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
+import android.hardware.HardwareBuffer;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -21,8 +22,10 @@ import android.hardware.camera2.params.MeteringRectangle;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Range;
 import android.util.Size;
@@ -32,12 +35,16 @@ import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 
 import com.android.xz.camera.callback.CameraCallback;
+import com.android.xz.camera.callback.HardwareBufferCallback;
 import com.android.xz.camera.callback.PictureBufferCallback;
 import com.android.xz.camera.callback.PreviewBufferCallback;
 import com.android.xz.util.Logs;
+import com.android.xz.util.Tracer;
+import com.android.xz.util.YUVPlanePacker;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -45,7 +52,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Camera2实现
@@ -93,8 +100,17 @@ public class Camera2Manager implements ICameraManager {
     private ImageReader mPictureImageReader;
     private ImageReader mPreviewImageReader;
     private Surface mPreviewSurface;
+    private SurfaceTexture mPreviewSurfaceTexture;
+    /**
+     * 重新配置会话时替换下来的ImageReader，新会话配置完成后关闭
+     */
+    private final List<ImageReader> mRetiredImageReaders = new ArrayList<>();
     private OrientationEventListener mOrientationEventListener;
     private int mSensorOrientation;
+    /**
+     * 传感器时间戳是否与SystemClock.elapsedRealtimeNanos()同一时间基准
+     */
+    private boolean mTimestampRealtime;
 
     /**
      * 预览大小
@@ -103,8 +119,24 @@ public class Camera2Manager implements ICameraManager {
     private int mPreviewWidth = 1440;
     private int mPreviewHeight = 1080;
     private float mPreviewScale = mPreviewHeight * 1f / mPreviewWidth;
-    private List<PreviewBufferCallback> mPreviewBufferCallbacks = new ArrayList<>();
+    /**
+     * 检测数据流尺寸，设置后YUV回调使用独立的低分辨率数据流，由ISP完成缩放
+     */
+    private Size mDetectionSize;
+    /**
+     * 实际YUV回调数据流尺寸
+     */
+    private Size mPreviewBufferSize;
+    private Size[] mSupportYUVSizes;
+    private Size[] mSupportPreviewSizes;
+    private List<PreviewBufferCallback> mPreviewBufferCallbacks = new CopyOnWriteArrayList<>();
     private PictureBufferCallback mPictureBufferCallback;
+    private volatile HardwareBufferCallback mHardwareBufferCallback;
+    /**
+     * 预览帧池，每帧使用独立缓冲区，消费者释放后才会被重新写入
+     */
+    private int mFramePoolSize = PreviewFramePool.DEFAULT_POOL_SIZE;
+    private PreviewFramePool mFramePool = new PreviewFramePool(mFramePoolSize);
     /**
      * 拍照大小
      */
@@ -128,6 +160,37 @@ public class Camera2Manager implements ICameraManager {
     private int mZoom = 0; // 0~mMaxZoom之间变化
     private float mStepWidth; // 每次改变的宽度大小
     private float mStepHeight; // 每次改变的高度大小
+    private float mMaxDigitalZoom = 1f;
+    private Rect mActiveArraySize;
+
+    /* 人脸裁剪区域相关 */
+    private static final int CROP_HISTORY_SIZE = 8;
+    private static final int FACE_LOST_FRAMES = 30;
+    /**
+     * 最近若干帧请求的裁剪区域，按传感器时间戳对应到YUV帧，只在相机线程访问
+     */
+    private final long[] mCropHistoryTimestamps = new long[CROP_HISTORY_SIZE];
+    private final Rect[] mCropHistoryRegions = new Rect[CROP_HISTORY_SIZE];
+    private int mCropHistoryIndex;
+    private volatile boolean mFaceCropEnabled;
+    private float mFaceCropMargin = 0.5f;
+    private float mFaceCropMaxZoom = 3f;
+    private Rect mFaceCropRegion;
+    private int mFaceLostCount;
+
+    /**
+     * 预览请求回调，记录每帧实际请求的裁剪区域
+     */
+    private CameraCaptureSession.CaptureCallback mPreviewCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            Rect cropRegion = request.get(CaptureRequest.SCALER_CROP_REGION);
+            mCropHistoryTimestamps[mCropHistoryIndex] = timestamp;
+            mCropHistoryRegions[mCropHistoryIndex] = cropRegion != null ? cropRegion : mActiveArraySize;
+            mCropHistoryIndex = (mCropHistoryIndex + 1) % CROP_HISTORY_SIZE;
+        }
+    };
 
     /**
      * 打开摄像头的回调
@@ -160,9 +223,58 @@ public class Camera2Manager implements ICameraManager {
 
     @Override
     public void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback) {
-        if (previewBufferCallback != null && !mPreviewBufferCallbacks.contains(previewBufferCallback)) {
-            mPreviewBufferCallbacks.add(previewBufferCallback);
+        addPreviewBufferCallback(previewBufferCallback, DeliveryPolicy.LATEST_ONLY);
+    }
+
+    @Override
+    public void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback, DeliveryPolicy policy) {
+        if (previewBufferCallback == null) {
+            return;
+        }
+        for (PreviewBufferCallback callback : mPreviewBufferCallbacks) {
+            if (callback instanceof AsyncPreviewBufferCallback
+                    && ((AsyncPreviewBufferCallback) callback).getTarget() == previewBufferCallback) {
+                return;
+            }
         }
+        mPreviewBufferCallbacks.add(new AsyncPreviewBufferCallback(previewBufferCallback, policy));
+    }
+
+    /**
+     * 停止所有异步回调的分发线程
+     */
+    private void stopAsyncPreviewBufferCallbacks() {
+        for (PreviewBufferCallback callback : mPreviewBufferCallbacks) {
+            if (callback instanceof AsyncPreviewBufferCallback) {
+                ((AsyncPreviewBufferCallback) callback).stop();
+            }
+        }
+    }
+
+    /**
+     * 设置硬件缓冲区回调，开启预览前设置，Android 10以下不生效
+     * <p>
+     * 设置后YUV数据流使用CPU可读的硬件缓冲区，回调直接拿到帧的HardwareBuffer，可交给native层锁定读取，
+     * 不经过Java层的平面拷贝。没有{@link PreviewBufferCallback}时不再做YUV数据的拷贝。
+     *
+     * @param hardwareBufferCallback
+     */
+    public void setHardwareBufferCallback(HardwareBufferCallback hardwareBufferCallback) {
+        mHardwareBufferCallback = hardwareBufferCallback;
+    }
+
+    private boolean isHardwareBufferEnabled() {
+        return mHardwareBufferCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    @Override
+    public void setFramePoolSize(int size) {
+        mFramePoolSize = size;
+    }
+
+    @Override
+    public PreviewFramePool getFramePool() {
+        return mFramePool;
     }
 
     @Override
@@ -224,6 +336,12 @@ public class Camera2Manager implements ICameraManager {
     }
 
     Range<Integer> mMaxFps;
+    private Range<Integer>[] mFpsRanges;
+    /**
+     * 目标帧率，0表示使用默认帧率
+     */
+    private volatile int mTargetFrameRate;
+    private Range<Integer> mTargetFpsRange;
 
     private boolean configCameraParams(CameraManager manager, String cameraId) throws CameraAccessException {
         CameraCharacteristics characteristics
@@ -234,12 +352,15 @@ public class Camera2Manager implements ICameraManager {
         if (map == null) {
             return false;
         }
-        Size previewSize = getSuitableSize(new ArrayList<>(Arrays.asList(map.getOutputSizes(SurfaceTexture.class))));
+        mSupportPreviewSizes = map.getOutputSizes(SurfaceTexture.class);
+        Size previewSize = getSuitableSize(new ArrayList<>(Arrays.asList(mSupportPreviewSizes)));
         Logs.i(TAG, "previewSize: " + previewSize);
         mPreviewSize = previewSize;
         mPreviewWidth = mPreviewSize.getWidth();
         mPreviewHeight = mPreviewSize.getHeight();
 
+        mSupportYUVSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+
         Size[] supportPictureSizes = map.getOutputSizes(ImageFormat.JPEG);
         Size pictureSize = Collections.max(Arrays.asList(supportPictureSizes), new CompareSizesByArea());
         mPictureSize = pictureSize;
@@ -256,12 +377,15 @@ public class Camera2Manager implements ICameraManager {
             }
         }
         mMaxFps = maxFps;
+        mFpsRanges = fpsRanges;
 
         for (Range<Integer> range:fpsRanges) {
             Logs.i(TAG, "FPS range:" + range.toString());
         }
 
         mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mTimestampRealtime = timestampSource != null && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
         return true;
     }
 
@@ -344,6 +468,8 @@ public class Camera2Manager implements ICameraManager {
         // max_digital_zoom 表示 active_rect 除以 crop_rect 的最大值
         float max_digital_zoom = mCameraCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
         Log.d(TAG, "max_digital_zoom: " + max_digital_zoom);
+        mActiveArraySize = rect;
+        mMaxDigitalZoom = max_digital_zoom;
         // crop_rect的最小宽高
         float minWidth = rect.width() / max_digital_zoom;
         float minHeight = rect.height() / max_digital_zoom;
@@ -373,7 +499,10 @@ public class Camera2Manager implements ICameraManager {
             mPreviewImageReader = null;
         }
         mOrientationEventListener.disable();
+        mFaceCropRegion = null;
         stopBackgroundThread(); // 对应 openCamera() 方法中的 startBackgroundThread()
+        closeRetiredImageReaders();
+        stopAsyncPreviewBufferCallbacks();
         mUIHandler.post(() -> onClose());
     }
 
@@ -393,8 +522,18 @@ public class Camera2Manager implements ICameraManager {
         }
 
         // preview output
-        if (!mPreviewBufferCallbacks.isEmpty()) {
-            mPreviewImageReader = ImageReader.newInstance(mPreviewSize.getWidth(), mPreviewSize.getHeight(), ImageFormat.YUV_420_888, 3);
+        if (!mPreviewBufferCallbacks.isEmpty() || isHardwareBufferEnabled()) {
+            if (mFramePool.getSize() != mFramePoolSize) {
+                mFramePool = new PreviewFramePool(mFramePoolSize);
+            }
+            mPreviewBufferSize = mDetectionSize == null ? mPreviewSize : getDetectionStreamSize(mDetectionSize);
+            Logs.i(TAG, "previewBufferSize: " + mPreviewBufferSize);
+            if (isHardwareBufferEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                mPreviewImageReader = ImageReader.newInstance(mPreviewBufferSize.getWidth(), mPreviewBufferSize.getHeight(), ImageFormat.YUV_420_888, 3,
+                        HardwareBuffer.USAGE_CPU_READ_OFTEN);
+            } else {
+                mPreviewImageReader = ImageReader.newInstance(mPreviewBufferSize.getWidth(), mPreviewBufferSize.getHeight(), ImageFormat.YUV_420_888, 3);
+            }
             mPreviewImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
             outputs.add(mPreviewImageReader.getSurface());
             mPreviewRequestBuilder.addTarget(mPreviewImageReader.getSurface());
@@ -407,12 +546,14 @@ public class Camera2Manager implements ICameraManager {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
                     mCaptureSession = session;
+                    closeRetiredImageReaders();
                     startPreview();
                 }
 
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession session) {
                     Log.e(TAG, "ConfigureFailed. session: " + session);
+                    closeRetiredImageReaders();
                     previewing = false;
                 }
             }, mBackgroundHandler); // handle 传入 null 表示使用当前线程的 Looper
@@ -437,12 +578,21 @@ public class Camera2Manager implements ICameraManager {
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
             // 设置自动白平衡
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+            // 重新配置会话后保持人脸裁剪区域
+            if (mFaceCropRegion != null) {
+                mPreviewRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, mFaceCropRegion);
+            }
 
             // 设置FPS
 //            if (mMaxFps != null) {
 //                Logs.i(TAG, "maxFps:" + mMaxFps);
 //                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mMaxFps);
 //            }
+            mTargetFpsRange = getSuitableFpsRange(mTargetFrameRate);
+            if (mTargetFpsRange != null) {
+                Logs.i(TAG, "targetFpsRange:" + mTargetFpsRange);
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mTargetFpsRange);
+            }
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
@@ -465,6 +615,7 @@ public class Camera2Manager implements ICameraManager {
             return;
         }
         previewing = true;
+        mPreviewSurfaceTexture = surfaceTexture;
         if (surfaceTexture != null) {
             surfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
             mPreviewSurface = new Surface(surfaceTexture);
@@ -482,7 +633,7 @@ public class Camera2Manager implements ICameraManager {
         try {
             // 开始预览，即一直发送预览的请求
             CaptureRequest captureRequest = mPreviewRequestBuilder.build();
-            mCaptureSession.setRepeatingRequest(captureRequest, null, mBackgroundHandler);
+            mCaptureSession.setRepeatingRequest(captureRequest, mPreviewCaptureCallback, mBackgroundHandler);
             Logs.i(TAG, "name:" + Thread.currentThread().getName());
             mUIHandler.post(() -> onPreview(mPreviewWidth, mPreviewHeight));
         } catch (CameraAccessException e) {
@@ -516,6 +667,100 @@ public class Camera2Manager implements ICameraManager {
         mPreviewWidth = mPreviewSize.getWidth();
         mPreviewHeight = mPreviewSize.getHeight();
         mPreviewScale = mPreviewHeight * 1f / mPreviewWidth;
+        if (previewing && mCaptureSession != null && mBackgroundHandler != null) {
+            // 预览中修改尺寸，在相机线程中重新配置会话，不需要重新打开摄像头
+            mBackgroundHandler.post(this::reconfigureSession);
+        }
+    }
+
+    /**
+     * 按新的预览尺寸重新创建会话
+     * <p>
+     * 直接创建新会话，由系统关闭旧会话，旧的ImageReader在新会话配置完成后再关闭，避免旧会话仍在输出时关闭Surface。
+     * 通过{@link #startPreview(SurfaceHolder)}开启的预览Surface尺寸不会改变，由系统缩放输出。
+     */
+    private void reconfigureSession() {
+        if (mCameraDevice == null || mCaptureSession == null || mSupportPreviewSizes == null) {
+            return;
+        }
+        Size previewSize = getSuitableSize(new ArrayList<>(Arrays.asList(mSupportPreviewSizes)));
+        Logs.i(TAG, "reconfigureSession previewSize: " + previewSize);
+        mPreviewSize = previewSize;
+        mPreviewWidth = previewSize.getWidth();
+        mPreviewHeight = previewSize.getHeight();
+        if (mPreviewSurfaceTexture != null) {
+            mPreviewSurfaceTexture.setDefaultBufferSize(mPreviewWidth, mPreviewHeight);
+        }
+        if (mPreviewImageReader != null) {
+            mRetiredImageReaders.add(mPreviewImageReader);
+            mPreviewImageReader = null;
+        }
+        if (mPictureImageReader != null) {
+            mRetiredImageReaders.add(mPictureImageReader);
+            mPictureImageReader = null;
+        }
+        initPreviewRequest();
+        createCommonSession();
+    }
+
+    private void closeRetiredImageReaders() {
+        for (ImageReader imageReader : mRetiredImageReaders) {
+            imageReader.close();
+        }
+        mRetiredImageReaders.clear();
+    }
+
+    /**
+     * 设置检测数据流尺寸，开启预览前设置
+     * <p>
+     * 设置后YUV回调不再使用预览尺寸，而是使用与预览比例一致、不小于该尺寸的最小分辨率，
+     * 显示通过{@link #startPreview(SurfaceTexture)}或{@link #startPreview(SurfaceHolder)}的Surface以预览尺寸输出，
+     * 这样CPU只处理低分辨率数据。传入null恢复为单路预览尺寸的YUV回调。
+     *
+     * @param detectionSize 检测需要的输入尺寸，按传感器方向（横屏）的宽高
+     */
+    public void setDetectionSize(Size detectionSize) {
+        mDetectionSize = detectionSize;
+    }
+
+    /**
+     * 获取YUV回调数据流的实际尺寸，开启预览后有效
+     *
+     * @return
+     */
+    public Size getPreviewBufferSize() {
+        return mPreviewBufferSize;
+    }
+
+    /**
+     * 在支持的YUV尺寸中选择与预览比例一致且能覆盖检测尺寸的最小尺寸
+     */
+    private Size getDetectionStreamSize(Size detectionSize) {
+        if (mSupportYUVSizes == null || mSupportYUVSizes.length == 0) {
+            return mPreviewSize;
+        }
+        Size best = null;
+        Size largest = null;
+        for (Size size : mSupportYUVSizes) {
+            // 比例与预览一致，保证两路画面内容相同
+            if ((long) size.getWidth() * mPreviewSize.getHeight() != (long) size.getHeight() * mPreviewSize.getWidth()) {
+                continue;
+            }
+            if (size.getWidth() > mPreviewSize.getWidth()) {
+                continue;
+            }
+            if (largest == null || size.getWidth() > largest.getWidth()) {
+                largest = size;
+            }
+            if (size.getWidth() >= detectionSize.getWidth() && size.getHeight() >= detectionSize.getHeight()
+                    && (best == null || size.getWidth() < best.getWidth())) {
+                best = size;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return largest != null ? largest : mPreviewSize;
     }
 
     @Override
@@ -633,10 +878,7 @@ public class Camera2Manager implements ICameraManager {
             mZoom--;
         }
         Log.v(TAG, "handleZoom: mZoom: " + mZoom);
-        Rect rect = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
-        int cropW = (int) (mStepWidth * mZoom);
-        int cropH = (int) (mStepHeight * mZoom);
-        Rect zoomRect = new Rect(rect.left + cropW, rect.top + cropH, rect.right - cropW, rect.bottom - cropH);
+        Rect zoomRect = getZoomRect();
         Log.d(TAG, "zoomRect: " + zoomRect);
         mPreviewRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, zoomRect);
         startPreview(); // 需要重新 start preview 才能生效
@@ -771,6 +1013,285 @@ public class Camera2Manager implements ICameraManager {
         return sizes[index];
     }
 
+    /**
+     * 当前缩放级别对应的裁剪区域
+     */
+    private Rect getZoomRect() {
+        Rect rect = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        int cropW = (int) (mStepWidth * mZoom);
+        int cropH = (int) (mStepHeight * mZoom);
+        return new Rect(rect.left + cropW, rect.top + cropH, rect.right - cropW, rect.bottom - cropH);
+    }
+
+    /**
+     * 开启或关闭人脸裁剪区域
+     * <p>
+     * 开启后根据{@link #updateFaceCrop}传入的人脸设置SCALER_CROP_REGION，ISP只输出人脸附近的区域，
+     * 同样的输出分辨率下人脸占据更多像素，检测可以使用更小的输入尺寸。裁剪对同一请求的所有输出生效，预览画面也会跟随人脸，
+     * 因此默认关闭，由界面提供开关；裁剪会改变人脸在画面中的大小，开启期间不应同时自适应切换分辨率。
+     * 关闭后恢复到当前缩放级别的区域。
+     *
+     * @param enabled
+     */
+    public void setFaceCropEnabled(boolean enabled) {
+        mFaceCropEnabled = enabled;
+        if (!enabled && mBackgroundHandler != null) {
+            mBackgroundHandler.post(() -> {
+                if (mFaceCropRegion != null) {
+                    applyFaceCropRegion(null);
+                }
+            });
+        }
+    }
+
+    public boolean isFaceCropEnabled() {
+        return mFaceCropEnabled;
+    }
+
+    /**
+     * 设置人脸裁剪参数
+     *
+     * @param margin  人脸外扩比例，相对人脸区域的宽高，每边外扩margin倍
+     * @param maxZoom 裁剪区域的最大放大倍数，不会超过设备支持的最大数码变焦
+     */
+    public void setFaceCropParams(float margin, float maxZoom) {
+        mFaceCropMargin = margin;
+        mFaceCropMaxZoom = maxZoom;
+    }
+
+    /**
+     * 根据一帧的检测结果更新裁剪区域，可在任意线程调用，需要在帧释放前调用
+     *
+     * @param frame     检测的帧
+     * @param faceRects 人脸框[x, y, w, h]，基于旋转后、未镜像的画面，没有人脸时传null
+     */
+    public void updateFaceCrop(PreviewFrame frame, List<float[]> faceRects) {
+        Handler handler = mBackgroundHandler;
+        if (!mFaceCropEnabled || handler == null) {
+            return;
+        }
+        Rect cropRegion = frame.getCropRegion();
+        if (cropRegion == null) {
+            return;
+        }
+        RectF faceUnion = null;
+        if (faceRects != null && !faceRects.isEmpty()) {
+            faceUnion = mapFacesToSensor(faceRects, frame.getWidth(), frame.getHeight(), frame.getOrientation(), cropRegion);
+        }
+        float aspect = frame.getWidth() * 1f / frame.getHeight();
+        RectF union = faceUnion;
+        handler.post(() -> steerFaceCrop(union, aspect));
+    }
+
+    /**
+     * 把检测坐标映射到传感器有效像素阵列坐标，返回所有人脸的外接矩形
+     * <p>
+     * 前置摄像头的镜像只发生在显示阶段，检测输入只按传感器方向旋转，没有镜像，
+     * 有效像素阵列坐标同样是传感器的原始方向，因此这里只需要逆旋转，不做水平翻转。
+     * 传入镜像后的显示坐标时需要先翻转回来。
+     */
+    private RectF mapFacesToSensor(List<float[]> faceRects, int width, int height, int orientation, Rect cropRegion) {
+        // 检测坐标基于旋转后的画面，先逆旋转回传感器方向
+        Matrix matrix = new Matrix();
+        matrix.setRotate(orientation);
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        matrix.invert(matrix);
+        // 输出画面是裁剪区域按输出比例居中裁剪后的内容
+        RectF output = new RectF(cropRegion);
+        float aspect = width * 1f / height;
+        if (output.width() / output.height() > aspect) {
+            float dx = (output.width() - output.height() * aspect) / 2;
+            output.inset(dx, 0);
+        } else {
+            float dy = (output.height() - output.width() / aspect) / 2;
+            output.inset(0, dy);
+        }
+        matrix.postScale(output.width() / width, output.height() / height);
+        matrix.postTranslate(output.left, output.top);
+
+        RectF union = null;
+        for (float[] faceRect : faceRects) {
+            RectF rect = new RectF(faceRect[0], faceRect[1], faceRect[0] + faceRect[2], faceRect[1] + faceRect[3]);
+            matrix.mapRect(rect);
+            if (union == null) {
+                union = rect;
+            } else {
+                union.union(rect);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * 在相机线程中更新裁剪区域，人脸仍在当前区域内圈且区域没有明显偏大时保持不变，人脸连续丢失后恢复
+     */
+    private void steerFaceCrop(RectF faceUnion, float aspect) {
+        if (!mFaceCropEnabled || mCaptureSession == null || mPreviewRequestBuilder == null || mActiveArraySize == null) {
+            return;
+        }
+        if (faceUnion == null) {
+            if (mFaceCropRegion != null && ++mFaceLostCount >= FACE_LOST_FRAMES) {
+                applyFaceCropRegion(null);
+            }
+            return;
+        }
+        mFaceLostCount = 0;
+        Rect target = computeFaceCropRegion(faceUnion, aspect);
+        Rect current = mFaceCropRegion;
+        if (current != null) {
+            Rect inner = new Rect(current);
+            inner.inset(current.width() / 10, current.height() / 10);
+            Rect face = new Rect();
+            faceUnion.round(face);
+            long targetArea = (long) target.width() * target.height();
+            long currentArea = (long) current.width() * current.height();
+            if (inner.contains(face) && targetArea * 2 >= currentArea) {
+                return;
+            }
+        }
+        applyFaceCropRegion(target);
+    }
+
+    /**
+     * 人脸外接矩形外扩后按输出比例调整，限制放大倍数并平移到有效像素阵列内
+     */
+    private Rect computeFaceCropRegion(RectF faceUnion, float aspect) {
+        Rect active = mActiveArraySize;
+        float width = faceUnion.width() * (1 + 2 * mFaceCropMargin);
+        float height = faceUnion.height() * (1 + 2 * mFaceCropMargin);
+        if (width / height > aspect) {
+            height = width / aspect;
+        } else {
+            width = height * aspect;
+        }
+        float minWidth = active.width() / Math.max(1f, Math.min(mFaceCropMaxZoom, mMaxDigitalZoom));
+        if (width < minWidth) {
+            width = minWidth;
+            height = width / aspect;
+        }
+        if (width > active.width()) {
+            width = active.width();
+            height = width / aspect;
+        }
+        if (height > active.height()) {
+            height = active.height();
+            width = height * aspect;
+        }
+        int w = (int) width;
+        int h = (int) height;
+        int left = clamp((int) (faceUnion.centerX() - width / 2), active.left, active.right - w);
+        int top = clamp((int) (faceUnion.centerY() - height / 2), active.top, active.bottom - h);
+        return new Rect(left, top, left + w, top + h);
+    }
+
+    private void applyFaceCropRegion(Rect region) {
+        mFaceCropRegion = region;
+        mFaceLostCount = 0;
+        if (mCaptureSession == null || mPreviewRequestBuilder == null) {
+            return;
+        }
+        Rect cropRegion = region != null ? region : getZoomRect();
+        Log.d(TAG, "faceCropRegion: " + cropRegion);
+        mPreviewRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, cropRegion);
+        updateRepeatingRequest();
+    }
+
+    /**
+     * 参数修改后重新下发预览请求，不回调onPreview
+     */
+    private void updateRepeatingRequest() {
+        if (mCaptureSession == null || mPreviewRequestBuilder == null) {
+            return;
+        }
+        try {
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mPreviewCaptureCallback, mBackgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 设置目标帧率，预览中调用时立即生效
+     * <p>
+     * 在CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES中选择上限不低于目标帧率的最小范围，
+     * 检测跟不上相机帧率时降低帧率，减少不会被处理的帧的转换和拷贝。
+     *
+     * @param fps 目标帧率，0恢复默认帧率
+     */
+    @Override
+    public void setTargetFrameRate(int fps) {
+        mTargetFrameRate = fps;
+        Handler handler = mBackgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            if (mPreviewRequestBuilder == null) {
+                return;
+            }
+            Range<Integer> fpsRange = getSuitableFpsRange(mTargetFrameRate);
+            if (fpsRange == null || fpsRange.equals(mTargetFpsRange)) {
+                return;
+            }
+            Logs.i(TAG, "targetFpsRange:" + fpsRange);
+            mTargetFpsRange = fpsRange;
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            updateRepeatingRequest();
+        });
+    }
+
+    @Override
+    public int getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * 选择上限不低于目标帧率的最小范围，上限相同时选择下限最接近目标帧率的范围，即优先选择固定帧率[fps, fps]。
+     * 下限低的范围允许自动曝光在暗光下降低帧率，检测间隔会随光线变化，固定帧率的间隔更稳定。
+     *
+     * @param fps 目标帧率，小于等于0时返回最大帧率范围
+     * @return 不支持帧率范围时返回null
+     */
+    private Range<Integer> getSuitableFpsRange(int fps) {
+        Range<Integer>[] fpsRanges = mFpsRanges;
+        if (fpsRanges == null || fpsRanges.length == 0) {
+            return null;
+        }
+        if (fps <= 0) {
+            return mTargetFpsRange == null ? null : mMaxFps;
+        }
+        Range<Integer> best = null;
+        Range<Integer> fastest = null;
+        for (Range<Integer> range : fpsRanges) {
+            if (fastest == null || range.getUpper() > fastest.getUpper()) {
+                fastest = range;
+            }
+            if (range.getUpper() < fps) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper())
+                    && Math.abs(range.getLower() - fps) < Math.abs(best.getLower() - fps))) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    /**
+     * 根据传感器时间戳查找该帧请求的裁剪区域
+     */
+    private Rect findCropRegion(long timestamp) {
+        for (int i = 0; i < CROP_HISTORY_SIZE; i++) {
+            if (mCropHistoryTimestamps[i] == timestamp) {
+                return mCropHistoryRegions[i];
+            }
+        }
+        return null;
+    }
+
     private int clamp(int x, int min, int max) {
         if (x > max) return max;
         if (x < min) return min;
@@ -821,122 +1342,74 @@ public class Camera2Manager implements ICameraManager {
         }
     }
 
+    /**
+     * 把帧的硬件缓冲区交给回调，回调返回后关闭缓冲区的引用，Image仍由调用方关闭
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private void deliverHardwareBuffer(Image image) {
+        HardwareBufferCallback callback = mHardwareBufferCallback;
+        HardwareBuffer hardwareBuffer = callback == null ? null : image.getHardwareBuffer();
+        if (hardwareBuffer != null) {
+            callback.onHardwareBuffer(hardwareBuffer, mSensorOrientation, isFrontCamera(), image.getTimestamp());
+            hardwareBuffer.close();
+        }
+    }
+
     private ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
-        private byte[] y;
-        private byte[] u;
-        private byte[] v;
-        private byte[] yuvData;
-        private ReentrantLock lock = new ReentrantLock();
+        private final YUVPlanePacker mPlanePacker = new YUVPlanePacker();
 
         @Override
         public void onImageAvailable(ImageReader reader) {
             Image image = reader.acquireLatestImage();
             if (image == null) return;
+            long arrivalTimestamp = SystemClock.elapsedRealtimeNanos();
+            if (isHardwareBufferEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                deliverHardwareBuffer(image);
+                if (mPreviewBufferCallbacks.isEmpty()) {
+                    image.close();
+                    return;
+                }
+            }
             // Y:U:V == 4:2:2
             if (image.getFormat() == ImageFormat.YUV_420_888) {
                 Image.Plane[] planes = image.getPlanes();
                 int width = image.getWidth();
                 int height = image.getHeight();
 
-                // 加锁确保y、u、v来源于同一个Image
-                lock.lock();
-
-                /** Y */
-                ByteBuffer bufferY = planes[0].getBuffer();
-                /** U(Cb) */
-                ByteBuffer bufferU = planes[1].getBuffer();
-                /** V(Cr) */
-                ByteBuffer bufferV = planes[2].getBuffer();
-
-                // 重复使用同一批byte数组，减少gc频率
-                if (y == null) {
-                    y = new byte[bufferY.limit() - bufferY.position()];
-                    u = new byte[bufferU.limit() - bufferU.position()];
-                    v = new byte[bufferV.limit() - bufferV.position()];
+                // 每帧写入独立的帧缓冲区，帧池耗尽说明消费者处理不过来，直接丢弃当前帧
+                PreviewFrame frame = mFramePool.obtain(width, height);
+                if (frame == null) {
+                    Tracer.event(Tracer.STAGE_FRAME_DROP, mFramePool.getDroppedCount());
+                    image.close();
+                    return;
                 }
-//                Logs.i(TAG, "y.len:" + bufferY.remaining() + " planes[0].pixelStride:" + planes[0].getPixelStride() + " planes[0].rowStride:" + planes[0].getRowStride());
-//                Logs.i(TAG, "u.len:" + bufferU.remaining() + " planes[1].pixelStride:" + planes[1].getPixelStride() + " planes[1].rowStride:" + planes[1].getRowStride());
-//                Logs.i(TAG, "v.len:" + bufferV.remaining() + " planes[2].pixelStride:" + planes[2].getPixelStride() + " planes[2].rowStride:" + planes[2].getRowStride());
-
-                if (yuvData == null) {
-                    yuvData = new byte[width * height * 3 / 2];
+                boolean traced = Tracer.beginSection(Tracer.STAGE_FRAME_COPY);
+                try {
+                    byte[] yuvData = frame.getData();
+
+                    // 去掉行填充后紧密排列
+                    YUVFormat yuvFormat = mPlanePacker.pack(
+                            planes[0].getBuffer(), planes[0].getRowStride(),
+                            planes[1].getBuffer(), planes[1].getPixelStride(), planes[1].getRowStride(),
+                            planes[2].getBuffer(), planes[2].getRowStride(),
+                            width, height, yuvData);
+                    frame.setFormat(yuvFormat);
+                    frame.setOrientation(mSensorOrientation);
+                    frame.setTimestamp(image.getTimestamp(), mTimestampRealtime);
+                    frame.setArrivalTimestamp(arrivalTimestamp);
+                    frame.setSequence(mFramePool.nextSequence());
+                    frame.setCropRegion(findCropRegion(image.getTimestamp()));
+                } finally {
+                    image.close();
+                    Tracer.endSection(traced, Tracer.STAGE_FRAME_COPY, frame.getSequence());
                 }
 
-                YUVFormat yuvFormat = YUVFormat.I420;
-                if (bufferY.remaining() == y.length) {
-                    bufferY.get(y);
-                    bufferU.get(u);
-                    bufferV.get(v);
-
-                    // 数据前期处理
-                    // 处理y
-                    int yRowStride = planes[0].getRowStride();
-                    if (yRowStride == width) {
-                        System.arraycopy(y, 0, yuvData, 0, y.length);
-                    } else {
-                        // 按行提取
-                        for (int i = 0; i < height; i++) {
-                            System.arraycopy(y, i * yRowStride, yuvData, i * width, width);
-                        }
-                    }
-
-                    int ySize = width * height;
-
-                    // 判断是p还是sp
-                    if (planes[1].getPixelStride() == 1) { // P
-                        yuvFormat = YUVFormat.I420;
-                        int offset = ySize;
-                        // 处理U
-                        int uRowStride = planes[1].getRowStride();
-                        if (uRowStride == width / 2) {
-                            System.arraycopy(u, 0, yuvData, offset, u.length);
-                        } else {
-                            int rowStride = width / 2;
-                            for (int i = 0; i < height / 2; i++) {
-                                System.arraycopy(u, i * uRowStride, yuvData, offset + i * rowStride, rowStride);
-                            }
-                        }
-
-                        offset = ySize + width * height / 4;
-                        // 处理V
-                        int vRowStride = planes[2].getRowStride();
-                        if (vRowStride == width / 2) {
-                            System.arraycopy(v, 0, yuvData, offset, v.length);
-                        } else {
-                            int rowStride = width / 2;
-                            for (int i = 0; i < height / 2; i++) {
-                                System.arraycopy(v, i * vRowStride, yuvData, offset + i * rowStride, rowStride);
-                            }
-                        }
-                    } else if (planes[1].getPixelStride() == 2) { // SP
-                        yuvFormat = YUVFormat.NV21;
-                        int offset = width * height;
-                        int uvSize = ySize / 2;
-
-                        // 处理UV
-                        int uvRowStride = planes[2].getRowStride();
-                        if (uvRowStride == width) {
-                            System.arraycopy(v, 0, yuvData, offset, v.length > uvSize ? uvSize : v.length);
-                        } else {
-                            // 按行提取
-                            int rowSize = height / 2;
-                            for (int i = 0; i < rowSize; i++) {
-                                if (i == rowSize - 1) {
-                                    int lastLineSize = v.length - i * uvRowStride;
-                                    System.arraycopy(v, i * uvRowStride, yuvData, offset + i * width, lastLineSize < width ? lastLineSize : width);
-                                } else {
-                                    System.arraycopy(v, i * uvRowStride, yuvData, offset + i * width, width);
-                                }
-                            }
-                        }
-                    }
+                for (PreviewBufferCallback previewBufferCallback : mPreviewBufferCallbacks) {
+                    previewBufferCallback.onPreviewFrame(frame);
                 }
-                if (!mPreviewBufferCallbacks.isEmpty()) {
-                    for (PreviewBufferCallback previewBufferCallback : mPreviewBufferCallbacks) {
-                        previewBufferCallback.onPreviewBufferFrame(yuvData, image.getWidth(), image.getHeight(), yuvFormat);
-                    }
-                }
-                lock.unlock();
+                // 释放相机持有的引用，消费者未持有时帧立即回到池中
+                frame.release();
+                return;
             }
 
             image.close();
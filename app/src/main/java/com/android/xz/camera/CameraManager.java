@@ -9,6 +9,10 @@ import android.hardware.Camera.Parameters;
 import android.hardware.Camera.PictureCallback;
 import android.hardware.Camera.PreviewCallback;
 import android.hardware.Camera.ShutterCallback;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.OrientationEventListener;
@@ -19,12 +23,17 @@ import android.view.WindowManager;
 import com.android.xz.camera.callback.CameraCallback;
 import com.android.xz.camera.callback.PictureBufferCallback;
 import com.android.xz.camera.callback.PreviewBufferCallback;
+import com.android.xz.util.Tracer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Camera实现
+ * <p>
+ * 摄像头在独立的HandlerThread中打开和操作，预览回调也在该线程执行，不占用主线程，CameraCallback回调切换到主线程。
  *
  * @author xiaozhi
  * @since 2024/8/15
@@ -58,10 +67,10 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
         }
     };
 
-    private Camera mCamera;
+    private volatile Camera mCamera;
     private Parameters mParameters;
     private Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
-    private boolean isPreviewing = false;
+    private volatile boolean isPreviewing = false;
     private int mDisplayOrientation = -1;
     private int mOrientation = -1;
     private int mCameraId = 0;
@@ -73,22 +82,72 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
     private Context mContext;
     private byte[] mCameraBytes = null;
     private boolean isSupportZoom;
+    /**
+     * 目标帧率，0表示使用默认帧率
+     */
+    private volatile int mTargetFrameRate;
     private CameraCallback mCameraCallback;
-    private List<PreviewBufferCallback> mPreviewBufferCallbacks = new ArrayList<>();
+    private List<PreviewBufferCallback> mPreviewBufferCallbacks = new CopyOnWriteArrayList<>();
     private PictureBufferCallback mPictureBufferCallback;
+    /**
+     * 预览帧池，池中空闲的帧都作为回调缓冲区交给Camera，消费者释放帧后才会重新交给Camera写入
+     */
+    private int mFramePoolSize = PreviewFramePool.DEFAULT_POOL_SIZE;
+    private PreviewFramePool mFramePool = new PreviewFramePool(mFramePoolSize);
+    /**
+     * 已交给Camera还未回调的缓冲区数量
+     */
+    private final AtomicInteger mQueuedBufferCount = new AtomicInteger(0);
 
     private SurfaceTexture mTempSurfaceTexture = new SurfaceTexture(10);
+    /**
+     * 摄像头线程，Camera.open()所在线程的Looper决定了预览回调所在线程
+     */
+    private HandlerThread mCameraThread;
+    private volatile Handler mCameraHandler;
+    private Handler mUIHandler;
 
     private PreviewCallback mPreviewCallback = new PreviewCallback() {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            if (!mPreviewBufferCallbacks.isEmpty()) {
-                for (PreviewBufferCallback previewBufferCallback : mPreviewBufferCallbacks) {
-                    previewBufferCallback.onPreviewBufferFrame(data, mPreviewWidth, mPreviewHeight, YUVFormat.NV21);
-                }
+            if (data == null) {
+                // 缓冲区尺寸与当前预览尺寸不匹配时被Camera清出队列
+                return;
+            }
+            PreviewFrame frame = mFramePool.find(data);
+            if (frame == null) {
+                // 不属于当前帧池的旧缓冲区，不再交还给Camera
+                return;
+            }
+            mQueuedBufferCount.decrementAndGet();
+            frame.setFormat(YUVFormat.NV21);
+            frame.setOrientation(mOrientation);
+            // Camera1没有传感器时间戳，使用回调到达时间，不参与采集到回调的延迟统计
+            long now = SystemClock.elapsedRealtimeNanos();
+            frame.setTimestamp(now, false);
+            frame.setArrivalTimestamp(now);
+            frame.setSequence(mFramePool.nextSequence());
+            Tracer.event(Tracer.STAGE_FRAME, frame.getSequence());
+            for (PreviewBufferCallback previewBufferCallback : mPreviewBufferCallbacks) {
+                previewBufferCallback.onPreviewFrame(frame);
             }
             mCameraBytes = data;
-            camera.addCallbackBuffer(data);
+            // 释放Camera持有的引用，引用归零后由帧池回收监听重新交给Camera
+            frame.release();
+            if (mQueuedBufferCount.get() <= 0) {
+                // 所有缓冲区都被消费者持有，Camera在帧释放前只能丢帧
+                mFramePool.recordDrop();
+                Tracer.event(Tracer.STAGE_FRAME_DROP, mFramePool.getDroppedCount());
+            }
+        }
+    };
+
+    private final Runnable mQueueCallbackBuffersRunnable = this::queueCallbackBuffers;
+
+    private final PreviewFramePool.OnFrameRecycledListener mOnFrameRecycledListener = pool -> {
+        if (pool == mFramePool) {
+            // 帧可能在任意线程释放，回到摄像头线程再交给Camera
+            runOnCameraThread(mQueueCallbackBuffersRunnable);
         }
     };
     private PictureCallback mPictureCallback = new PictureCallback() {
@@ -114,7 +173,8 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
                 break;
         }
         onOpenError(error, msg);
-        releaseCamera();
+        // 回调在摄像头线程，直接释放，线程在下次releaseCamera()时退出
+        releaseCameraInternal();
     };
 
     private OrientationEventListener mOrientationEventListener;
@@ -122,6 +182,7 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
 
     public CameraManager(Context context) {
         mContext = context;
+        mUIHandler = new Handler(context.getMainLooper());
         mOrientationEventListener = new OrientationEventListener(context) {
             @Override
             public void onOrientationChanged(int orientation) {
@@ -148,6 +209,40 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
         mPreviewWidth = size.getWidth();
         mPreviewHeight = size.getHeight();
         mPreviewScale = mPreviewHeight * 1f / mPreviewWidth;
+        if (isPreviewing) {
+            // 预览中修改尺寸，在摄像头线程中重启预览
+            runOnCameraThread(this::restartPreviewWithNewSize);
+        }
+    }
+
+    /**
+     * 按新的预览尺寸重启预览，回调缓冲区按新尺寸重新分配
+     */
+    private void restartPreviewWithNewSize() {
+        if (mCamera == null || !isPreviewing) {
+            return;
+        }
+        try {
+            mCamera.stopPreview();
+            Camera.Size previewSize = getSuitableSize(mParameters.getSupportedPreviewSizes());
+            mPreviewWidth = previewSize.width;
+            mPreviewHeight = previewSize.height;
+            mPreviewSize = new Size(mPreviewWidth, mPreviewHeight);
+            mParameters.setPreviewSize(mPreviewWidth, mPreviewHeight);
+            mCamera.setParameters(mParameters);
+            Log.d(TAG, "restartPreview previewWidth: " + mPreviewWidth + ", previewHeight: " + mPreviewHeight);
+            if (!mPreviewBufferCallbacks.isEmpty()) {
+                // 清空旧尺寸的回调缓冲区
+                mCamera.setPreviewCallbackWithBuffer(null);
+                prepareFramePool();
+                mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+            }
+            mCamera.startPreview();
+            onPreview(mPreviewWidth, mPreviewHeight);
+        } catch (Exception e) {
+            isPreviewing = false;
+            onPreviewError(CAMERA_ERROR_PREVIEW, e.getMessage());
+        }
     }
 
     @Override
@@ -196,9 +291,42 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
 
     @Override
     public void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback) {
-        if (previewBufferCallback != null && !mPreviewBufferCallbacks.contains(previewBufferCallback)) {
-            mPreviewBufferCallbacks.add(previewBufferCallback);
+        addPreviewBufferCallback(previewBufferCallback, DeliveryPolicy.LATEST_ONLY);
+    }
+
+    @Override
+    public void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback, DeliveryPolicy policy) {
+        if (previewBufferCallback == null) {
+            return;
+        }
+        for (PreviewBufferCallback callback : mPreviewBufferCallbacks) {
+            if (callback instanceof AsyncPreviewBufferCallback
+                    && ((AsyncPreviewBufferCallback) callback).getTarget() == previewBufferCallback) {
+                return;
+            }
         }
+        mPreviewBufferCallbacks.add(new AsyncPreviewBufferCallback(previewBufferCallback, policy));
+    }
+
+    /**
+     * 停止所有异步回调的分发线程
+     */
+    private void stopAsyncPreviewBufferCallbacks() {
+        for (PreviewBufferCallback callback : mPreviewBufferCallbacks) {
+            if (callback instanceof AsyncPreviewBufferCallback) {
+                ((AsyncPreviewBufferCallback) callback).stop();
+            }
+        }
+    }
+
+    @Override
+    public void setFramePoolSize(int size) {
+        mFramePoolSize = size;
+    }
+
+    @Override
+    public PreviewFramePool getFramePool() {
+        return mFramePool;
     }
 
     @Override
@@ -213,20 +341,27 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
     }
 
     public void takePicture(ShutterCallback shutterCallback, PictureCallback rawCallback, PictureCallback jpegCallback) {
-        if (null != mCamera && isPreviewing) {
-            isPreviewing = false;
-            Log.i(TAG, "latestRotation:" + getLatestRotation());
-            mParameters.setRotation(getLatestRotation());
-            mCamera.setParameters(mParameters);
-            mCamera.takePicture(shutterCallback, rawCallback, jpegCallback);
-        }
+        runOnCameraThread(() -> {
+            if (null != mCamera && isPreviewing) {
+                isPreviewing = false;
+                Log.i(TAG, "latestRotation:" + getLatestRotation());
+                mParameters.setRotation(getLatestRotation());
+                mCamera.setParameters(mParameters);
+                mCamera.takePicture(shutterCallback, rawCallback, jpegCallback);
+            }
+        });
     }
 
     /**
-     * 打开Camera
+     * 打开Camera，在摄像头线程中执行
      */
     @Override
     public synchronized void openCamera() {
+        startCameraThread();
+        mCameraHandler.post(this::openCameraInternal);
+    }
+
+    private void openCameraInternal() {
         Log.i(TAG, "Camera open #" + mCameraId);
         if (mCamera == null) {
             if (mCameraId >= Camera.getNumberOfCameras()) {
@@ -252,7 +387,7 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
      * @return
      */
     @Override
-    public synchronized boolean isOpen() {
+    public boolean isOpen() {
         return mCamera != null;
     }
 
@@ -262,26 +397,26 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
      * @param holder
      */
     @Override
-    public synchronized void startPreview(SurfaceHolder holder) {
-        Log.i(TAG, "startPreview...");
-        if (isPreviewing) {
-            return;
-        }
-        if (mCamera != null) {
-            try {
-                mCamera.setPreviewDisplay(holder);
-                if (!mPreviewBufferCallbacks.isEmpty()) {
-                    // 申请两个缓冲区
-                    mCamera.addCallbackBuffer(new byte[mPreviewWidth * mPreviewHeight * 3 / 2]);
-                    mCamera.addCallbackBuffer(new byte[mPreviewWidth * mPreviewHeight * 3 / 2]);
-                    mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    public void startPreview(SurfaceHolder holder) {
+        runOnCameraThread(() -> {
+            Log.i(TAG, "startPreview...");
+            if (isPreviewing) {
+                return;
+            }
+            if (mCamera != null) {
+                try {
+                    mCamera.setPreviewDisplay(holder);
+                    if (!mPreviewBufferCallbacks.isEmpty()) {
+                        prepareFramePool();
+                        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+                    }
+                    mCamera.startPreview();
+                    onPreview(mPreviewWidth, mPreviewHeight);
+                } catch (Exception e) {
+                    onPreviewError(CAMERA_ERROR_PREVIEW, e.getMessage());
                 }
-                mCamera.startPreview();
-                onPreview(mPreviewWidth, mPreviewHeight);
-            } catch (Exception e) {
-                onPreviewError(CAMERA_ERROR_PREVIEW, e.getMessage());
             }
-        }
+        });
     }
 
     /**
@@ -290,23 +425,53 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
      * @param surface
      */
     @Override
-    public synchronized void startPreview(SurfaceTexture surface) {
-        Log.i(TAG, "startPreview...");
-        if (isPreviewing) {
-            return;
-        }
-        if (mCamera != null) {
-            try {
-                mCamera.setPreviewTexture(surface == null ? mTempSurfaceTexture : surface);
-                if (!mPreviewBufferCallbacks.isEmpty()) {
-                    mCamera.addCallbackBuffer(new byte[mPreviewWidth * mPreviewHeight * 3 / 2]);
-                    mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    public void startPreview(SurfaceTexture surface) {
+        runOnCameraThread(() -> {
+            Log.i(TAG, "startPreview...");
+            if (isPreviewing) {
+                return;
+            }
+            if (mCamera != null) {
+                try {
+                    mCamera.setPreviewTexture(surface == null ? mTempSurfaceTexture : surface);
+                    if (!mPreviewBufferCallbacks.isEmpty()) {
+                        prepareFramePool();
+                        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+                    }
+                    mCamera.startPreview();
+                    onPreview(mPreviewWidth, mPreviewHeight);
+                } catch (Exception e) {
+                    onPreviewError(CAMERA_ERROR_PREVIEW, e.getMessage());
                 }
-                mCamera.startPreview();
-                onPreview(mPreviewWidth, mPreviewHeight);
-            } catch (Exception e) {
-                onPreviewError(CAMERA_ERROR_PREVIEW, e.getMessage());
             }
+        });
+    }
+
+    /**
+     * 重新创建帧池，并把所有帧作为回调缓冲区交给Camera
+     */
+    private void prepareFramePool() {
+        // 上一次预览中仍被消费者持有的帧会回到旧的帧池，不再交给Camera
+        mFramePool.setOnFrameRecycledListener(null);
+        mFramePool = new PreviewFramePool(mFramePoolSize);
+        mFramePool.setOnFrameRecycledListener(mOnFrameRecycledListener);
+        mQueuedBufferCount.set(0);
+        queueCallbackBuffers();
+    }
+
+    /**
+     * 把帧池中的空闲帧交给Camera作为回调缓冲区，在摄像头线程调用
+     */
+    private void queueCallbackBuffers() {
+        Camera camera = mCamera;
+        if (camera == null) {
+            return;
+        }
+        PreviewFramePool pool = mFramePool;
+        PreviewFrame frame;
+        while ((frame = pool.poll(mPreviewWidth, mPreviewHeight)) != null) {
+            camera.addCallbackBuffer(frame.getData());
+            mQueuedBufferCount.incrementAndGet();
         }
     }
 
@@ -314,12 +479,17 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
      * 关闭预览
      */
     @Override
-    public synchronized void stopPreview() {
+    public void stopPreview() {
+        runOnCameraThread(this::stopPreviewInternal);
+    }
+
+    private void stopPreviewInternal() {
         Log.v(TAG, "stopPreview.");
         if (isPreviewing && null != mCamera) {
             try {
                 mCamera.setPreviewCallback(null);
                 mCamera.stopPreview();
+                stopAsyncPreviewBufferCallbacks();
                 mPreviewBufferCallbacks.clear();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -329,13 +499,28 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
     }
 
     /**
-     * 停止预览，释放Camera
+     * 停止预览，释放Camera，等待摄像头线程退出后返回
      */
     @Override
     public synchronized void releaseCamera() {
         Log.v(TAG, "releaseCamera.");
+        Handler handler = mCameraHandler;
+        if (handler == null) {
+            return;
+        }
+        if (Looper.myLooper() == handler.getLooper()) {
+            // 不能在摄像头线程中等待自身退出
+            releaseCameraInternal();
+            return;
+        }
+        handler.post(this::releaseCameraInternal);
+        stopCameraThread();
+    }
+
+    private void releaseCameraInternal() {
         if (null != mCamera) {
-            stopPreview();
+            stopPreviewInternal();
+            mOrientationEventListener.disable();
             try {
                 mCamera.release();
                 mCamera = null;
@@ -347,6 +532,46 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
         }
     }
 
+    private void startCameraThread() {
+        if (mCameraThread == null || mCameraHandler == null) {
+            Log.v(TAG, "startCameraThread");
+            mCameraThread = new HandlerThread("CameraThread");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
+    }
+
+    private void stopCameraThread() {
+        Log.v(TAG, "stopCameraThread");
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            try {
+                mCameraThread.join();
+                mCameraThread = null;
+                mCameraHandler = null;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 在摄像头线程执行，摄像头线程未启动时忽略
+     *
+     * @param runnable
+     */
+    private void runOnCameraThread(Runnable runnable) {
+        Handler handler = mCameraHandler;
+        if (handler == null) {
+            return;
+        }
+        if (Looper.myLooper() == handler.getLooper()) {
+            runnable.run();
+        } else {
+            handler.post(runnable);
+        }
+    }
+
     /**
      * 配置Camera参数
      */
@@ -385,15 +610,92 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
             mParameters.setPictureSize(pictureSize.width, pictureSize.height);
             Log.d(TAG, "pictureWidth: " + pictureSize.width + ", pictureHeight: " + pictureSize.height);
 
+            applyTargetFrameRate(mParameters);
             mCamera.setParameters(mParameters);
             isSupportZoom = mParameters.isSmoothZoomSupported();
         }
     }
 
+    /**
+     * 设置目标帧率，在支持的帧率范围中选择上限不低于目标帧率的最小范围
+     *
+     * @param fps 目标帧率，0表示不再调整帧率，下次打开摄像头时恢复默认帧率
+     */
+    @Override
+    public void setTargetFrameRate(int fps) {
+        mTargetFrameRate = fps;
+        runOnCameraThread(() -> {
+            if (mCamera == null || mParameters == null) {
+                return;
+            }
+            if (applyTargetFrameRate(mParameters)) {
+                try {
+                    mCamera.setParameters(mParameters);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    @Override
+    public int getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * 把目标帧率写入参数
+     * <p>
+     * 选择上限不低于目标帧率的最小范围，上限相同时选择下限最接近目标帧率的范围，即优先选择固定帧率[fps, fps]，
+     * 避免自动曝光在暗光下降低帧率
+     *
+     * @return 帧率范围是否改变
+     */
+    private boolean applyTargetFrameRate(Parameters parameters) {
+        int fps = mTargetFrameRate;
+        List<int[]> fpsRanges = parameters.getSupportedPreviewFpsRange();
+        if (fps <= 0 || fpsRanges == null || fpsRanges.isEmpty()) {
+            return false;
+        }
+        int target = fps * 1000;
+        int[] best = null;
+        int[] fastest = null;
+        for (int[] range : fpsRanges) {
+            int min = range[Parameters.PREVIEW_FPS_MIN_INDEX];
+            int max = range[Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (fastest == null || max > fastest[Parameters.PREVIEW_FPS_MAX_INDEX]) {
+                fastest = range;
+            }
+            if (max < target) {
+                continue;
+            }
+            if (best == null || max < best[Parameters.PREVIEW_FPS_MAX_INDEX]
+                    || (max == best[Parameters.PREVIEW_FPS_MAX_INDEX]
+                    && Math.abs(min - target) < Math.abs(best[Parameters.PREVIEW_FPS_MIN_INDEX] - target))) {
+                best = range;
+            }
+        }
+        if (best == null) {
+            best = fastest;
+        }
+        int[] current = new int[2];
+        parameters.getPreviewFpsRange(current);
+        if (current[0] == best[Parameters.PREVIEW_FPS_MIN_INDEX] && current[1] == best[Parameters.PREVIEW_FPS_MAX_INDEX]) {
+            return false;
+        }
+        Log.d(TAG, "previewFpsRange: " + best[Parameters.PREVIEW_FPS_MIN_INDEX] + "-" + best[Parameters.PREVIEW_FPS_MAX_INDEX]);
+        parameters.setPreviewFpsRange(best[Parameters.PREVIEW_FPS_MIN_INDEX], best[Parameters.PREVIEW_FPS_MAX_INDEX]);
+        return true;
+    }
+
     /**
      * 开启闪光灯
      */
     public void setFlashModeOn() {
+        runOnCameraThread(this::setFlashModeOnInternal);
+    }
+
+    private void setFlashModeOnInternal() {
         if (mCamera == null)
             return;
 
@@ -419,6 +721,10 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
      * 关闭闪光灯
      */
     public void setFlashModeOff() {
+        runOnCameraThread(this::setFlashModeOffInternal);
+    }
+
+    private void setFlashModeOffInternal() {
         if (mCamera == null)
             return;
 
@@ -465,6 +771,10 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
     }
 
     public void focusOnPoint(int x, int y, int width, int height) {
+        runOnCameraThread(() -> focusOnPointInternal(x, y, width, height));
+    }
+
+    private void focusOnPointInternal(int x, int y, int width, int height) {
         Log.v(TAG, "touch point (" + x + ", " + y + ")");
         if (mCamera == null) {
             return;
@@ -530,7 +840,11 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
     }
 
     public void setZoom(int zoomValue) {
-        if (isSupportZoom) {
+        runOnCameraThread(() -> setZoomInternal(zoomValue));
+    }
+
+    private void setZoomInternal(int zoomValue) {
+        if (isSupportZoom && mCamera != null) {
             try {
                 Parameters params = mCamera.getParameters();
                 final int MAX = params.getMaxZoom();
@@ -557,7 +871,11 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
         }
     }
 
-    public synchronized void handleZoom(boolean isZoomIn) {
+    public void handleZoom(boolean isZoomIn) {
+        runOnCameraThread(() -> handleZoomInternal(isZoomIn));
+    }
+
+    private void handleZoomInternal(boolean isZoomIn) {
         if (mCamera == null) {
             return;
         }
@@ -638,34 +956,46 @@ public class CameraManager implements Camera.AutoFocusCallback, ICameraManager {
 
     }
 
+    /* 状态回调切回主线程 */
+
     private void onOpen() {
-        if (mCameraCallback != null) {
-            mCameraCallback.onOpen();
-        }
+        mUIHandler.post(() -> {
+            if (mCameraCallback != null) {
+                mCameraCallback.onOpen();
+            }
+        });
     }
 
     private void onOpenError(int error, String msg) {
-        if (mCameraCallback != null) {
-            mCameraCallback.onOpenError(error, msg);
-        }
+        mUIHandler.post(() -> {
+            if (mCameraCallback != null) {
+                mCameraCallback.onOpenError(error, msg);
+            }
+        });
     }
 
     private void onPreview(int width, int height) {
         isPreviewing = true;
-        if (mCameraCallback != null) {
-            mCameraCallback.onPreview(width, height);
-        }
+        mUIHandler.post(() -> {
+            if (mCameraCallback != null) {
+                mCameraCallback.onPreview(width, height);
+            }
+        });
     }
 
     private void onPreviewError(int error, String msg) {
-        if (mCameraCallback != null) {
-            mCameraCallback.onPreviewError(error, msg);
-        }
+        mUIHandler.post(() -> {
+            if (mCameraCallback != null) {
+                mCameraCallback.onPreviewError(error, msg);
+            }
+        });
     }
 
     private void onClose() {
-        if (mCameraCallback != null) {
-            mCameraCallback.onClose();
-        }
+        mUIHandler.post(() -> {
+            if (mCameraCallback != null) {
+                mCameraCallback.onClose();
+            }
+        });
     }
 }
@@ -0,0 +1,18 @@
+package com.android.xz.camera;
+
+/**
+ * 预览回调异步分发策略，参考{@link AsyncPreviewBufferCallback}
+ *
+ * @author xiaozhi
+ * @since 2024/9/10
+ */
+public enum DeliveryPolicy {
+    /**
+     * 只保留最新的一帧，消费者来不及处理时旧帧直接丢弃，适合显示和检测
+     */
+    LATEST_ONLY,
+    /**
+     * 有界队列，队列满时丢弃最旧的帧，适合希望尽量不丢帧的消费者，例如录制
+     */
+    BOUNDED
+}
@@ -0,0 +1,96 @@
+package com.android.xz.camera;
+
+import android.os.SystemClock;
+
+/**
+ * 单帧从采集到显示的各阶段时间点，时间基准均为{@link SystemClock#elapsedRealtimeNanos()}
+ * <ul>
+ * <li>capture：传感器曝光时间，时间基准不可比较时为-1</li>
+ * <li>callback：相机回调到达时间</li>
+ * <li>dequeue：检测线程开始处理时间</li>
+ * <li>inference：检测完成时间</li>
+ * <li>render：结果绘制到屏幕的时间</li>
+ * </ul>
+ *
+ * @author xiaozhi
+ * @since 2024/9/9
+ */
+public class FrameLatency {
+
+    private final long mSequence;
+    private final long mCaptureTime;
+    private final long mCallbackTime;
+    private long mDequeueTime = -1;
+    private long mInferenceEndTime = -1;
+    private long mRenderTime = -1;
+
+    public FrameLatency(PreviewFrame frame) {
+        mSequence = frame.getSequence();
+        mCaptureTime = frame.isTimestampRealtime() ? frame.getTimestamp() : -1;
+        mCallbackTime = frame.getArrivalTimestamp();
+    }
+
+    public void markDequeue() {
+        mDequeueTime = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void markInferenceEnd() {
+        mInferenceEndTime = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void markRendered() {
+        mRenderTime = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * 采集到相机回调，单位ns，无法计算时返回-1
+     */
+    public long getCaptureToCallback() {
+        return span(mCaptureTime, mCallbackTime);
+    }
+
+    /**
+     * 回调到检测线程开始处理的排队时间，单位ns
+     */
+    public long getQueueWait() {
+        return span(mCallbackTime, mDequeueTime);
+    }
+
+    /**
+     * 检测耗时，单位ns
+     */
+    public long getInference() {
+        return span(mDequeueTime, mInferenceEndTime);
+    }
+
+    /**
+     * 检测完成到结果绘制的耗时，单位ns
+     */
+    public long getRender() {
+        return span(mInferenceEndTime, mRenderTime);
+    }
+
+    /**
+     * 端到端耗时，采集时间不可用时从回调开始计算，单位ns
+     */
+    public long getTotal() {
+        return span(mCaptureTime >= 0 ? mCaptureTime : mCallbackTime, mRenderTime);
+    }
+
+    private static long span(long start, long end) {
+        if (start < 0 || end < 0 || end < start) {
+            return -1;
+        }
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameLatency#%d{capture->callback=%.2fms, queue=%.2fms, inference=%.2fms, render=%.2fms}",
+                mSequence, getCaptureToCallback() / 1e6f, getQueueWait() / 1e6f, getInference() / 1e6f, getRender() / 1e6f);
+    }
+}
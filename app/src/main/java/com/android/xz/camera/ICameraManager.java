@@ -74,7 +74,7 @@ public interface ICameraManager {
     Size getPreviewSize();
 
     /**
-     * 设置预览尺寸
+     * 设置预览尺寸，预览中调用时会按新尺寸重新配置预览，不需要重新打开摄像头
      *
      * @param size
      */
@@ -102,12 +102,48 @@ public interface ICameraManager {
     void setCameraCallback(CameraCallback cameraCallback);
 
     /**
-     * 设置预览数据回调
+     * 设置预览数据回调，按{@link DeliveryPolicy#LATEST_ONLY}在独立的分发线程执行，相机线程只做入队
      *
      * @param previewBufferCallback
      */
     void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback);
 
+    /**
+     * 设置预览数据回调，回调在独立的分发线程执行，不阻塞相机线程，参考{@link AsyncPreviewBufferCallback}
+     *
+     * @param previewBufferCallback
+     * @param policy                分发策略
+     */
+    void addPreviewBufferCallback(PreviewBufferCallback previewBufferCallback, DeliveryPolicy policy);
+
+    /**
+     * 设置预览帧池深度，下次开启预览时生效
+     *
+     * @param size
+     */
+    void setFramePoolSize(int size);
+
+    /**
+     * 获取预览帧池，可用于查询丢帧统计
+     *
+     * @return
+     */
+    PreviewFramePool getFramePool();
+
+    /**
+     * 设置目标帧率，预览中调用时立即生效，相机选择最接近的支持帧率
+     *
+     * @param fps 目标帧率，0恢复默认帧率
+     */
+    void setTargetFrameRate(int fps);
+
+    /**
+     * 获取目标帧率
+     *
+     * @return 0表示默认帧率
+     */
+    int getTargetFrameRate();
+
     /**
      * 拍照接口
      *
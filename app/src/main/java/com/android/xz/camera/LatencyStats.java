@@ -0,0 +1,107 @@
+package com.android.xz.camera;
+
+/**
+ * 帧延迟统计，汇总{@link FrameLatency}各阶段的平均值和最大值
+ *
+ * @author xiaozhi
+ * @since 2024/9/9
+ */
+public class LatencyStats {
+
+    public static final int CAPTURE_TO_CALLBACK = 0;
+    public static final int QUEUE_WAIT = 1;
+    public static final int INFERENCE = 2;
+    public static final int RENDER = 3;
+    public static final int TOTAL = 4;
+    private static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = {"capture->callback", "queue", "inference", "render", "total"};
+
+    private final long[] mSum = new long[STAGE_COUNT];
+    private final long[] mMax = new long[STAGE_COUNT];
+    private final long[] mCount = new long[STAGE_COUNT];
+    private long mLastSequence = -1;
+    private long mSkippedCount;
+
+    /**
+     * 记录一帧的延迟数据
+     *
+     * @param latency
+     */
+    public synchronized void record(FrameLatency latency) {
+        add(CAPTURE_TO_CALLBACK, latency.getCaptureToCallback());
+        add(QUEUE_WAIT, latency.getQueueWait());
+        add(INFERENCE, latency.getInference());
+        add(RENDER, latency.getRender());
+        add(TOTAL, latency.getTotal());
+        // 序号不连续说明中间的帧没有走到显示
+        long sequence = latency.getSequence();
+        if (mLastSequence >= 0 && sequence > mLastSequence + 1) {
+            mSkippedCount += sequence - mLastSequence - 1;
+        }
+        mLastSequence = sequence;
+    }
+
+    private void add(int stage, long value) {
+        if (value < 0) {
+            return;
+        }
+        mSum[stage] += value;
+        mCount[stage]++;
+        if (value > mMax[stage]) {
+            mMax[stage] = value;
+        }
+    }
+
+    /**
+     * 平均耗时，单位ms
+     *
+     * @param stage {@link #CAPTURE_TO_CALLBACK}、{@link #QUEUE_WAIT}、{@link #INFERENCE}、{@link #RENDER}、{@link #TOTAL}
+     */
+    public synchronized float getAverageMs(int stage) {
+        return mCount[stage] == 0 ? 0 : mSum[stage] / 1e6f / mCount[stage];
+    }
+
+    /**
+     * 最大耗时，单位ms
+     */
+    public synchronized float getMaxMs(int stage) {
+        return mMax[stage] / 1e6f;
+    }
+
+    /**
+     * 已统计的帧数
+     */
+    public synchronized long getCount(int stage) {
+        return mCount[stage];
+    }
+
+    /**
+     * 没有走到显示的帧数，根据帧序号的间隔计算
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mSum[i] = 0;
+            mMax[i] = 0;
+            mCount[i] = 0;
+        }
+        mLastSequence = -1;
+        mSkippedCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("LatencyStats{");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            builder.append(STAGE_NAMES[i]).append('=')
+                    .append(String.format("%.2f/%.2fms", getAverageMs(i), getMaxMs(i)))
+                    .append(", ");
+        }
+        builder.append("skipped=").append(mSkippedCount).append('}');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package com.android.xz.camera;
+
+import android.graphics.Rect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预览帧，由{@link PreviewFramePool}统一分配和回收
+ * <p>
+ * 帧通过引用计数管理生命周期：相机回调时持有一次引用，消费者需要跨线程使用时调用{@link #acquire()}，
+ * 用完后调用{@link #release()}。引用计数归零后帧才会回到池中被相机重新写入，因此持有期间数据不会被覆盖。
+ *
+ * @author xiaozhi
+ * @since 2024/9/2
+ */
+public class PreviewFrame {
+
+    private final PreviewFramePool mPool;
+    private final AtomicInteger mRefCount = new AtomicInteger(0);
+
+    private byte[] mData;
+    private int mWidth;
+    private int mHeight;
+    private YUVFormat mFormat = YUVFormat.NV21;
+    /**
+     * 数据方向，原始画面顺时针旋转该角度后朝上
+     */
+    private int mOrientation;
+    /**
+     * 帧时间戳，单位ns，Camera2为传感器曝光时间，Camera1为回调到达时间
+     */
+    private long mTimestamp;
+    /**
+     * 时间戳是否与{@link android.os.SystemClock#elapsedRealtimeNanos()}同一时间基准
+     */
+    private boolean mTimestampRealtime;
+    /**
+     * 相机回调到达时间，{@link android.os.SystemClock#elapsedRealtimeNanos()}，单位ns
+     */
+    private long mArrivalTimestamp;
+    /**
+     * 帧序号，同一个帧池内单调递增
+     */
+    private long mSequence;
+    /**
+     * 采集该帧时的SCALER_CROP_REGION，传感器有效像素阵列坐标，未知时为null
+     */
+    private Rect mCropRegion;
+
+    PreviewFrame(PreviewFramePool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * 增加一次引用，跨线程持有帧时调用
+     *
+     * @return 当前帧
+     */
+    public PreviewFrame acquire() {
+        int count;
+        do {
+            count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame #" + mSequence + " has been recycled.");
+            }
+        } while (!mRefCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * 释放一次引用，引用计数为0时帧回到池中
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            mRefCount.set(0);
+            throw new IllegalStateException("Frame #" + mSequence + " released too many times.");
+        }
+    }
+
+    public int getRefCount() {
+        return mRefCount.get();
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public YUVFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public boolean isTimestampRealtime() {
+        return mTimestampRealtime;
+    }
+
+    public long getArrivalTimestamp() {
+        return mArrivalTimestamp;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public Rect getCropRegion() {
+        return mCropRegion;
+    }
+
+    /**
+     * 从池中取出时调用，引用计数置为1
+     */
+    void reset(int width, int height, int size) {
+        if (mData == null || mData.length != size) {
+            mData = new byte[size];
+        }
+        mWidth = width;
+        mHeight = height;
+        mRefCount.set(1);
+    }
+
+    void setFormat(YUVFormat format) {
+        mFormat = format;
+    }
+
+    void setOrientation(int orientation) {
+        mOrientation = orientation;
+    }
+
+    void setTimestamp(long timestamp, boolean realtime) {
+        mTimestamp = timestamp;
+        mTimestampRealtime = realtime;
+    }
+
+    void setArrivalTimestamp(long arrivalTimestamp) {
+        mArrivalTimestamp = arrivalTimestamp;
+    }
+
+    void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    void setCropRegion(Rect cropRegion) {
+        mCropRegion = cropRegion;
+    }
+}
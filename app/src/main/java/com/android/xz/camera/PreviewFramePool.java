@@ -0,0 +1,161 @@
+package com.android.xz.camera;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预览帧池，固定数量的{@link PreviewFrame}循环使用
+ * <p>
+ * 池中没有空闲帧时（所有帧都被消费者持有），新到达的帧会被丢弃并计入丢帧数。
+ *
+ * @author xiaozhi
+ * @since 2024/9/2
+ */
+public class PreviewFramePool {
+
+    /**
+     * 默认帧池深度
+     */
+    public static final int DEFAULT_POOL_SIZE = 3;
+
+    /**
+     * 帧回收监听，引用计数归零回到池中时回调，回调所在线程为最后一次调用release()的线程
+     */
+    public interface OnFrameRecycledListener {
+        void onFrameRecycled(PreviewFramePool pool);
+    }
+
+    private final PreviewFrame[] mFrames;
+    private final ArrayBlockingQueue<PreviewFrame> mFreeFrames;
+    private final AtomicLong mSequence = new AtomicLong(0);
+    private final AtomicLong mObtainedCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private volatile OnFrameRecycledListener mOnFrameRecycledListener;
+
+    public PreviewFramePool() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param size 帧池深度
+     */
+    public PreviewFramePool(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        mFrames = new PreviewFrame[size];
+        mFreeFrames = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            mFrames[i] = new PreviewFrame(this);
+            mFreeFrames.offer(mFrames[i]);
+        }
+    }
+
+    /**
+     * 获取一个空闲帧，获取到的帧引用计数为1
+     *
+     * @param width
+     * @param height
+     * @return 空闲帧，池耗尽时返回null并计入丢帧数
+     */
+    public PreviewFrame obtain(int width, int height) {
+        PreviewFrame frame = poll(width, height);
+        if (frame == null) {
+            mDroppedCount.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * 获取一个空闲帧，池耗尽时返回null，不计入丢帧数
+     */
+    PreviewFrame poll(int width, int height) {
+        PreviewFrame frame = mFreeFrames.poll();
+        if (frame != null) {
+            frame.reset(width, height, width * height * 3 / 2);
+            frame.setSequence(0);
+            frame.setTimestamp(0, false);
+            frame.setArrivalTimestamp(0);
+            frame.setCropRegion(null);
+            mObtainedCount.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * 根据数据数组查找所属的帧，用于Camera1回调缓冲区与帧的对应
+     *
+     * @param data
+     * @return 不属于当前池时返回null
+     */
+    PreviewFrame find(byte[] data) {
+        for (PreviewFrame frame : mFrames) {
+            if (frame.getData() == data) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 生成下一个帧序号
+     */
+    long nextSequence() {
+        return mSequence.incrementAndGet();
+    }
+
+    /**
+     * 记录一次丢帧
+     */
+    void recordDrop() {
+        mDroppedCount.incrementAndGet();
+    }
+
+    void recycle(PreviewFrame frame) {
+        mFreeFrames.offer(frame);
+        OnFrameRecycledListener listener = mOnFrameRecycledListener;
+        if (listener != null) {
+            listener.onFrameRecycled(this);
+        }
+    }
+
+    void setOnFrameRecycledListener(OnFrameRecycledListener listener) {
+        mOnFrameRecycledListener = listener;
+    }
+
+    /**
+     * 帧池深度
+     */
+    public int getSize() {
+        return mFrames.length;
+    }
+
+    /**
+     * 当前空闲帧数量
+     */
+    public int getAvailableCount() {
+        return mFreeFrames.size();
+    }
+
+    /**
+     * 已分配出去的帧总数
+     */
+    public long getObtainedCount() {
+        return mObtainedCount.get();
+    }
+
+    /**
+     * 因帧池耗尽而丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 重置统计数据
+     */
+    public void resetStats() {
+        mObtainedCount.set(0);
+        mDroppedCount.set(0);
+    }
+}
@@ -0,0 +1,22 @@
+package com.android.xz.camera.callback;
+
+import android.hardware.HardwareBuffer;
+
+/**
+ * 预览帧硬件缓冲区回调，Android 10及以上可用
+ *
+ * @author xiaozhi
+ * @since 2024/9/13
+ */
+public interface HardwareBufferCallback {
+
+    /**
+     * 在相机线程回调，buffer仅在回调内有效，回调返回后被关闭
+     *
+     * @param buffer      YUV_420_888格式、CPU可读的硬件缓冲区
+     * @param orientation 数据方向，原始画面顺时针旋转该角度后朝上
+     * @param mirror      是否为前置摄像头，旋转后需要水平镜像才与显示画面一致
+     * @param timestamp   传感器时间戳，单位ns
+     */
+    void onHardwareBuffer(HardwareBuffer buffer, int orientation, boolean mirror, long timestamp);
+}
@@ -1,5 +1,6 @@
 package com.android.xz.camera.callback;
 
+import com.android.xz.camera.PreviewFrame;
 import com.android.xz.camera.YUVFormat;
 
 /**
@@ -10,5 +11,19 @@ import com.android.xz.camera.YUVFormat;
  */
 public interface PreviewBufferCallback {
 
+    /**
+     * 预览数据回调，data仅在回调内有效，回调返回后可能被相机覆盖
+     */
     void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format);
+
+    /**
+     * 预览帧回调，默认转调{@link #onPreviewBufferFrame}
+     * <p>
+     * 需要在其他线程使用帧数据时重写该方法，先调用{@link PreviewFrame#acquire()}持有帧，用完后调用{@link PreviewFrame#release()}
+     *
+     * @param frame
+     */
+    default void onPreviewFrame(PreviewFrame frame) {
+        onPreviewBufferFrame(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat());
+    }
 }
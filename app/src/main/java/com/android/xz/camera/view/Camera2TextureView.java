@@ -0,0 +1,35 @@
+package com.android.xz.camera.view;
+
+import android.content.Context;
+import android.util.AttributeSet;
+
+import com.android.xz.camera.Camera2Manager;
+import com.android.xz.camera.ICameraManager;
+import com.android.xz.camera.view.base.BaseTextureView;
+
+/**
+ * 适用Camera2的TextureView，可配合{@link Camera2Manager#setDetectionSize}使用，显示走SurfaceTexture，检测走低分辨率YUV数据流
+ *
+ * @author xiaozhi
+ * @since 2024/9/6
+ */
+public class Camera2TextureView extends BaseTextureView {
+
+    public Camera2TextureView(Context context) {
+        super(context);
+    }
+
+    public Camera2TextureView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public Camera2TextureView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    @Override
+    public ICameraManager createCameraManager(Context context) {
+        // 创建Camera2Manager
+        return new Camera2Manager(context);
+    }
+}
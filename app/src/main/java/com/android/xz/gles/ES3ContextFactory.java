@@ -0,0 +1,44 @@
+package com.android.xz.gles;
+
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * 优先创建OpenGL ES 3上下文，设备不支持时退回ES 2
+ * <p>
+ * 与{@link GLSurfaceView#setEGLContextClientVersion(int)}传2一起使用，配置仍按ES 2选择。
+ * 上下文的实际版本通过{@link GLESUtils#getMajorVersion()}判断，只有不低于3时才能使用GLES30的接口。
+ *
+ * @author xiaozhi
+ * @since 2024/9/20
+ */
+public class ES3ContextFactory implements GLSurfaceView.EGLContextFactory {
+
+    private static final String TAG = ES3ContextFactory.class.getSimpleName();
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+        int[] attribList = {EGL_CONTEXT_CLIENT_VERSION, 3, EGL10.EGL_NONE};
+        EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attribList);
+        if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+            Log.w(TAG, "create OpenGL ES 3 context failed: 0x" + Integer.toHexString(egl.eglGetError()) + ", fall back to 2");
+            attribList[1] = 2;
+            context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attribList);
+        }
+        return context;
+    }
+
+    @Override
+    public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+        if (!egl.eglDestroyContext(display, context)) {
+            Log.e(TAG, "eglDestroyContext failed: 0x" + Integer.toHexString(egl.eglGetError()));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.android.xz.gles;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 人脸框和关键点叠加绘制，在画面绘制完成后同一个渲染过程中用GL_TRIANGLES和GL_POINTS批量绘制
+ * <p>
+ * 很多GPU的glLineWidth只支持1像素，人脸框的每条边画成两个三角形组成的矩形，线宽按视口像素换算。
+ * 顶点缓冲区只创建一次，人脸数据更新时原地写入，只上传用到的部分，绘制过程不分配对象。
+ *
+ * @author xiaozhi
+ * @since 2024/9/16
+ */
+public class FaceOverlayFilter {
+
+    /**
+     * 每个人脸的float数：x y w h 5个关键点xy
+     */
+    public static final int FACE_STRIDE = 14;
+    /**
+     * 最多绘制的人脸数
+     */
+    public static final int MAX_FACES = 32;
+
+    private static final int COORDS_PER_VERTEX = 2;
+    // 人脸框left top right bottom
+    private static final int BOX_FLOATS = 4;
+    // 人脸框4条边，每条边2个三角形
+    private static final int BOX_VERTICES_PER_FACE = 24;
+    private static final int POINT_VERTICES_PER_FACE = 5;
+    private static final int BOX_REGION_FLOATS = MAX_FACES * BOX_VERTICES_PER_FACE * COORDS_PER_VERTEX;
+    private static final int POINT_REGION_FLOATS = MAX_FACES * POINT_VERTICES_PER_FACE * COORDS_PER_VERTEX;
+    private static final int VERTEX_FLOATS = BOX_REGION_FLOATS + POINT_REGION_FLOATS;
+
+    // 顶点着色器代码，顶点已经是归一化设备坐标
+    private final String vertexShaderCode =
+            "attribute vec2 vPosition;\n" +
+                    "uniform float uPointSize;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = vec4(vPosition, 0.0, 1.0);\n" +
+                    "  gl_PointSize = uPointSize;\n" +
+                    "}\n";
+
+    // 片段着色器代码
+    private final String fragmentShaderCode =
+            "precision mediump float;\n" +
+                    "uniform vec4 uColor;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = uColor;\n" +
+                    "}\n";
+
+    private int mProgram;
+    private int mPositionHandle;
+    private int mColorHandle;
+    private int mPointSizeHandle;
+    private int[] mVertexBufferHandle = new int[1];
+
+    private final FloatBuffer mVertexBuffer;
+
+    // 检测线程写入，渲染线程读取
+    private final Object mLock = new Object();
+    private final float[] mStagingBoxes = new float[MAX_FACES * BOX_FLOATS];
+    private final float[] mStagingPoints = new float[POINT_REGION_FLOATS];
+    private int mStagingBoxCount;
+    private int mStagingPointCount;
+    private boolean mDirty;
+
+    // 渲染线程使用
+    private final float[] mBoxVertices = new float[BOX_REGION_FLOATS];
+    private int mBoxVertexCount;
+    private int mPointVertexCount;
+    private int mViewWidth;
+    private int mViewHeight;
+
+    private volatile boolean mMirror;
+    private float mLineWidth = 4;
+    private float mPointSize = 8;
+
+    public FaceOverlayFilter() {
+        mVertexBuffer = ByteBuffer.allocateDirect(VERTEX_FLOATS * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /**
+     * 画面左右镜像，与前置摄像头的显示保持一致
+     */
+    public void setMirror(boolean mirror) {
+        mMirror = mirror;
+    }
+
+    /**
+     * 人脸框线宽，单位为像素
+     */
+    public void setLineWidth(float lineWidth) {
+        mLineWidth = lineWidth;
+    }
+
+    public void setPointSize(float pointSize) {
+        mPointSize = pointSize;
+    }
+
+    public void surfaceCreated() {
+        mProgram = GLESUtils.createProgram(vertexShaderCode, fragmentShaderCode);
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        mColorHandle = GLES20.glGetUniformLocation(mProgram, "uColor");
+        mPointSizeHandle = GLES20.glGetUniformLocation(mProgram, "uPointSize");
+
+        GLES20.glGenBuffers(1, mVertexBufferHandle, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferHandle[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, VERTEX_FLOATS * 4, null, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        // 新的上下文需要重新上传顶点
+        synchronized (mLock) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 视口变化时调用，人脸框线宽按视口尺寸换算到归一化设备坐标
+     */
+    public void surfaceChanged(int width, int height) {
+        mViewWidth = width;
+        mViewHeight = height;
+        synchronized (mLock) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 更新人脸数据，可在任意线程调用
+     *
+     * @param faces       人脸数据，每个人脸{@link #FACE_STRIDE}个float，关键点全为0时不绘制关键点
+     * @param faceCount   人脸数
+     * @param frameWidth  人脸坐标所在画面的宽
+     * @param frameHeight 人脸坐标所在画面的高
+     */
+    public void setFaces(float[] faces, int faceCount, int frameWidth, int frameHeight) {
+        faceCount = Math.min(faceCount, MAX_FACES);
+        boolean mirror = mMirror;
+        synchronized (mLock) {
+            int point = 0;
+            for (int i = 0; i < faceCount; i++) {
+                int offset = i * FACE_STRIDE;
+                float x0 = toX(faces[offset], frameWidth, mirror);
+                float x1 = toX(faces[offset] + faces[offset + 2], frameWidth, mirror);
+                int box = i * BOX_FLOATS;
+                // 镜像后左右互换，保证left < right
+                mStagingBoxes[box] = Math.min(x0, x1);
+                mStagingBoxes[box + 1] = toY(faces[offset + 1], frameHeight);
+                mStagingBoxes[box + 2] = Math.max(x0, x1);
+                mStagingBoxes[box + 3] = toY(faces[offset + 1] + faces[offset + 3], frameHeight);
+
+                if (hasLandmarks(faces, offset)) {
+                    for (int j = 0; j < POINT_VERTICES_PER_FACE; j++) {
+                        mStagingPoints[point++] = toX(faces[offset + 4 + j * 2], frameWidth, mirror);
+                        mStagingPoints[point++] = toY(faces[offset + 5 + j * 2], frameHeight);
+                    }
+                }
+            }
+            mStagingBoxCount = faceCount;
+            mStagingPointCount = point / COORDS_PER_VERTEX;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 把人脸框展开成4条边的三角形，边以框线为中心向内外各延伸半个线宽
+     *
+     * @return 写入的float数
+     */
+    private int buildBoxVertices(int boxCount) {
+        // 视口跨度为2，半个线宽对应lineWidth / viewSize
+        float hx = mViewWidth > 0 ? mLineWidth / mViewWidth : 0;
+        float hy = mViewHeight > 0 ? mLineWidth / mViewHeight : 0;
+        int index = 0;
+        for (int i = 0; i < boxCount; i++) {
+            int box = i * BOX_FLOATS;
+            float left = mStagingBoxes[box];
+            float top = mStagingBoxes[box + 1];
+            float right = mStagingBoxes[box + 2];
+            float bottom = mStagingBoxes[box + 3];
+            // y轴向上，top大于bottom
+            float ol = left - hx, il = left + hx;
+            float or = right + hx, ir = right - hx;
+            float ot = top + hy, it = top - hy;
+            float ob = bottom - hy, ib = bottom + hy;
+
+            index = putQuad(index, ol, ot, or, ot, ir, it, il, it);
+            index = putQuad(index, or, ot, or, ob, ir, ib, ir, it);
+            index = putQuad(index, or, ob, ol, ob, il, ib, ir, ib);
+            index = putQuad(index, ol, ob, ol, ot, il, it, il, ib);
+        }
+        return index;
+    }
+
+    private int putQuad(int index, float x0, float y0, float x1, float y1,
+                        float x2, float y2, float x3, float y3) {
+        index = putVertex(index, x0, y0);
+        index = putVertex(index, x1, y1);
+        index = putVertex(index, x2, y2);
+        index = putVertex(index, x0, y0);
+        index = putVertex(index, x2, y2);
+        index = putVertex(index, x3, y3);
+        return index;
+    }
+
+    private int putVertex(int index, float x, float y) {
+        mBoxVertices[index++] = x;
+        mBoxVertices[index++] = y;
+        return index;
+    }
+
+    private static boolean hasLandmarks(float[] faces, int offset) {
+        for (int i = 4; i < FACE_STRIDE; i++) {
+            if (faces[offset + i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float toX(float x, int width, boolean mirror) {
+        float ndc = x * 2 / width - 1;
+        return mirror ? -ndc : ndc;
+    }
+
+    private static float toY(float y, int height) {
+        return 1 - y * 2 / height;
+    }
+
+    /**
+     * 在画面绘制完成后调用，与画面使用同一个视口
+     */
+    public void onDraw() {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferHandle[0]);
+        synchronized (mLock) {
+            if (mDirty) {
+                mDirty = false;
+                int boxFloats = buildBoxVertices(mStagingBoxCount);
+                int pointFloats = mStagingPointCount * COORDS_PER_VERTEX;
+                mBoxVertexCount = boxFloats / COORDS_PER_VERTEX;
+                mPointVertexCount = mStagingPointCount;
+                // 只上传用到的顶点，人脸框从0开始，关键点从BOX_REGION_FLOATS开始
+                if (boxFloats > 0) {
+                    mVertexBuffer.clear();
+                    mVertexBuffer.put(mBoxVertices, 0, boxFloats);
+                    mVertexBuffer.position(0);
+                    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, boxFloats * 4, mVertexBuffer);
+                }
+                if (pointFloats > 0) {
+                    mVertexBuffer.clear();
+                    mVertexBuffer.put(mStagingPoints, 0, pointFloats);
+                    mVertexBuffer.position(0);
+                    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, BOX_REGION_FLOATS * 4, pointFloats * 4, mVertexBuffer);
+                }
+            }
+        }
+        if (mBoxVertexCount == 0 && mPointVertexCount == 0) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            return;
+        }
+
+        GLES20.glUseProgram(mProgram);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, COORDS_PER_VERTEX * 4, 0);
+
+        if (mBoxVertexCount > 0) {
+            GLES20.glUniform4f(mColorHandle, 0.0f, 1.0f, 0.0f, 1.0f);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mBoxVertexCount);
+        }
+        if (mPointVertexCount > 0) {
+            GLES20.glUniform1f(mPointSizeHandle, mPointSize);
+            GLES20.glUniform4f(mColorHandle, 1.0f, 1.0f, 0.0f, 1.0f);
+            GLES20.glDrawArrays(GLES20.GL_POINTS, BOX_REGION_FLOATS / COORDS_PER_VERTEX, mPointVertexCount);
+        }
+
+        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    public void release() {
+        GLES20.glDeleteProgram(mProgram);
+        mProgram = -1;
+        GLES20.glDeleteBuffers(1, mVertexBufferHandle, 0);
+    }
+}
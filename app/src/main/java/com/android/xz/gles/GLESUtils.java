@@ -232,6 +232,23 @@ public class GLESUtils {
         }
     }
 
+    /**
+     * 当前上下文的OpenGL ES主版本号，需要在GL线程调用
+     * <p>
+     * ES 2上下文不认识GL_MAJOR_VERSION，查询会产生GL_INVALID_ENUM，此时返回2。
+     */
+    public static int getMajorVersion() {
+        // 清掉之前遗留的错误，避免误判
+        while (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+        }
+        int[] values = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_MAJOR_VERSION, values, 0);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || values[0] < 2) {
+            return 2;
+        }
+        return values[0];
+    }
+
     public static int create2DTexture(Bitmap bitmap) {
         int[] texture = new int[1];
         if (bitmap != null && !bitmap.isRecycled()) {
@@ -0,0 +1,144 @@
+package com.android.xz.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 相机OES纹理绘制，同一个程序既用于屏幕显示，也用于向帧缓冲区绘制检测用的缩小画面
+ * <p>
+ * 纹理坐标先经过SurfaceTexture的变换矩阵，画面旋转、镜像、缩放通过MVP矩阵控制。
+ *
+ * @author xiaozhi
+ * @since 2024/9/17
+ */
+public class OESFilter {
+
+    // 顶点着色器代码
+    private final String vertexShaderCode =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "uniform mat4 uTexMatrix;\n" +
+                    "attribute vec4 vPosition;\n" +
+                    "attribute vec4 vTexCoordinate;\n" +
+                    "varying vec2 aTexCoordinate;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = uMVPMatrix * vPosition;\n" +
+                    "  aTexCoordinate = (uTexMatrix * vTexCoordinate).xy;\n" +
+                    "}\n";
+
+    // 片段着色器代码
+    private final String fragmentShaderCode =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision mediump float;\n" +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    "varying vec2 aTexCoordinate;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = texture2D(sTexture, aTexCoordinate);\n" +
+                    "}\n";
+
+    // 此数组中每个顶点的坐标数
+    static final int COORDS_PER_VERTEX = 2;
+
+    /**
+     * 顶点坐标，顺序与纹理坐标对应：左上、左下、右上、右下
+     */
+    private float vertexCoords[] = {
+            -1.0f, 1.0f,
+            -1.0f, -1.0f,
+            1.0f, 1.0f,
+            1.0f, -1.0f,
+    };
+
+    /**
+     * 纹理坐标，原点在左下角，SurfaceTexture的变换矩阵会处理缓冲区自身的翻转
+     */
+    private float textureCoords[] = {
+            0.0f, 1.0f,
+            0.0f, 0.0f,
+            1.0f, 1.0f,
+            1.0f, 0.0f,
+    };
+
+    private final int vertexStride = COORDS_PER_VERTEX * 4;
+
+    private FloatBuffer vertexBuffer;
+    private FloatBuffer textureBuffer;
+
+    private int mProgram;
+    private int positionHandle;
+    private int texCoordinateHandle;
+    private int vPMatrixHandle;
+    private int texMatrixHandle;
+    private int samplerHandle;
+
+    private int mTextureId;
+
+    public OESFilter() {
+        vertexBuffer = ByteBuffer.allocateDirect(vertexCoords.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer()
+                .put(vertexCoords);
+        vertexBuffer.position(0);
+
+        textureBuffer = ByteBuffer.allocateDirect(textureCoords.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer()
+                .put(textureCoords);
+        textureBuffer.position(0);
+    }
+
+    /**
+     * 设置相机纹理，由{@link GLESUtils#createOESTexture()}创建
+     */
+    public void setTextureId(int textureId) {
+        mTextureId = textureId;
+    }
+
+    public void surfaceCreated() {
+        mProgram = GLESUtils.createProgram(vertexShaderCode, fragmentShaderCode);
+        positionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        texCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "vTexCoordinate");
+        vPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        texMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+        samplerHandle = GLES20.glGetUniformLocation(mProgram, "sTexture");
+    }
+
+    /**
+     * 绘制到当前绑定的帧缓冲区和视口
+     *
+     * @param matrix    MVP矩阵
+     * @param texMatrix SurfaceTexture的变换矩阵
+     */
+    public void onDraw(float[] matrix, float[] texMatrix) {
+        GLES20.glUseProgram(mProgram);
+
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, vertexStride, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordinateHandle);
+        GLES20.glVertexAttribPointer(texCoordinateHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, vertexStride, textureBuffer);
+
+        GLES20.glUniformMatrix4fv(vPMatrixHandle, 1, false, matrix, 0);
+        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, texMatrix, 0);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glUniform1i(samplerHandle, 0);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(texCoordinateHandle);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+    }
+
+    public void release() {
+        GLES20.glDeleteProgram(mProgram);
+        mProgram = -1;
+    }
+}
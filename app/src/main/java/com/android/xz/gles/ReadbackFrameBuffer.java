@@ -0,0 +1,172 @@
+package com.android.xz.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 离屏帧缓冲区及其RGBA读回
+ * <p>
+ * OpenGL ES 3.0下通过两个像素缓冲区交替读回：本帧的glReadPixels只是发起拷贝立即返回，
+ * 同时映射上一帧的像素缓冲区取数据，GPU和CPU互不等待，代价是结果晚一帧。
+ * 不支持3.0时退化为同步glReadPixels。
+ *
+ * @author xiaozhi
+ * @since 2024/9/17
+ */
+public class ReadbackFrameBuffer {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private int[] mFrameBuffer = new int[1];
+    private int[] mTexture = new int[1];
+    private int mWidth;
+    private int mHeight;
+
+    private boolean mPixelBufferSupported;
+    private int[] mPixelBuffers = new int[2];
+    private boolean[] mPending = new boolean[2];
+    private long[] mPendingTimestamps = new long[2];
+    private int mPixelBufferIndex;
+
+    // 读回的像素，行间无填充，第一行为画面顶部
+    private ByteBuffer mPixels = ByteBuffer.allocateDirect(0);
+    private long mTimestamp;
+
+    public void surfaceCreated() {
+        GLES20.glGenFramebuffers(1, mFrameBuffer, 0);
+        mTexture[0] = GLESUtils.create2DTexture();
+        mWidth = 0;
+        mHeight = 0;
+
+        // 按上下文的实际版本判断，ES 2上下文的GL_VERSION字符串也可能报告3.x
+        mPixelBufferSupported = GLESUtils.getMajorVersion() >= 3;
+        if (mPixelBufferSupported) {
+            GLES30.glGenBuffers(mPixelBuffers.length, mPixelBuffers, 0);
+        }
+        mPending[0] = false;
+        mPending[1] = false;
+    }
+
+    /**
+     * 设置帧缓冲区尺寸，尺寸变化时重新分配纹理、像素缓冲区和读回内存，未读回的帧被丢弃
+     */
+    public void setSize(int width, int height) {
+        if (mWidth == width && mHeight == height) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        int size = width * height * BYTES_PER_PIXEL;
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, mTexture[0], 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        if (mPixelBufferSupported) {
+            for (int i = 0; i < mPixelBuffers.length; i++) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[i]);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                mPending[i] = false;
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        mPixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 绑定为绘制目标，视口设置为帧缓冲区尺寸
+     */
+    public void bind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+    }
+
+    public void unbind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * 读回帧缓冲区内容，需要在{@link #bind()}之后调用
+     *
+     * @param timestamp 本帧的时间戳，随读回的像素一起返回
+     * @return {@link #getPixels()}中是否有新的一帧，异步读回时为上一帧
+     */
+    public boolean readPixels(long timestamp) {
+        if (!mPixelBufferSupported) {
+            mPixels.clear();
+            GLES20.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPixels);
+            mTimestamp = timestamp;
+            return true;
+        }
+
+        int size = mWidth * mHeight * BYTES_PER_PIXEL;
+        int index = mPixelBufferIndex;
+        int previous = 1 - index;
+
+        // 绑定像素缓冲区时最后一个参数为缓冲区内偏移，调用立即返回
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[index]);
+        GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        mPending[index] = true;
+        mPendingTimestamps[index] = timestamp;
+        mPixelBufferIndex = previous;
+
+        boolean ready = false;
+        if (mPending[previous]) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[previous]);
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                    GLES30.GL_MAP_READ_BIT);
+            if (mapped != null) {
+                mPixels.clear();
+                mPixels.put(mapped);
+                mPixels.flip();
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+                mTimestamp = mPendingTimestamps[previous];
+                ready = true;
+            }
+            mPending[previous] = false;
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        return ready;
+    }
+
+    /**
+     * 最近一次读回的RGBA像素，只在渲染线程有效，下一次{@link #readPixels(long)}会覆盖
+     */
+    public ByteBuffer getPixels() {
+        mPixels.position(0);
+        return mPixels;
+    }
+
+    /**
+     * 最近一次读回的像素对应的时间戳
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public void release() {
+        GLES20.glDeleteFramebuffers(1, mFrameBuffer, 0);
+        GLES20.glDeleteTextures(1, mTexture, 0);
+        if (mPixelBufferSupported) {
+            GLES30.glDeleteBuffers(mPixelBuffers.length, mPixelBuffers, 0);
+            mPixelBufferSupported = false;
+        }
+        mWidth = 0;
+        mHeight = 0;
+    }
+}
@@ -1,6 +1,7 @@
 package com.android.xz.gles;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 import com.android.xz.camera.YUVFormat;
 
@@ -116,9 +117,24 @@ public class YUVFilter {
     private int vPMatrixHandle;
 
     private IntBuffer mPlanarTextureHandles = IntBuffer.wrap(new int[3]);
-    private int[] mSampleHandle = new int[3];
+    private int mSamplerYHandle;
+    private int mSamplerUHandle;
+    private int mSamplerVHandle;
+    private int mSamplerUVHandle;
     private int mYUVTypeHandle;
 
+    // 纹理已分配的存储尺寸和格式，尺寸不变时只用glTexSubImage2D更新数据
+    private int[] mPlaneWidth = new int[3];
+    private int[] mPlaneHeight = new int[3];
+    private int[] mPlaneFormat = new int[3];
+
+    // 像素缓冲区，每个平面两个交替使用，需要OpenGL ES 3.0
+    private boolean mPixelBufferSupported;
+    private boolean mPixelBufferEnabled;
+    private int[] mPixelBuffers = new int[6];
+    private int[] mPixelBufferSizes = new int[6];
+    private int mPixelBufferIndex;
+
     private final int vertexCount = vertexCoords.length / COORDS_PER_VERTEX;
     private final int vertexStride = COORDS_PER_VERTEX * 4; // 4 bytes per vertex
 
@@ -171,9 +187,48 @@ public class YUVFilter {
         vPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         // 获取yuvType句柄
         mYUVTypeHandle = GLES20.glGetUniformLocation(mProgram, "yuvType");
+        // 获取纹理采样器句柄
+        mSamplerYHandle = GLES20.glGetUniformLocation(mProgram, "samplerY");
+        mSamplerUHandle = GLES20.glGetUniformLocation(mProgram, "samplerU");
+        mSamplerVHandle = GLES20.glGetUniformLocation(mProgram, "samplerV");
+        mSamplerUVHandle = GLES20.glGetUniformLocation(mProgram, "samplerUV");
 
-        // 生成YUV纹理句柄
+        // 生成YUV纹理句柄，纹理参数只需要设置一次
         GLES20.glGenTextures(3, mPlanarTextureHandles);
+        for (int i = 0; i < 3; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanarTextureHandles.get(i));
+            // 设置放大和缩小时，纹理的过滤选项为：线性过滤
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            // 设置纹理X,Y轴的纹理环绕选项为：边缘像素延伸
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            mPlaneWidth[i] = 0;
+            mPlaneHeight[i] = 0;
+            mPlaneFormat[i] = 0;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        // UV平面宽度为奇数时每行不是4字节对齐
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+        // 像素缓冲区是ES 3的接口，按上下文的实际版本判断，GL_VERSION字符串在ES 2上下文中也可能报告3.x
+        mPixelBufferSupported = GLESUtils.getMajorVersion() >= 3;
+        if (mPixelBufferSupported) {
+            GLES30.glGenBuffers(mPixelBuffers.length, mPixelBuffers, 0);
+            for (int i = 0; i < mPixelBufferSizes.length; i++) {
+                mPixelBufferSizes[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * 开启后通过两组交替的像素缓冲区上传纹理，CPU写入一组时GPU读取另一组，不需要等待驱动拷贝完成，
+     * 当前上下文不支持OpenGL ES 3.0时不生效
+     *
+     * @param enabled
+     */
+    public void setPixelBufferEnabled(boolean enabled) {
+        mPixelBufferEnabled = enabled;
     }
 
     public void surfaceChanged(int width, int height) {
@@ -213,22 +268,14 @@ public class YUVFilter {
         GLES20.glUniform1i(mYUVTypeHandle, yuvType);
 
         // yuvType: 0是I420，1是NV12
-        int planarCount = 0;
         if (yuvFormat == YUVFormat.I420) {
-            planarCount = 3;
-            mSampleHandle[0] = GLES20.glGetUniformLocation(mProgram, "samplerY");
-            mSampleHandle[1] = GLES20.glGetUniformLocation(mProgram, "samplerU");
-            mSampleHandle[2] = GLES20.glGetUniformLocation(mProgram, "samplerV");
+            bindSampler(mSamplerYHandle, 0);
+            bindSampler(mSamplerUHandle, 1);
+            bindSampler(mSamplerVHandle, 2);
         } else {
             //NV12、NV21有两个平面
-            planarCount = 2;
-            mSampleHandle[0] = GLES20.glGetUniformLocation(mProgram, "samplerY");
-            mSampleHandle[1] = GLES20.glGetUniformLocation(mProgram, "samplerUV");
-        }
-        for (int i = 0; i < planarCount; i++) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanarTextureHandles.get(i));
-            GLES20.glUniform1i(mSampleHandle[i], i);
+            bindSampler(mSamplerYHandle, 0);
+            bindSampler(mSamplerUVHandle, 1);
         }
 
         // 绘制
@@ -239,9 +286,20 @@ public class YUVFilter {
         GLES20.glDisableVertexAttribArray(texCoordinateHandle);
     }
 
+    private void bindSampler(int samplerHandle, int index) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + index);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanarTextureHandles.get(index));
+        GLES20.glUniform1i(samplerHandle, index);
+    }
+
     public void release() {
         GLES20.glDeleteProgram(mProgram);
         mProgram = -1;
+        GLES20.glDeleteTextures(3, mPlanarTextureHandles);
+        if (mPixelBufferSupported) {
+            GLES30.glDeleteBuffers(mPixelBuffers.length, mPixelBuffers, 0);
+            mPixelBufferSupported = false;
+        }
     }
 
     /**
@@ -258,6 +316,7 @@ public class YUVFilter {
         textureYUV(yPlane, width, height, 0);
         textureYUV(uPlane, width / 2, height / 2, 1);
         textureYUV(vPlane, width / 2, height / 2, 2);
+        mPixelBufferIndex = 1 - mPixelBufferIndex;
     }
 
     /**
@@ -272,6 +331,7 @@ public class YUVFilter {
         //根据YUV编码的特点，获得不同平面的基址
         textureYUV(yPlane, width, height, 0);
         textureNV12(uvPlane, width / 2, height / 2, 1);
+        mPixelBufferIndex = 1 - mPixelBufferIndex;
     }
 
     /**
@@ -282,23 +342,9 @@ public class YUVFilter {
      * @param height    YUV图片高度
      */
     private void textureYUV(ByteBuffer imageData, int width, int height, int index) {
-        // 将纹理对象绑定到纹理目标
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanarTextureHandles.get(index));
-        // 设置放大和缩小时，纹理的过滤选项为：线性过滤
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        // 设置纹理X,Y轴的纹理环绕选项为：边缘像素延伸
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        // 加载图像数据到纹理，GL_LUMINANCE指明了图像数据的像素格式为只有亮度，虽然第三个和第七个参数都使用了GL_LUMINANCE，
-        // 但意义是不一样的，前者指明了纹理对象的颜色分量成分，后者指明了图像数据的像素格式
-        // 获得纹理对象后，其每个像素的r,g,b,a值都为相同，为加载图像的像素亮度，在这里就是YUV某一平面的分量值
-        GLES20.glTexImage2D(
-                GLES20.GL_TEXTURE_2D, 0,
-                GLES20.GL_LUMINANCE, width, height, 0,
-                GLES20.GL_LUMINANCE,
-                GLES20.GL_UNSIGNED_BYTE, imageData
-        );
+        // GL_LUMINANCE指明了图像数据的像素格式为只有亮度，获得纹理对象后，其每个像素的r,g,b,a值都为相同，
+        // 为加载图像的像素亮度，在这里就是YUV某一平面的分量值
+        uploadPlane(imageData, width, height, index, GLES20.GL_LUMINANCE, 1);
     }
 
     /**
@@ -309,16 +355,50 @@ public class YUVFilter {
      * @param height    YUV图片高度
      */
     private void textureNV12(ByteBuffer imageData, int width, int height, int index) {
+        uploadPlane(imageData, width, height, index, GLES20.GL_LUMINANCE_ALPHA, 2);
+    }
+
+    /**
+     * 尺寸或格式变化时重新分配纹理存储，其余情况只更新纹理数据
+     */
+    private void uploadPlane(ByteBuffer imageData, int width, int height, int index, int format, int bytesPerPixel) {
+        // 将纹理对象绑定到纹理目标
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanarTextureHandles.get(index));
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexImage2D(
-                GLES20.GL_TEXTURE_2D, 0,
-                GLES20.GL_LUMINANCE_ALPHA, width, height, 0,
-                GLES20.GL_LUMINANCE_ALPHA,
-                GLES20.GL_UNSIGNED_BYTE, imageData
-        );
+        if (mPlaneWidth[index] != width || mPlaneHeight[index] != height || mPlaneFormat[index] != format) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
+            mPlaneWidth[index] = width;
+            mPlaneHeight[index] = height;
+            mPlaneFormat[index] = format;
+        }
+
+        if (mPixelBufferEnabled && mPixelBufferSupported
+                && uploadWithPixelBuffer(imageData, width, height, index, format, width * height * bytesPerPixel)) {
+            return;
+        }
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, imageData);
+    }
+
+    private boolean uploadWithPixelBuffer(ByteBuffer imageData, int width, int height, int index, int format, int size) {
+        int bufferIndex = index * 2 + mPixelBufferIndex;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mPixelBuffers[bufferIndex]);
+        if (mPixelBufferSizes[bufferIndex] != size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES30.GL_STREAM_DRAW);
+            mPixelBufferSizes[bufferIndex] = size;
+        }
+        // 丢弃旧内容映射，驱动不需要等待上一次使用该缓冲区的上传完成
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            return false;
+        }
+        ByteBuffer source = imageData.duplicate();
+        source.limit(source.position() + size);
+        mapped.put(source);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+        // 绑定像素缓冲区时最后一个参数为缓冲区内偏移
+        GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return true;
     }
 }
@@ -0,0 +1,323 @@
+package com.android.xz.pipeline;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.xz.camera.ICameraManager;
+import com.android.xz.camera.PreviewFrame;
+import com.android.xz.camera.YUVFormat;
+import com.android.xz.camera.callback.PreviewBufferCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 分阶段的帧处理流水线
+ * <p>
+ * 每个阶段有独立的有界输入队列和工作线程，相邻阶段之间并行执行，例如第N+1帧做颜色转换的同时第N帧在做推理。
+ * 帧在流水线中始终持有一次引用，走完最后一个阶段、被丢弃或处理异常时释放。
+ * <pre>
+ * FramePipeline pipeline = new FramePipeline.Builder()
+ *         .addStage("convert", convertStage, 1, 2, QueuePolicy.DROP_OLDEST)
+ *         .addStage("detect", detectStage, 1, 1, QueuePolicy.DROP_OLDEST)
+ *         .addStage("render", renderStage, 1, 2, QueuePolicy.DROP_OLDEST)
+ *         .build();
+ * pipeline.attach(cameraManager);
+ * pipeline.start();
+ * </pre>
+ * 同一阶段配置多个线程时帧的处理顺序不再保证。
+ *
+ * @author xiaozhi
+ * @since 2024/9/5
+ */
+public class FramePipeline implements PreviewBufferCallback {
+
+    private static final String TAG = FramePipeline.class.getSimpleName();
+
+    /**
+     * 在流水线中流转的帧及其当前阶段的输入
+     */
+    private static class Job {
+        PreviewFrame frame;
+        Object value;
+        long enqueueTime;
+
+        Job(PreviewFrame frame) {
+            this.frame = frame;
+            this.value = frame;
+        }
+    }
+
+    private final StageRunner[] mRunners;
+    private final List<StageMetrics> mMetrics;
+    private volatile boolean mRunning;
+
+    private FramePipeline(List<StageConfig> configs) {
+        mRunners = new StageRunner[configs.size()];
+        for (int i = 0; i < mRunners.length; i++) {
+            StageConfig config = configs.get(i);
+            mRunners[i] = new StageRunner(config.name, config.stage, config.threadCount, config.queueCapacity, config.policy);
+        }
+        List<StageMetrics> metrics = new ArrayList<>();
+        for (int i = 0; i < mRunners.length; i++) {
+            mRunners[i].mNext = i + 1 < mRunners.length ? mRunners[i + 1] : null;
+            metrics.add(mRunners[i].mMetrics);
+        }
+        mMetrics = Collections.unmodifiableList(metrics);
+    }
+
+    /**
+     * 作为预览回调添加到相机
+     *
+     * @param cameraManager
+     */
+    public void attach(ICameraManager cameraManager) {
+        cameraManager.addPreviewBufferCallback(this);
+    }
+
+    /**
+     * 启动所有阶段的工作线程
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        for (StageRunner runner : mRunners) {
+            runner.start();
+        }
+    }
+
+    /**
+     * 停止所有阶段，释放队列中的帧
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        for (StageRunner runner : mRunners) {
+            runner.stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 各阶段的统计数据，顺序与添加阶段的顺序一致
+     */
+    public List<StageMetrics> getMetrics() {
+        return mMetrics;
+    }
+
+    public void resetMetrics() {
+        for (StageMetrics metrics : mMetrics) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * 只有数据没有帧引用时无法跨线程持有，不进入流水线
+     */
+    @Override
+    public void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format) {
+        if (mRunners.length > 0) {
+            mRunners[0].mMetrics.onEnqueue();
+            mRunners[0].mMetrics.onDrop();
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(PreviewFrame frame) {
+        if (!mRunning || mRunners.length == 0) {
+            return;
+        }
+        mRunners[0].offer(new Job(frame.acquire()));
+    }
+
+    private static void finish(Job job) {
+        PreviewFrame frame = job.frame;
+        job.frame = null;
+        job.value = null;
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+    private class StageRunner implements Runnable {
+
+        private final String mName;
+        private final PipelineStage<Object, Object> mStage;
+        private final int mThreadCount;
+        private final QueuePolicy mPolicy;
+        private final ArrayBlockingQueue<Job> mQueue;
+        private final StageMetrics mMetrics;
+        private final List<Thread> mThreads = new ArrayList<>();
+        private StageRunner mNext;
+
+        @SuppressWarnings("unchecked")
+        StageRunner(String name, PipelineStage<?, ?> stage, int threadCount, int capacity, QueuePolicy policy) {
+            mName = name;
+            mStage = (PipelineStage<Object, Object>) stage;
+            mThreadCount = threadCount;
+            mPolicy = policy;
+            mQueue = new ArrayBlockingQueue<>(capacity);
+            mMetrics = new StageMetrics(name);
+        }
+
+        void start() {
+            for (int i = 0; i < mThreadCount; i++) {
+                Thread thread = new Thread(this, "Pipeline-" + mName + "-" + i);
+                mThreads.add(thread);
+                thread.start();
+            }
+        }
+
+        void stop() {
+            for (Thread thread : mThreads) {
+                thread.interrupt();
+            }
+            for (Thread thread : mThreads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            mThreads.clear();
+            Job job;
+            while ((job = mQueue.poll()) != null) {
+                mMetrics.onDrop();
+                finish(job);
+            }
+        }
+
+        void offer(Job job) {
+            mMetrics.onEnqueue();
+            if (!mRunning) {
+                drop(job);
+                return;
+            }
+            job.enqueueTime = SystemClock.elapsedRealtimeNanos();
+            switch (mPolicy) {
+                case BLOCK:
+                    try {
+                        mQueue.put(job);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop(job);
+                        return;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    if (!mQueue.offer(job)) {
+                        drop(job);
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!mQueue.offer(job)) {
+                        Job oldest = mQueue.poll();
+                        if (oldest != null) {
+                            drop(oldest);
+                        }
+                    }
+                    break;
+            }
+            mMetrics.setQueueSize(mQueue.size());
+            if (!mRunning) {
+                // 入队的同时流水线被停止，队列不会再被消费
+                Job pending;
+                while ((pending = mQueue.poll()) != null) {
+                    drop(pending);
+                }
+            }
+        }
+
+        private void drop(Job job) {
+            mMetrics.onDrop();
+            finish(job);
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                Job job;
+                try {
+                    job = mQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long start = SystemClock.elapsedRealtimeNanos();
+                Object output;
+                try {
+                    output = mStage.process(job.frame, job.value);
+                } catch (Exception e) {
+                    Log.e(TAG, "Stage " + mName + " failed on frame #" + job.frame.getSequence(), e);
+                    mMetrics.onError();
+                    finish(job);
+                    continue;
+                }
+                long end = SystemClock.elapsedRealtimeNanos();
+                mMetrics.onProcessed(start - job.enqueueTime, end - start);
+                if (output == null || mNext == null) {
+                    finish(job);
+                } else {
+                    job.value = output;
+                    mNext.offer(job);
+                }
+            }
+        }
+    }
+
+    private static class StageConfig {
+        String name;
+        PipelineStage<?, ?> stage;
+        int threadCount;
+        int queueCapacity;
+        QueuePolicy policy;
+    }
+
+    public static class Builder {
+
+        private final List<StageConfig> mConfigs = new ArrayList<>();
+
+        /**
+         * 添加一个阶段，使用单线程、容量为1、保留最新帧的队列
+         */
+        public Builder addStage(String name, PipelineStage<?, ?> stage) {
+            return addStage(name, stage, 1, 1, QueuePolicy.DROP_OLDEST);
+        }
+
+        /**
+         * 添加一个阶段
+         *
+         * @param name          阶段名称，用于线程名和统计
+         * @param stage         处理逻辑
+         * @param threadCount   工作线程数
+         * @param queueCapacity 输入队列容量
+         * @param policy        队列满时的处理策略
+         */
+        public Builder addStage(String name, PipelineStage<?, ?> stage, int threadCount, int queueCapacity, QueuePolicy policy) {
+            if (threadCount <= 0 || queueCapacity <= 0) {
+                throw new IllegalArgumentException("threadCount and queueCapacity must be positive.");
+            }
+            StageConfig config = new StageConfig();
+            config.name = name;
+            config.stage = stage;
+            config.threadCount = threadCount;
+            config.queueCapacity = queueCapacity;
+            config.policy = policy;
+            mConfigs.add(config);
+            return this;
+        }
+
+        public FramePipeline build() {
+            return new FramePipeline(new ArrayList<>(mConfigs));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.android.xz.pipeline;
+
+import com.android.xz.camera.PreviewFrame;
+
+/**
+ * 流水线中的一个处理阶段
+ *
+ * @param <I> 输入类型，第一个阶段的输入为{@link PreviewFrame}本身
+ * @param <O> 输出类型，作为下一个阶段的输入
+ * @author xiaozhi
+ * @since 2024/9/5
+ */
+public interface PipelineStage<I, O> {
+
+    /**
+     * 处理一帧，在该阶段的工作线程中调用
+     *
+     * @param frame 当前处理的帧，整个流水线处理完成前数据有效
+     * @param input 上一个阶段的输出
+     * @return 传给下一个阶段的数据，返回null表示该帧在此结束，不再往后传递
+     * @throws Exception 处理异常时该帧被丢弃并计入错误数
+     */
+    O process(PreviewFrame frame, I input) throws Exception;
+}
@@ -0,0 +1,22 @@
+package com.android.xz.pipeline;
+
+/**
+ * 阶段输入队列满时的处理策略
+ *
+ * @author xiaozhi
+ * @since 2024/9/5
+ */
+public enum QueuePolicy {
+    /**
+     * 阻塞上游直到队列有空位，用于不能丢帧的阶段，注意不要让相机线程阻塞
+     */
+    BLOCK,
+    /**
+     * 丢弃新到达的帧
+     */
+    DROP_NEWEST,
+    /**
+     * 丢弃队列中最旧的帧，保留最新的帧
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,131 @@
+package com.android.xz.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流水线阶段统计数据
+ *
+ * @author xiaozhi
+ * @since 2024/9/5
+ */
+public class StageMetrics {
+
+    private final String mName;
+    private final AtomicLong mInCount = new AtomicLong(0);
+    private final AtomicLong mOutCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private final AtomicLong mErrorCount = new AtomicLong(0);
+    private final AtomicLong mQueueWaitNanos = new AtomicLong(0);
+    private final AtomicLong mProcessNanos = new AtomicLong(0);
+    private final AtomicLong mMaxProcessNanos = new AtomicLong(0);
+    private volatile int mQueueSize;
+
+    StageMetrics(String name) {
+        mName = name;
+    }
+
+    void onEnqueue() {
+        mInCount.incrementAndGet();
+    }
+
+    void onDrop() {
+        mDroppedCount.incrementAndGet();
+    }
+
+    void onError() {
+        mErrorCount.incrementAndGet();
+    }
+
+    void onProcessed(long waitNanos, long processNanos) {
+        mOutCount.incrementAndGet();
+        mQueueWaitNanos.addAndGet(waitNanos);
+        mProcessNanos.addAndGet(processNanos);
+        long max;
+        do {
+            max = mMaxProcessNanos.get();
+        } while (processNanos > max && !mMaxProcessNanos.compareAndSet(max, processNanos));
+    }
+
+    void setQueueSize(int queueSize) {
+        mQueueSize = queueSize;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 进入该阶段的帧数
+     */
+    public long getInCount() {
+        return mInCount.get();
+    }
+
+    /**
+     * 处理完成的帧数
+     */
+    public long getOutCount() {
+        return mOutCount.get();
+    }
+
+    /**
+     * 因队列满被丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 处理异常的帧数
+     */
+    public long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    /**
+     * 最近一次入队后的队列长度
+     */
+    public int getQueueSize() {
+        return mQueueSize;
+    }
+
+    /**
+     * 平均排队时间，单位ms
+     */
+    public float getAverageQueueWaitMs() {
+        long count = mOutCount.get();
+        return count == 0 ? 0 : mQueueWaitNanos.get() / 1e6f / count;
+    }
+
+    /**
+     * 平均处理时间，单位ms
+     */
+    public float getAverageProcessMs() {
+        long count = mOutCount.get();
+        return count == 0 ? 0 : mProcessNanos.get() / 1e6f / count;
+    }
+
+    /**
+     * 最长处理时间，单位ms
+     */
+    public float getMaxProcessMs() {
+        return mMaxProcessNanos.get() / 1e6f;
+    }
+
+    public void reset() {
+        mInCount.set(0);
+        mOutCount.set(0);
+        mDroppedCount.set(0);
+        mErrorCount.set(0);
+        mQueueWaitNanos.set(0);
+        mProcessNanos.set(0);
+        mMaxProcessNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{in=%d, out=%d, dropped=%d, error=%d, queue=%d, wait=%.2fms, process=%.2fms, max=%.2fms}",
+                mName, getInCount(), getOutCount(), getDroppedCount(), getErrorCount(), getQueueSize(),
+                getAverageQueueWaitMs(), getAverageProcessMs(), getMaxProcessMs());
+    }
+}
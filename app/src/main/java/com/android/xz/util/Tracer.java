@@ -0,0 +1,264 @@
+package com.android.xz.util;
+
+import android.os.Process;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热路径使用的轻量跟踪工具，替代逐帧打印日志
+ * <p>
+ * 事件（时间戳、阶段、类型、数值）写入预先分配的环形缓冲区，写入不加锁、不分配对象，
+ * 缓冲区满后覆盖最旧的事件，需要时通过{@link #dump(PrintWriter)}导出。
+ * 区段事件同时写入{@link Trace}，可以在systrace/perfetto中查看。
+ * <p>
+ * {@link #COMPILED}为编译期开关，置为false后所有调用点在编译时被消除；
+ * 运行时通过{@link #setEnabled(boolean)}开关，关闭时每次调用只有一次volatile读。
+ * 区段开始返回是否记录，结束时传入该返回值，区段中途切换开关也不会出现不成对的Trace调用：
+ * <pre>
+ * boolean traced = Tracer.beginSection(Tracer.STAGE_DETECT);
+ * try {
+ *     ...
+ * } finally {
+ *     Tracer.endSection(traced, Tracer.STAGE_DETECT, value);
+ * }
+ * </pre>
+ *
+ * @author xiaozhi
+ * @since 2024/9/18
+ */
+public final class Tracer {
+
+    private static final String TAG = Tracer.class.getSimpleName();
+
+    /**
+     * 编译期开关
+     */
+    public static final boolean COMPILED = true;
+
+    /**
+     * 相机帧到达，数值为帧序号
+     */
+    public static final int STAGE_FRAME = 0;
+    /**
+     * 相机帧拷贝到帧池
+     */
+    public static final int STAGE_FRAME_COPY = 1;
+    /**
+     * 帧池耗尽丢帧，数值为累计丢帧数
+     */
+    public static final int STAGE_FRAME_DROP = 2;
+    /**
+     * 人脸检测，结束事件数值为人脸数
+     */
+    public static final int STAGE_DETECT = 3;
+    /**
+     * 画面渲染
+     */
+    public static final int STAGE_RENDER = 4;
+    /**
+     * 人脸框绘制
+     */
+    public static final int STAGE_OVERLAY = 5;
+    /**
+     * 检测画面GPU绘制和读回
+     */
+    public static final int STAGE_READBACK = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "Frame", "FrameCopy", "FrameDrop", "Detect", "Render", "Overlay", "Readback"
+    };
+
+    /**
+     * 单点事件
+     */
+    public static final int TYPE_INSTANT = 0;
+    /**
+     * 区段开始
+     */
+    public static final int TYPE_BEGIN = 1;
+    /**
+     * 区段结束
+     */
+    public static final int TYPE_END = 2;
+
+    private static final String[] TYPE_NAMES = {"I", "B", "E"};
+
+    /**
+     * 环形缓冲区容量，2的幂
+     */
+    public static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+
+    private static volatile boolean sEnabled = true;
+
+    private static final AtomicLong sWriteIndex = new AtomicLong(0);
+    // 槽位写完后发布的事件序号（写入索引+1），0表示正在写或未写
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray sTimestamps = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray sValues = new AtomicLongArray(CAPACITY);
+    // 高32位线程id，低32位：阶段<<8 | 类型
+    private static final AtomicLongArray sMetas = new AtomicLongArray(CAPACITY);
+
+    private Tracer() {
+    }
+
+    public static boolean isEnabled() {
+        return COMPILED && sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * 记录单点事件
+     *
+     * @param stage 阶段，STAGE_开头的常量
+     * @param value 事件数值
+     */
+    public static void event(int stage, long value) {
+        if (COMPILED && sEnabled) {
+            record(stage, TYPE_INSTANT, value);
+        }
+    }
+
+    /**
+     * 区段开始，同一线程内与{@link #endSection(boolean, int, long)}成对嵌套调用
+     *
+     * @return 是否记录了区段开始，需要原样传给endSection
+     */
+    public static boolean beginSection(int stage) {
+        if (COMPILED && sEnabled) {
+            Trace.beginSection(STAGE_NAMES[stage]);
+            record(stage, TYPE_BEGIN, 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 区段结束，只由begin的返回值决定是否记录，不再读取开关
+     *
+     * @param traced {@link #beginSection(int)}的返回值
+     * @param value  区段的结果数值，例如检测到的人脸数
+     */
+    public static void endSection(boolean traced, int stage, long value) {
+        if (COMPILED && traced) {
+            record(stage, TYPE_END, value);
+            Trace.endSection();
+        }
+    }
+
+    public static void endSection(boolean traced, int stage) {
+        endSection(traced, stage, 0);
+    }
+
+    private static void record(int stage, int type, long value) {
+        long index = sWriteIndex.getAndIncrement();
+        int slot = (int) (index & MASK);
+        sSequences.lazySet(slot, 0);
+        sTimestamps.lazySet(slot, System.nanoTime());
+        sValues.lazySet(slot, value);
+        sMetas.lazySet(slot, ((long) Process.myTid() << 32) | ((stage & 0xFFFFFF) << 8) | type);
+        sSequences.lazySet(slot, index + 1);
+    }
+
+    /**
+     * 已记录的事件总数，包括已被覆盖的
+     */
+    public static long getEventCount() {
+        return sWriteIndex.get();
+    }
+
+    /**
+     * 清空缓冲区
+     */
+    public static void reset() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sSequences.set(i, 0);
+        }
+        sWriteIndex.set(0);
+    }
+
+    /**
+     * 按时间顺序导出缓冲区中的事件，每行：时间戳(ns) 线程id 类型 阶段 数值 [区段耗时(us)]
+     * <p>
+     * 导出时仍在写入的槽位会被跳过，会分配对象，不要在热路径调用。
+     */
+    public static void dump(PrintWriter writer) {
+        long end = sWriteIndex.get();
+        long start = Math.max(0, end - CAPACITY);
+        // 按线程和阶段匹配区段开始时间，嵌套深度有限，线性查找即可
+        long[] beginKeys = new long[64];
+        long[] beginTimes = new long[64];
+        int beginCount = 0;
+        int skipped = 0;
+        for (long index = start; index < end; index++) {
+            int slot = (int) (index & MASK);
+            if (sSequences.get(slot) != index + 1) {
+                skipped++;
+                continue;
+            }
+            long timestamp = sTimestamps.get(slot);
+            long value = sValues.get(slot);
+            long meta = sMetas.get(slot);
+            if (sSequences.get(slot) != index + 1) {
+                skipped++;
+                continue;
+            }
+            int tid = (int) (meta >>> 32);
+            int stage = (int) ((meta >> 8) & 0xFFFFFF);
+            int type = (int) (meta & 0xFF);
+            String stageName = stage < STAGE_NAMES.length ? STAGE_NAMES[stage] : String.valueOf(stage);
+            writer.print(timestamp);
+            writer.print(' ');
+            writer.print(tid);
+            writer.print(' ');
+            writer.print(TYPE_NAMES[type]);
+            writer.print(' ');
+            writer.print(stageName);
+            writer.print(' ');
+            writer.print(value);
+
+            long key = (meta & 0xFFFFFFFF00000000L) | stage;
+            if (type == TYPE_BEGIN && beginCount < beginKeys.length) {
+                beginKeys[beginCount] = key;
+                beginTimes[beginCount] = timestamp;
+                beginCount++;
+            } else if (type == TYPE_END) {
+                for (int i = beginCount - 1; i >= 0; i--) {
+                    if (beginKeys[i] == key) {
+                        writer.print(' ');
+                        writer.print((timestamp - beginTimes[i]) / 1000);
+                        writer.print("us");
+                        beginCount--;
+                        System.arraycopy(beginKeys, i + 1, beginKeys, i, beginCount - i);
+                        System.arraycopy(beginTimes, i + 1, beginTimes, i, beginCount - i);
+                        break;
+                    }
+                }
+            }
+            writer.println();
+        }
+        if (skipped > 0) {
+            writer.println("skipped " + skipped + " events being written");
+        }
+        writer.flush();
+    }
+
+    /**
+     * 导出到logcat
+     */
+    public static void dumpToLog(String tag) {
+        StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        for (String line : stringWriter.toString().split("\n")) {
+            Log.i(tag == null ? TAG : tag, line);
+        }
+    }
+}
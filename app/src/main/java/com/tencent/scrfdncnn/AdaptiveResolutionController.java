@@ -0,0 +1,262 @@
+package com.tencent.scrfdncnn;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.ICameraManager;
+import com.android.xz.camera.PreviewFrame;
+import com.tencent.scrfdncnn.model.Face;
+
+/**
+ * 根据检测结果自适应切换预览分辨率
+ * <p>
+ * 检测器会把输入缩放到{@link #DEFAULT_DETECTOR_INPUT_SIZE}，人脸在检测器输入中的像素大小才决定检测效果。
+ * 按当前帧中最小的人脸，估算每档分辨率下人脸经过检测器缩放后剩下的像素，与{@link #setFaceSizeRange}比较：
+ * <ul>
+ * <li>目标档位为人脸像素不小于下限的最小一档；所有档位都达不到下限时，取人脸像素最多的最小一档</li>
+ * <li>目标档位高于当前档位时升一档</li>
+ * <li>目标档位低于当前档位，且降一档后人脸像素仍不小于上限、降档基本不损失人脸像素、或检测耗时超过预算时，降一档，节省ISP和CPU带宽</li>
+ * </ul>
+ * 检测器输入固定时，长边超过检测器输入的分辨率会被缩小到同样的大小，人脸像素和检测器输入那一档相同，因此不会被选中，
+ * 推理耗时也几乎不随分辨率变化，降分辨率难以满足耗时预算。
+ * 使用{@link #setDetectorInputFollowsPreview}并开启{@link DetectionWorker#setTargetSizeFollowsFrame}后，
+ * 检测器输入随每档的长边变化：高一档的人脸像素确实更多，推理耗时也随档位升降，耗时预算在人脸足够大时把分辨率降下来。
+ * <p>
+ * 同一方向的判断需要连续出现若干次才会切换，切换后有冷却时间，避免在两档之间来回切换。没有检测到人脸时保持当前分辨率。
+ * <p>
+ * 作为{@link DetectionWorker.OnDetectionListener}添加到检测线程，分辨率通过{@link ICameraManager#setPreviewSize(Size)}在主线程切换。
+ *
+ * @author xiaozhi
+ * @since 2024/9/11
+ */
+public class AdaptiveResolutionController implements DetectionWorker.OnDetectionListener {
+
+    private static final String TAG = AdaptiveResolutionController.class.getSimpleName();
+
+    /**
+     * SCRFD检测输入的长边尺寸
+     */
+    public static final int DEFAULT_DETECTOR_INPUT_SIZE = 640;
+
+    /**
+     * 分辨率切换监听，在主线程回调
+     */
+    public interface OnResolutionChangedListener {
+        void onResolutionChanged(Size size);
+    }
+
+    private final ICameraManager mCameraManager;
+    private final Size[] mSizes;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private OnResolutionChangedListener mOnResolutionChangedListener;
+
+    private int mDetectorInputSize = DEFAULT_DETECTOR_INPUT_SIZE;
+    private boolean mDetectorInputFollowsPreview;
+    private float mMinFaceSize = 48;
+    private float mMaxFaceSize = 160;
+    private float mLatencyBudgetMs = 60;
+    private int mStableCount = 15;
+    private long mCooldownMs = 2000;
+
+    private volatile int mIndex;
+    private int mUpVotes;
+    private int mDownVotes;
+    private long mLastSwitchTime;
+
+    /**
+     * @param cameraManager 相机
+     * @param sizes         候选分辨率，按面积从小到大排列，比例需要一致
+     */
+    public AdaptiveResolutionController(ICameraManager cameraManager, Size... sizes) {
+        if (sizes == null || sizes.length == 0) {
+            throw new IllegalArgumentException("At least one size is required.");
+        }
+        mCameraManager = cameraManager;
+        mSizes = sizes;
+        mIndex = findClosestIndex(cameraManager.getPreviewSize());
+    }
+
+    private int findClosestIndex(Size size) {
+        if (size == null) {
+            return 0;
+        }
+        int index = 0;
+        long minDelta = Long.MAX_VALUE;
+        long area = (long) size.getWidth() * size.getHeight();
+        for (int i = 0; i < mSizes.length; i++) {
+            long delta = Math.abs((long) mSizes[i].getWidth() * mSizes[i].getHeight() - area);
+            if (delta < minDelta) {
+                minDelta = delta;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    public void setOnResolutionChangedListener(OnResolutionChangedListener listener) {
+        mOnResolutionChangedListener = listener;
+    }
+
+    /**
+     * 设置检测器输入长边尺寸，超过该尺寸的画面会被检测器缩小
+     *
+     * @param detectorInputSize
+     */
+    public void setDetectorInputSize(int detectorInputSize) {
+        mDetectorInputSize = detectorInputSize;
+    }
+
+    /**
+     * 设置检测器输入是否等于每档分辨率的长边，需要与{@link DetectionWorker#setTargetSizeFollowsFrame}一起开启
+     * <p>
+     * 开启后检测器不再缩小画面，{@link #setDetectorInputSize}不再生效。
+     *
+     * @param follow
+     */
+    public void setDetectorInputFollowsPreview(boolean follow) {
+        mDetectorInputFollowsPreview = follow;
+    }
+
+    /**
+     * 设置人脸在检测器输入中的目标大小范围，单位像素
+     *
+     * @param minFaceSize 小于该值时升分辨率
+     * @param maxFaceSize 降分辨率后仍不小于该值时降分辨率
+     */
+    public void setFaceSizeRange(float minFaceSize, float maxFaceSize) {
+        mMinFaceSize = minFaceSize;
+        mMaxFaceSize = maxFaceSize;
+    }
+
+    /**
+     * 设置单帧检测耗时预算，超过预算时在不影响检测的前提下降分辨率，检测器输入跟随分辨率时才有明显效果
+     *
+     * @param latencyBudgetMs
+     */
+    public void setLatencyBudgetMs(float latencyBudgetMs) {
+        mLatencyBudgetMs = latencyBudgetMs;
+    }
+
+    /**
+     * 设置切换条件
+     *
+     * @param stableCount 同一方向的判断需要连续出现的次数
+     * @param cooldownMs  两次切换之间的最小间隔
+     */
+    public void setHysteresis(int stableCount, long cooldownMs) {
+        mStableCount = stableCount;
+        mCooldownMs = cooldownMs;
+    }
+
+    /**
+     * 当前选择的分辨率
+     */
+    public Size getCurrentSize() {
+        return mSizes[mIndex];
+    }
+
+    @Override
+    public void onDetected(PreviewFrame frame, Face[] faces, FrameLatency latency) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastSwitchTime < mCooldownMs) {
+            return;
+        }
+        if (faces == null || faces.length == 0) {
+            mUpVotes = 0;
+            mDownVotes = 0;
+            return;
+        }
+
+        float minFace = Float.MAX_VALUE;
+        for (Face face : faces) {
+            float[] rect = face.getRect();
+            minFace = Math.min(minFace, Math.min(rect[2], rect[3]));
+        }
+        int longSide = Math.max(frame.getWidth(), frame.getHeight());
+        float faceInDetector = minFace * detectorScale(longSide);
+        float inferenceMs = latency.getInference() / 1e6f;
+
+        int index = mIndex;
+        int target = targetIndex(minFace, longSide);
+        boolean up = target > index;
+        boolean down = false;
+        if (target < index) {
+            float lowerFace = faceSizeAt(minFace, longSide, mSizes[index - 1]);
+            down = lowerFace >= mMaxFaceSize || lowerFace * 1.1f > faceInDetector || inferenceMs > mLatencyBudgetMs;
+        }
+
+        if (up) {
+            mUpVotes++;
+            mDownVotes = 0;
+        } else if (down) {
+            mDownVotes++;
+            mUpVotes = 0;
+        } else {
+            mUpVotes = 0;
+            mDownVotes = 0;
+        }
+
+        if (mUpVotes >= mStableCount) {
+            switchTo(index + 1, now);
+        } else if (mDownVotes >= mStableCount) {
+            switchTo(index - 1, now);
+        }
+    }
+
+    /**
+     * 人脸像素不小于下限的最小一档，都达不到下限时为人脸像素最多的最小一档
+     */
+    private int targetIndex(float face, int currentLongSide) {
+        int best = 0;
+        float bestFace = 0;
+        for (int i = 0; i < mSizes.length; i++) {
+            float faceSize = faceSizeAt(face, currentLongSide, mSizes[i]);
+            if (faceSize >= mMinFaceSize) {
+                return i;
+            }
+            // 检测器输入封顶后人脸像素不再增加，只有明显变多时才选更高的一档
+            if (faceSize > bestFace * 1.1f) {
+                best = i;
+                bestFace = faceSize;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 人脸在指定分辨率下经过检测器缩放后的大小
+     */
+    private float faceSizeAt(float face, int currentLongSide, Size size) {
+        int longSide = Math.max(size.getWidth(), size.getHeight());
+        return face * longSide / currentLongSide * detectorScale(longSide);
+    }
+
+    /**
+     * 检测器对画面的缩放比例，只统计缩小，放大不会增加信息
+     */
+    private float detectorScale(int longSide) {
+        if (mDetectorInputFollowsPreview) {
+            return 1f;
+        }
+        return longSide > mDetectorInputSize ? mDetectorInputSize * 1f / longSide : 1f;
+    }
+
+    private void switchTo(int index, long now) {
+        mIndex = index;
+        mLastSwitchTime = now;
+        mUpVotes = 0;
+        mDownVotes = 0;
+        Size size = mSizes[index];
+        Log.i(TAG, "switch preview size to " + size);
+        mUIHandler.post(() -> {
+            mCameraManager.setPreviewSize(size);
+            if (mOnResolutionChangedListener != null) {
+                mOnResolutionChangedListener.onResolutionChanged(size);
+            }
+        });
+    }
+}
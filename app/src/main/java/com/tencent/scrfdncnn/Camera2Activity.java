@@ -1,6 +1,5 @@
 package com.tencent.scrfdncnn;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -9,10 +8,6 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
 import android.util.Log;
 import android.util.Size;
 import android.view.View;
@@ -20,18 +15,13 @@ import android.widget.Button;
 import android.widget.FrameLayout;
 
 import com.android.xz.camera.Camera2Manager;
-import com.android.xz.camera.ICameraManager;
-import com.android.xz.camera.YUVFormat;
+import com.android.xz.camera.DeliveryPolicy;
 import com.android.xz.camera.callback.CameraCallback;
-import com.android.xz.camera.callback.PreviewBufferCallback;
-import com.android.xz.util.YUVUtils;
 import com.tencent.scrfdncnn.model.Face;
 import com.tencent.scrfdncnn.view.DisplayYUVGLSurfaceView;
-import com.tencent.scrfdncnn.view.FrameFaceView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Camera2Activity extends AppCompatActivity implements CameraCallback {
 
@@ -40,11 +30,13 @@ public class Camera2Activity extends AppCompatActivity implements CameraCallback
 
     private FrameLayout mContentLayout;
     private Button mSwitchCameraBtn;
+    private Button mFaceCropBtn;
     private DisplayYUVGLSurfaceView mDisplayYUVGLSurfaceView;
-    private FrameFaceView mFrameFaceView;
 
-    private ICameraManager mCameraManager;
-    private FaceDetectorThread mFaceDetectorThread;
+    private Camera2Manager mCameraManager;
+    private DetectionWorker mDetectionWorker;
+    private AdaptiveResolutionController mResolutionController;
+    private FrameRateController mFrameRateController;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -53,16 +45,32 @@ public class Camera2Activity extends AppCompatActivity implements CameraCallback
 
         mContentLayout = findViewById(R.id.contentLayout);
         mSwitchCameraBtn = findViewById(R.id.switchCameraBtn);
+        mFaceCropBtn = findViewById(R.id.faceCropBtn);
         mDisplayYUVGLSurfaceView = findViewById(R.id.cameraView);
-        mFrameFaceView = findViewById(R.id.frameView);
 
         mCameraManager = new Camera2Manager(this);
         mCameraManager.setCameraId(1);
         mCameraManager.setCameraCallback(this);
         mCameraManager.setPreviewSize(new Size(640, 480));
-        mCameraManager.addPreviewBufferCallback(mPreviewBufferCallback);
+
+        mDetectionWorker = new DetectionWorker(getAssets());
+        mDetectionWorker.addOnDetectionListener(mOnDetectionListener);
+        mDisplayYUVGLSurfaceView.setLatencyStats(mDetectionWorker.getLatencyStats());
+        // 检测器输入随分辨率切换，1280x960一档用1280的输入检测远处的小脸，320x240一档推理更快
+        mDetectionWorker.setTargetSizeFollowsFrame(true);
+        mResolutionController = new AdaptiveResolutionController(mCameraManager,
+                new Size(320, 240), new Size(640, 480), new Size(1280, 960));
+        mResolutionController.setDetectorInputFollowsPreview(true);
+        mDetectionWorker.addOnDetectionListener(mResolutionController);
+        mFrameRateController = new FrameRateController(mCameraManager);
+        mDetectionWorker.addOnDetectionListener(mFrameRateController);
+        mCameraManager.addPreviewBufferCallback(mDetectionWorker);
+        // 显示作为独立的消费者，按相机帧率刷新，不等待检测，人脸框比画面落后约一次检测耗时
+        mCameraManager.addPreviewBufferCallback(mDisplayYUVGLSurfaceView, DeliveryPolicy.LATEST_ONLY);
 
         mSwitchCameraBtn.setOnClickListener(v -> mCameraManager.switchCamera());
+        // 人脸裁剪默认关闭，开启后预览画面也会跟随人脸放大
+        mFaceCropBtn.setOnClickListener(v -> setFaceCropEnabled(!mCameraManager.isFaceCropEnabled()));
 
         mContentLayout.post(() -> {
             int contentWidth = mContentLayout.getMeasuredWidth();
@@ -72,11 +80,6 @@ public class Camera2Activity extends AppCompatActivity implements CameraCallback
             lp.width = contentWidth;
             lp.height = contentWidth * 4 / 3;
             mDisplayYUVGLSurfaceView.setLayoutParams(lp);
-
-            lp = (FrameLayout.LayoutParams) mFrameFaceView.getLayoutParams();
-            lp.width = contentWidth;
-            lp.height = contentWidth * 4 / 3;
-            mFrameFaceView.setLayoutParams(lp);
         });
     }
 
@@ -87,33 +90,20 @@ public class Camera2Activity extends AppCompatActivity implements CameraCallback
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
         }
         mCameraManager.openCamera();
-        startDetector();
+        mFrameRateController.reset();
+        mDetectionWorker.start();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         mCameraManager.releaseCamera();
-        stopDetector();
-    }
-
-    private void startDetector() {
-        if (mFaceDetectorThread == null) {
-            mFaceDetectorThread = new FaceDetectorThread("FaceDetector");
-            mFaceDetectorThread.start();
-        }
-    }
-
-    private void stopDetector() {
-        if (mFaceDetectorThread != null) {
-            mFaceDetectorThread.quitSafely();
-            mFaceDetectorThread = null;
-        }
+        mDetectionWorker.stop();
+        Log.i(TAG, mDetectionWorker + " " + mDetectionWorker.getLatencyStats());
     }
 
     @Override
     public void onOpen() {
-        mFrameFaceView.setMirror(mCameraManager.getCameraId() == 1);
         mDisplayYUVGLSurfaceView.setCameraId(mCameraManager.getCameraId());
         mCameraManager.startPreview((SurfaceTexture) null);
     }
@@ -138,119 +128,42 @@ public class Camera2Activity extends AppCompatActivity implements CameraCallback
 
     }
 
-    private class FaceDetectorThread extends HandlerThread implements Handler.Callback {
-
-        public static final int DETECT_YUV_DATA = 101;
-
-        private Handler mHandler;
-        private SCRFDNcnn mSCRFDNcnn = new SCRFDNcnn();
-
-        private AtomicBoolean isProcessing = new AtomicBoolean(false);
-
-        public FaceDetectorThread(String name) {
-            super(name);
-        }
-
-        @Override
-        public void run() {
-            Log.i(TAG, "start FaceDetectorThread.");
-            mSCRFDNcnn.create();
-
-            boolean ret_init = mSCRFDNcnn.loadModel(getAssets(), 0, 0);
-            if (!ret_init) {
-                Log.e("MainActivity", "scrfdncnn loadModel failed");
-            }
-
-            super.run();
-
-            mSCRFDNcnn.destroy();
-            Log.v(TAG, "exit FaceDetectorThread.");
-        }
-
-        @Override
-        protected void onLooperPrepared() {
-            super.onLooperPrepared();
-            mHandler = new Handler(Looper.myLooper(), this);
-        }
-
-        @Override
-        public boolean handleMessage(@NonNull Message msg) {
-            isProcessing.set(true);
-            // 处理消息
-            if (msg.what == DETECT_YUV_DATA) {
-                byte[] yuv = (byte[]) msg.obj;
-                int width = msg.arg1;
-                int height = msg.arg2;
-
-                long start = System.currentTimeMillis();
-                mDisplayYUVGLSurfaceView.feedYUVData(yuv, width, height, YUVFormat.NV21, mCameraManager.getOrientation());
-                Face[] faces = mSCRFDNcnn.detectNV21(yuv, width, height, mCameraManager.getOrientation());
-                mDisplayYUVGLSurfaceView.requestRender();
-                Log.i(TAG, "detect:" + (System.currentTimeMillis() - start) + "ms");
-
-                if (faces != null) {
-
-                    List<float[]> faceRectList = new ArrayList<>();
-                    for (Face face : faces) {
-                        float[] rect = face.getRect();
-                        faceRectList.add(rect);
-                    }
-
-                    mFrameFaceView.setLocFaces(faceRectList);
-                } else {
-                    mFrameFaceView.setLocFaces(null);
-                }
-            }
-            isProcessing.set(false);
-            return true;
+    /**
+     * 开关人脸裁剪
+     * <p>
+     * 裁剪会放大人脸，自适应分辨率随之降档，降档后裁剪区域又随人脸变化，两者会相互影响，
+     * 因此裁剪期间固定当前分辨率，关闭裁剪后再恢复自适应分辨率。
+     */
+    private void setFaceCropEnabled(boolean enabled) {
+        if (enabled) {
+            mDetectionWorker.removeOnDetectionListener(mResolutionController);
+        } else {
+            mDetectionWorker.addOnDetectionListener(mResolutionController);
         }
+        mCameraManager.setFaceCropEnabled(enabled);
+        mFaceCropBtn.setText(enabled ? "人脸裁剪：开" : "人脸裁剪：关");
+    }
 
-        public Handler getHandler() {
-            return mHandler;
+    private DetectionWorker.OnDetectionListener mOnDetectionListener = (frame, faces, latency) -> {
+        // 分辨率切换后人脸坐标基于新的帧尺寸，人脸框在画面的同一个渲染过程中绘制
+        if (frame.getOrientation() % 180 == 0) {
+            mDisplayYUVGLSurfaceView.setFaces(faces, frame.getWidth(), frame.getHeight(), latency);
+        } else {
+            mDisplayYUVGLSurfaceView.setFaces(faces, frame.getHeight(), frame.getWidth(), latency);
         }
-
-        public boolean isBusy() {
-            if (mHandler == null) {
-                return true;
-            }
-            if (!isAlive()) {
-                return true;
-            }
-            if (mHandler.hasMessages(DETECT_YUV_DATA)) {
-                return true;
-            }
-            return isProcessing.get();
+        if (!mCameraManager.isFaceCropEnabled()) {
+            return;
         }
-    }
-
-    private void send(byte[] data, int width, int height) {
-        if (mFaceDetectorThread != null) {
-            Handler handler = mFaceDetectorThread.getHandler();
-            if (!mFaceDetectorThread.isBusy() && handler != null) {
-                Message message = handler.obtainMessage();
-                message.what = FaceDetectorThread.DETECT_YUV_DATA;
-                message.obj = data;
-                message.arg1 = width;
-                message.arg2 = height;
-                message.sendToTarget();
+        if (faces != null) {
+            List<float[]> faceRectList = new ArrayList<>();
+            for (Face face : faces) {
+                float[] rect = face.getRect();
+                faceRectList.add(rect);
             }
-        }
-    }
 
-    byte[] mNV21Data;
-
-    private PreviewBufferCallback mPreviewBufferCallback = new PreviewBufferCallback() {
-        @Override
-        public void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format) {
-            if (format == YUVFormat.I420) {
-                if (mNV21Data == null || mNV21Data.length != data.length) {
-                    mNV21Data = new byte[data.length];
-                }
-                YUVUtils.yuv420pToNV21(data, width, height, mNV21Data);
-                send(data, width, height);
-            } else {
-                send(data, width, height);
-            }
+            mCameraManager.updateFaceCrop(frame, faceRectList);
+        } else {
+            mCameraManager.updateFaceCrop(frame, null);
         }
     };
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package com.tencent.scrfdncnn;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.widget.Button;
+import android.widget.FrameLayout;
+
+import com.android.xz.camera.Camera2Manager;
+import com.android.xz.util.Tracer;
+import com.tencent.scrfdncnn.model.Face;
+import com.tencent.scrfdncnn.view.CameraOESGLSurfaceView;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Camera2输出到OES纹理，GPU旋转缩放出检测画面并异步读回，检测线程只处理检测尺寸的RGBA数据
+ *
+ * @author xiaozhi
+ * @since 2024/9/17
+ */
+public class Camera2GLActivity extends AppCompatActivity {
+
+    private static final String TAG = Camera2GLActivity.class.getSimpleName();
+    public static final int REQUEST_CAMERA = 100;
+
+    private FrameLayout mContentLayout;
+    private Button mSwitchCameraBtn;
+    private CameraOESGLSurfaceView mCameraView;
+    private Camera2Manager mCameraManager;
+
+    private HandlerThread mDetectThread;
+    private Handler mDetectHandler;
+    private SCRFDNcnn mSCRFDNcnn;
+    // 检测线程正在处理时，渲染线程直接丢弃新读回的画面
+    private final AtomicBoolean mDetecting = new AtomicBoolean(false);
+    private ByteBuffer mDetectBuffer = ByteBuffer.allocateDirect(0);
+    private int mDetectWidth;
+    private int mDetectHeight;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_camera2_gl);
+
+        mContentLayout = findViewById(R.id.contentLayout);
+        mSwitchCameraBtn = findViewById(R.id.switchCameraBtn);
+        mCameraView = findViewById(R.id.cameraView);
+
+        mCameraManager = (Camera2Manager) mCameraView.getCameraManager();
+        mCameraManager.setCameraId(1);
+        mCameraManager.setPreviewSize(new Size(640, 480));
+
+        mCameraView.setDetectionSize(640, 480);
+        mCameraView.setOnDetectionFrameListener(mOnDetectionFrameListener);
+
+        mSwitchCameraBtn.setOnClickListener(v -> mCameraManager.switchCamera());
+
+        mContentLayout.post(() -> {
+            int contentWidth = mContentLayout.getMeasuredWidth();
+            FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) mCameraView.getLayoutParams();
+            lp.width = contentWidth;
+            lp.height = contentWidth * 4 / 3;
+            mCameraView.setLayoutParams(lp);
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (ContextCompat.checkSelfPermission(getApplicationContext(), android.Manifest.permission.CAMERA) == PackageManager.PERMISSION_DENIED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
+        }
+        startDetectThread();
+        mCameraView.onResume();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mCameraView.onPause();
+        stopDetectThread();
+    }
+
+    private void startDetectThread() {
+        mDetectThread = new HandlerThread("FaceDetector");
+        mDetectThread.start();
+        mDetectHandler = new Handler(mDetectThread.getLooper());
+        mDetectHandler.post(() -> {
+            mSCRFDNcnn = new SCRFDNcnn();
+            mSCRFDNcnn.create();
+            boolean ret_init = mSCRFDNcnn.loadModel(getAssets(), 0, 0);
+            if (!ret_init) {
+                Log.e(TAG, "scrfdncnn loadModel failed");
+            }
+        });
+    }
+
+    private void stopDetectThread() {
+        if (mDetectThread == null) {
+            return;
+        }
+        mDetectHandler.post(() -> {
+            mSCRFDNcnn.destroy();
+            mSCRFDNcnn = null;
+        });
+        mDetectThread.quitSafely();
+        try {
+            mDetectThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mDetectThread = null;
+        mDetectHandler = null;
+        mDetecting.set(false);
+    }
+
+    /**
+     * 渲染线程回调，检测线程空闲时拷贝到检测缓冲区后立即返回
+     */
+    private final CameraOESGLSurfaceView.OnDetectionFrameListener mOnDetectionFrameListener = (rgba, width, height, timestamp) -> {
+        Handler handler = mDetectHandler;
+        if (handler == null || !mDetecting.compareAndSet(false, true)) {
+            return;
+        }
+        if (mDetectBuffer.capacity() != rgba.remaining()) {
+            mDetectBuffer = ByteBuffer.allocateDirect(rgba.remaining());
+        }
+        mDetectBuffer.clear();
+        mDetectBuffer.put(rgba);
+        mDetectWidth = width;
+        mDetectHeight = height;
+        if (!handler.post(this::detect)) {
+            mDetecting.set(false);
+        }
+    };
+
+    private void detect() {
+        try {
+            if (mSCRFDNcnn == null) {
+                return;
+            }
+            Face[] faces = null;
+            boolean traced = Tracer.beginSection(Tracer.STAGE_DETECT);
+            try {
+                faces = mSCRFDNcnn.detectRGBA(mDetectBuffer, mDetectWidth, mDetectHeight);
+            } finally {
+                Tracer.endSection(traced, Tracer.STAGE_DETECT, faces == null ? 0 : faces.length);
+            }
+            mCameraView.setFaces(faces);
+        } finally {
+            mDetecting.set(false);
+        }
+    }
+}
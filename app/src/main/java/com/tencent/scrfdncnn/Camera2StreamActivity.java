@@ -0,0 +1,190 @@
+package com.tencent.scrfdncnn;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.hardware.HardwareBuffer;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.Size;
+import android.widget.Button;
+import android.widget.FrameLayout;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import com.android.xz.camera.Camera2Manager;
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.callback.HardwareBufferCallback;
+import com.android.xz.camera.view.Camera2TextureView;
+import com.tencent.scrfdncnn.model.Face;
+import com.tencent.scrfdncnn.view.FrameFaceView;
+
+/**
+ * Camera2双路输出检测：TextureView以预览尺寸显示，YUV回调使用{@link Camera2Manager#setDetectionSize}设置的低分辨率数据流
+ * <p>
+ * 启动参数{@link #EXTRA_HARDWARE_BUFFER}为true且系统不低于Android 10时，检测数据流改用
+ * {@link Camera2Manager#setHardwareBufferCallback}，在相机线程中直接锁定帧的硬件缓冲区检测，不经过Java层的平面拷贝。
+ *
+ * @author xiaozhi
+ * @since 2024/9/20
+ */
+public class Camera2StreamActivity extends AppCompatActivity {
+
+    private static final String TAG = Camera2StreamActivity.class.getSimpleName();
+
+    public static final int REQUEST_CAMERA = 100;
+
+    /**
+     * 是否使用硬件缓冲区检测，boolean
+     */
+    public static final String EXTRA_HARDWARE_BUFFER = "hardware_buffer";
+
+    private FrameLayout mContentLayout;
+    private Button mSwitchCameraBtn;
+    private Camera2TextureView mCameraTextureView;
+    private FrameFaceView mFrameFaceView;
+    private Camera2Manager mCameraManager;
+    // 检测线程或相机线程使用
+    private float[] mFaceData = new float[0];
+    // 检测线程上次提交的预览尺寸
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private DetectionWorker mDetectionWorker;
+    private boolean mHardwareBufferEnabled;
+    private volatile SCRFDNcnn mSCRFDNcnn;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_camera2_stream);
+
+        mContentLayout = findViewById(R.id.contentLayout);
+        mSwitchCameraBtn = findViewById(R.id.switchCameraBtn);
+        mCameraTextureView = findViewById(R.id.cameraView);
+        mFrameFaceView = findViewById(R.id.frameView);
+
+        mHardwareBufferEnabled = getIntent().getBooleanExtra(EXTRA_HARDWARE_BUFFER, false)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        mCameraManager = (Camera2Manager) mCameraTextureView.getCameraManager();
+        mSwitchCameraBtn.setOnClickListener(v -> {
+            mCameraManager.switchCamera();
+            updateMirror();
+        });
+        mCameraManager.setCameraId(1);
+        // 显示使用高分辨率，检测数据流只需覆盖检测输入
+        mCameraManager.setPreviewSize(new Size(1280, 960));
+        mCameraManager.setDetectionSize(new Size(640, 480));
+        updateMirror();
+
+        if (mHardwareBufferEnabled) {
+            mCameraManager.setHardwareBufferCallback(mHardwareBufferCallback);
+        } else {
+            mDetectionWorker = new DetectionWorker(getAssets());
+            mDetectionWorker.addOnDetectionListener(mOnDetectionListener);
+            mFrameFaceView.setLatencyStats(mDetectionWorker.getLatencyStats());
+            mCameraManager.addPreviewBufferCallback(mDetectionWorker);
+        }
+
+        mContentLayout.post(() -> {
+            int contentWidth = mContentLayout.getMeasuredWidth();
+            Log.i(TAG, "contentLayout: " + mContentLayout.getMeasuredWidth() + "x" + mContentLayout.getMeasuredHeight());
+
+            FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) mCameraTextureView.getLayoutParams();
+            lp.width = contentWidth;
+            lp.height = contentWidth * 4 / 3;
+            mCameraTextureView.setLayoutParams(lp);
+
+            lp = (FrameLayout.LayoutParams) mFrameFaceView.getLayoutParams();
+            lp.width = contentWidth;
+            lp.height = contentWidth * 4 / 3;
+            mFrameFaceView.setLayoutParams(lp);
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (ContextCompat.checkSelfPermission(getApplicationContext(), android.Manifest.permission.CAMERA) == PackageManager.PERMISSION_DENIED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
+        }
+        if (mHardwareBufferEnabled) {
+            mSCRFDNcnn = new SCRFDNcnn();
+            mSCRFDNcnn.create();
+            boolean ret_init = mSCRFDNcnn.loadModel(getAssets(), 0, 0);
+            if (!ret_init) {
+                Log.e(TAG, "scrfdncnn loadModel failed");
+            }
+        } else {
+            mDetectionWorker.start();
+        }
+        mCameraTextureView.onResume();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mCameraTextureView.onPause();
+        if (mHardwareBufferEnabled) {
+            // 模型在native层加锁释放，相机线程上仍在进行的检测会先完成
+            Log.i(TAG, "hardwareBuffer " + mSCRFDNcnn.getStats()
+                    + " previewBufferSize: " + mCameraManager.getPreviewBufferSize());
+            mSCRFDNcnn.destroy();
+            mSCRFDNcnn = null;
+        } else {
+            mDetectionWorker.stop();
+            Log.i(TAG, mDetectionWorker + " " + mDetectionWorker.getLatencyStats()
+                    + " previewBufferSize: " + mCameraManager.getPreviewBufferSize());
+        }
+    }
+
+    /**
+     * 硬件缓冲区检测时前置摄像头的镜像已经在native层完成，人脸框不再镜像
+     */
+    private void updateMirror() {
+        mFrameFaceView.setMirror(!mHardwareBufferEnabled && mCameraManager.getCameraId() == 1);
+    }
+
+    /**
+     * 在相机线程中检测，缓冲区只在回调内有效，检测完成前相机线程不会分发下一帧
+     */
+    private final HardwareBufferCallback mHardwareBufferCallback = new HardwareBufferCallback() {
+        @Override
+        public void onHardwareBuffer(HardwareBuffer buffer, int orientation, boolean mirror, long timestamp) {
+            SCRFDNcnn scrfdNcnn = mSCRFDNcnn;
+            if (scrfdNcnn == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+                return;
+            }
+            Face[] faces = scrfdNcnn.detectHardwareBuffer(buffer, orientation, mirror);
+            showFaces(faces, buffer.getWidth(), buffer.getHeight(), orientation, null);
+        }
+    };
+
+    private DetectionWorker.OnDetectionListener mOnDetectionListener = (frame, faces, latency) ->
+            showFaces(faces, frame.getWidth(), frame.getHeight(), frame.getOrientation(), latency);
+
+    /**
+     * 在检测线程或相机线程调用，同一时间只有一种检测方式
+     */
+    private void showFaces(Face[] faces, int width, int height, int orientation, FrameLatency latency) {
+        // 人脸坐标基于检测数据流的尺寸，与显示画面比例一致，随人脸一起提交后按比例映射到视图，视图测量用的尺寸在主线程更新
+        int previewWidth = orientation % 180 == 0 ? width : height;
+        int previewHeight = orientation % 180 == 0 ? height : width;
+        if (previewWidth != mPreviewWidth || previewHeight != mPreviewHeight) {
+            mPreviewWidth = previewWidth;
+            mPreviewHeight = previewHeight;
+            mFrameFaceView.post(() -> mFrameFaceView.setpreviewSize(previewWidth, previewHeight));
+        }
+        int faceCount = faces == null ? 0 : faces.length;
+        if (mFaceData.length < faceCount * FrameFaceView.FACE_STRIDE) {
+            mFaceData = new float[faceCount * FrameFaceView.FACE_STRIDE];
+        }
+        for (int i = 0; i < faceCount; i++) {
+            int offset = i * FrameFaceView.FACE_STRIDE;
+            System.arraycopy(faces[i].getRect(), 0, mFaceData, offset, 4);
+            System.arraycopy(faces[i].getLandmark(), 0, mFaceData, offset + 4, 10);
+        }
+        mFrameFaceView.setFaces(mFaceData, faceCount, previewWidth, previewHeight, latency);
+    }
+}
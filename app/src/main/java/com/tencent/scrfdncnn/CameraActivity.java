@@ -3,30 +3,19 @@ package com.tencent.scrfdncnn;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
 import android.util.Log;
 import android.util.Size;
 import android.view.View;
 import android.widget.Button;
 import android.widget.FrameLayout;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import com.android.xz.camera.callback.PreviewBufferCallback;
 import com.android.xz.camera.view.CameraSurfaceView;
-import com.tencent.scrfdncnn.model.Face;
 import com.tencent.scrfdncnn.view.FrameFaceView;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-
 public class CameraActivity extends AppCompatActivity {
 
     private static final String TAG = CameraActivity.class.getSimpleName();
@@ -37,7 +26,14 @@ public class CameraActivity extends AppCompatActivity {
     private Button mSwitchCameraBtn;
     private CameraSurfaceView mCameraSurfaceView;
     private FrameFaceView mFrameFaceView;
-    private FaceDetectorThread mFaceDetectorThread;
+    // 检测线程使用
+    private float[] mFaceData = new float[0];
+    // 检测线程上次提交的预览尺寸
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private DetectionWorker mDetectionWorker;
+    private AdaptiveResolutionController mResolutionController;
+    private FrameRateController mFrameRateController;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,6 +53,18 @@ public class CameraActivity extends AppCompatActivity {
         mCameraSurfaceView.getCameraManager().setPreviewSize(new Size(640, 480));
         mFrameFaceView.setMirror(mCameraSurfaceView.getCameraManager().getCameraId() == 1);
 
+        mDetectionWorker = new DetectionWorker(getAssets());
+        mDetectionWorker.addOnDetectionListener(mOnDetectionListener);
+        mFrameFaceView.setLatencyStats(mDetectionWorker.getLatencyStats());
+        // 检测器输入随分辨率切换，1280x960一档用1280的输入检测远处的小脸，320x240一档推理更快
+        mDetectionWorker.setTargetSizeFollowsFrame(true);
+        mResolutionController = new AdaptiveResolutionController(mCameraSurfaceView.getCameraManager(),
+                new Size(320, 240), new Size(640, 480), new Size(1280, 960));
+        mResolutionController.setDetectorInputFollowsPreview(true);
+        mDetectionWorker.addOnDetectionListener(mResolutionController);
+        mFrameRateController = new FrameRateController(mCameraSurfaceView.getCameraManager());
+        mDetectionWorker.addOnDetectionListener(mFrameRateController);
+
         mContentLayout.post(() -> {
             int contentWidth = mContentLayout.getMeasuredWidth();
             Log.i(TAG, "contentLayout: " + mContentLayout.getMeasuredWidth() + "x" + mContentLayout.getMeasuredHeight());
@@ -79,128 +87,39 @@ public class CameraActivity extends AppCompatActivity {
         if (ContextCompat.checkSelfPermission(getApplicationContext(), android.Manifest.permission.CAMERA) == PackageManager.PERMISSION_DENIED) {
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
         }
-        mCameraSurfaceView.getCameraManager().addPreviewBufferCallback(mPreviewBufferCallback);
+        mCameraSurfaceView.getCameraManager().addPreviewBufferCallback(mDetectionWorker);
         mCameraSurfaceView.onResume();
-        startDetector();
+        mFrameRateController.reset();
+        mDetectionWorker.start();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         mCameraSurfaceView.onPause();
-        stopDetector();
-    }
-
-    private void startDetector() {
-        if (mFaceDetectorThread == null) {
-            mFaceDetectorThread = new FaceDetectorThread("FaceDetector");
-            mFaceDetectorThread.start();
-        }
-    }
-
-    private void stopDetector() {
-        if (mFaceDetectorThread != null) {
-            mFaceDetectorThread.quitSafely();
-            mFaceDetectorThread = null;
-        }
+        mDetectionWorker.stop();
+        Log.i(TAG, mDetectionWorker + " " + mDetectionWorker.getLatencyStats());
     }
 
-    private class FaceDetectorThread extends HandlerThread implements Handler.Callback {
-
-        public static final int DETECT_YUV_DATA = 101;
-
-        private Handler mHandler;
-        private SCRFDNcnn mSCRFDNcnn = new SCRFDNcnn();
-
-        private AtomicBoolean isProcessing = new AtomicBoolean(false);
-
-        public FaceDetectorThread(String name) {
-            super(name);
-        }
-
-        @Override
-        public void run() {
-            Log.i(TAG, "start FaceDetectorThread.");
-            mSCRFDNcnn.create();
-
-            boolean ret_init = mSCRFDNcnn.loadModel(getAssets(), 0, 0);
-            if (!ret_init) {
-                Log.e("MainActivity", "scrfdncnn loadModel failed");
-            }
-
-            super.run();
-
-            mSCRFDNcnn.destroy();
-            Log.v(TAG, "exit FaceDetectorThread.");
-        }
-
-        @Override
-        protected void onLooperPrepared() {
-            super.onLooperPrepared();
-            mHandler = new Handler(Looper.myLooper(), this);
-        }
-
-        @Override
-        public boolean handleMessage(@NonNull Message msg) {
-            isProcessing.set(true);
-            // 处理消息
-            if (msg.what == DETECT_YUV_DATA) {
-                byte[] yuv = (byte[]) msg.obj;
-                int width = msg.arg1;
-                int height = msg.arg2;
-
-                long start = System.currentTimeMillis();
-                Face[] faces = mSCRFDNcnn.detectNV21(yuv, width, height, mCameraSurfaceView.getCameraManager().getOrientation());
-                Log.i(TAG, "detect:" + (System.currentTimeMillis() - start) + "ms");
-
-                if (faces != null) {
-
-                    List<float[]> faceRectList = new ArrayList<>();
-                    for (Face face: faces) {
-                        float[] rect = face.getRect();
-                        faceRectList.add(rect);
-                    }
-
-                    mFrameFaceView.setLocFaces(faceRectList);
-                } else {
-                    mFrameFaceView.setLocFaces(null);
-                }
-            }
-            isProcessing.set(false);
-            return true;
+    private DetectionWorker.OnDetectionListener mOnDetectionListener = (frame, faces, latency) -> {
+        // 分辨率切换后人脸坐标基于新的帧尺寸，随人脸一起提交，视图测量用的尺寸在主线程更新
+        int previewWidth = frame.getOrientation() % 180 == 0 ? frame.getWidth() : frame.getHeight();
+        int previewHeight = frame.getOrientation() % 180 == 0 ? frame.getHeight() : frame.getWidth();
+        if (previewWidth != mPreviewWidth || previewHeight != mPreviewHeight) {
+            mPreviewWidth = previewWidth;
+            mPreviewHeight = previewHeight;
+            mFrameFaceView.post(() -> mFrameFaceView.setpreviewSize(previewWidth, previewHeight));
         }
-
-        public Handler getHandler() {
-            return mHandler;
+        // 人脸数据拷贝到复用的数组，不为每个人脸创建对象
+        int faceCount = faces == null ? 0 : faces.length;
+        if (mFaceData.length < faceCount * FrameFaceView.FACE_STRIDE) {
+            mFaceData = new float[faceCount * FrameFaceView.FACE_STRIDE];
         }
-
-        public boolean isBusy() {
-            if (mHandler == null) {
-                return true;
-            }
-            if (!isAlive()) {
-                return true;
-            }
-            if (mHandler.hasMessages(DETECT_YUV_DATA)) {
-                return true;
-            }
-            return isProcessing.get();
+        for (int i = 0; i < faceCount; i++) {
+            int offset = i * FrameFaceView.FACE_STRIDE;
+            System.arraycopy(faces[i].getRect(), 0, mFaceData, offset, 4);
+            System.arraycopy(faces[i].getLandmark(), 0, mFaceData, offset + 4, 10);
         }
-    }
-
-    private void send(byte[] data, int width, int height) {
-        if (mFaceDetectorThread != null) {
-            Handler handler = mFaceDetectorThread.getHandler();
-            if (!mFaceDetectorThread.isBusy() && handler != null) {
-                Message message = handler.obtainMessage();
-                message.what = FaceDetectorThread.DETECT_YUV_DATA;
-                message.obj = data;
-                message.arg1 = width;
-                message.arg2 = height;
-                message.sendToTarget();
-            }
-        }
-    }
-
-    private PreviewBufferCallback mPreviewBufferCallback = (data, width, height, format) -> send(data, width, height);
-}
\ No newline at end of file
+        mFrameFaceView.setFaces(mFaceData, faceCount, previewWidth, previewHeight, latency);
+    };
+}
@@ -0,0 +1,201 @@
+package com.tencent.scrfdncnn;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.Size;
+import android.widget.Button;
+import android.widget.FrameLayout;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import com.android.xz.camera.PreviewFrame;
+import com.android.xz.camera.YUVFormat;
+import com.android.xz.camera.view.CameraSurfaceView;
+import com.android.xz.pipeline.FramePipeline;
+import com.android.xz.pipeline.PipelineStage;
+import com.android.xz.pipeline.QueuePolicy;
+import com.android.xz.pipeline.StageMetrics;
+import com.android.xz.util.YUVUtils;
+import com.tencent.scrfdncnn.model.Face;
+import com.tencent.scrfdncnn.view.FrameFaceView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Camera1分阶段检测：旋转和YUV转RGB、人脸检测分别在{@link FramePipeline}的两个阶段中执行
+ * <p>
+ * 第N帧推理的同时第N+1帧在做转换。转换阶段只保留最新一帧，检测阶段队列满时阻塞转换阶段，
+ * 转换好的RGB不会被丢弃，RGB缓冲区检测完后回收复用。
+ *
+ * @author xiaozhi
+ * @since 2024/9/5
+ */
+public class CameraPipelineActivity extends AppCompatActivity {
+
+    private static final String TAG = CameraPipelineActivity.class.getSimpleName();
+
+    public static final int REQUEST_CAMERA = 100;
+
+    private FrameLayout mContentLayout;
+    private Button mSwitchCameraBtn;
+    private CameraSurfaceView mCameraSurfaceView;
+    private FrameFaceView mFrameFaceView;
+    // 检测模型是native全局对象，转换和检测使用同一个实例
+    private final SCRFDNcnn mSCRFDNcnn = new SCRFDNcnn();
+    // 只在检测阶段线程和停止流水线之后访问
+    private boolean mModelLoaded;
+    private FramePipeline mPipeline;
+
+    /**
+     * 转换阶段输出的RGB图像
+     */
+    private static class RGBImage {
+        byte[] data;
+        int width;
+        int height;
+    }
+
+    // 转换阶段取出，检测阶段用完放回，停止时丢弃的缓冲区不再回收，下次取不到时重新分配
+    private final ConcurrentLinkedQueue<RGBImage> mRGBPool = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_camera);
+
+        mContentLayout = findViewById(R.id.contentLayout);
+        mSwitchCameraBtn = findViewById(R.id.switchCameraBtn);
+        mCameraSurfaceView = findViewById(R.id.cameraView);
+        mFrameFaceView = findViewById(R.id.frameView);
+
+        mSwitchCameraBtn.setOnClickListener(v -> {
+            mCameraSurfaceView.getCameraManager().switchCamera();
+            mFrameFaceView.setMirror(mCameraSurfaceView.getCameraManager().getCameraId() == 1);
+        });
+        mCameraSurfaceView.getCameraManager().setCameraId(1);
+        mCameraSurfaceView.getCameraManager().setPreviewSize(new Size(640, 480));
+        mFrameFaceView.setMirror(mCameraSurfaceView.getCameraManager().getCameraId() == 1);
+
+        mPipeline = new FramePipeline.Builder()
+                .addStage("convert", mConvertStage, 1, 1, QueuePolicy.DROP_OLDEST)
+                .addStage("detect", mDetectStage, 1, 1, QueuePolicy.BLOCK)
+                .build();
+        mPipeline.attach(mCameraSurfaceView.getCameraManager());
+
+        mContentLayout.post(() -> {
+            int contentWidth = mContentLayout.getMeasuredWidth();
+            Log.i(TAG, "contentLayout: " + mContentLayout.getMeasuredWidth() + "x" + mContentLayout.getMeasuredHeight());
+
+            FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) mCameraSurfaceView.getLayoutParams();
+            lp.width = contentWidth;
+            lp.height = contentWidth * 4 / 3;
+            mCameraSurfaceView.setLayoutParams(lp);
+
+            lp = (FrameLayout.LayoutParams) mFrameFaceView.getLayoutParams();
+            lp.width = contentWidth;
+            lp.height = contentWidth * 4 / 3;
+            mFrameFaceView.setLayoutParams(lp);
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (ContextCompat.checkSelfPermission(getApplicationContext(), android.Manifest.permission.CAMERA) == PackageManager.PERMISSION_DENIED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA);
+        }
+        mCameraSurfaceView.onResume();
+        mPipeline.resetMetrics();
+        mPipeline.start();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mCameraSurfaceView.onPause();
+        // 等待各阶段线程退出后再释放模型
+        mPipeline.stop();
+        for (StageMetrics metrics : mPipeline.getMetrics()) {
+            Log.i(TAG, metrics.toString());
+        }
+        if (mModelLoaded) {
+            mSCRFDNcnn.destroy();
+            mModelLoaded = false;
+        }
+    }
+
+    /**
+     * 转换阶段：I420先转为NV21，再按帧方向旋转并转为RGB
+     */
+    private final PipelineStage<PreviewFrame, RGBImage> mConvertStage = new PipelineStage<PreviewFrame, RGBImage>() {
+
+        private byte[] mNV21Data;
+        private final int[] mSize = new int[2];
+
+        @Override
+        public RGBImage process(PreviewFrame frame, PreviewFrame input) {
+            byte[] nv21 = frame.getData();
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            if (frame.getFormat() == YUVFormat.I420) {
+                if (mNV21Data == null || mNV21Data.length != nv21.length) {
+                    mNV21Data = new byte[nv21.length];
+                }
+                YUVUtils.yuv420pToNV21(nv21, width, height, mNV21Data);
+                nv21 = mNV21Data;
+            }
+
+            RGBImage image = mRGBPool.poll();
+            if (image == null || image.data.length != width * height * 3) {
+                image = new RGBImage();
+                image.data = new byte[width * height * 3];
+            }
+            // 转换后mSize为旋转后的宽高
+            mSize[0] = width;
+            mSize[1] = height;
+            mSCRFDNcnn.NV21RotateToRGB(nv21, image.data, mSize, frame.getOrientation());
+            image.width = mSize[0];
+            image.height = mSize[1];
+            return image;
+        }
+    };
+
+    /**
+     * 检测阶段：第一次运行时在检测线程加载模型，检测完回收RGB缓冲区
+     */
+    private final PipelineStage<RGBImage, Void> mDetectStage = (frame, image) -> {
+        try {
+            if (!mModelLoaded) {
+                mSCRFDNcnn.create();
+                if (!mSCRFDNcnn.loadModel(getAssets(), 0, 0)) {
+                    Log.e(TAG, "scrfdncnn loadModel failed");
+                }
+                mModelLoaded = true;
+            }
+            Face[] faces = mSCRFDNcnn.detectRGB(image.data, image.width, image.height);
+            showFaces(faces);
+        } finally {
+            mRGBPool.offer(image);
+        }
+        // 最后一个阶段，帧到此结束
+        return null;
+    };
+
+    private void showFaces(Face[] faces) {
+        if (faces != null) {
+            List<float[]> faceRectList = new ArrayList<>();
+            for (Face face : faces) {
+                faceRectList.add(face.getRect());
+            }
+            mFrameFaceView.setLocFaces(faceRectList);
+        } else {
+            mFrameFaceView.setLocFaces(null);
+        }
+    }
+}
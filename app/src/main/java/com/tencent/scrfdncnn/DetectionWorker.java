@@ -0,0 +1,295 @@
+package com.tencent.scrfdncnn;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.LatencyStats;
+import com.android.xz.camera.PreviewFrame;
+import com.android.xz.camera.YUVFormat;
+import com.android.xz.camera.callback.PreviewBufferCallback;
+import com.android.xz.util.Tracer;
+import com.android.xz.util.YUVUtils;
+import com.tencent.scrfdncnn.model.Face;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 人脸检测工作线程，可直接作为{@link PreviewBufferCallback}添加到任意相机
+ * <p>
+ * 内部只有一个待处理帧的槽位，新帧到达时替换掉还没来得及处理的旧帧，检测线程始终处理最新的一帧。
+ *
+ * @author xiaozhi
+ * @since 2024/9/3
+ */
+public class DetectionWorker implements PreviewBufferCallback {
+
+    private static final String TAG = DetectionWorker.class.getSimpleName();
+
+    /**
+     * 检测结果监听，在检测线程回调，回调返回前帧数据有效
+     */
+    public interface OnDetectionListener {
+        /**
+         * @param frame 检测的帧
+         * @param faces   检测到的人脸，坐标基于旋转后的画面，没有检测到时为null
+         * @param latency 该帧的延迟数据，绘制结果后调用{@link FrameLatency#markRendered()}并记录到{@link #getLatencyStats()}
+         */
+        void onDetected(PreviewFrame frame, Face[] faces, FrameLatency latency);
+    }
+
+    private final AssetManager mAssetManager;
+    private final int mModelId;
+    private final int mCpuGpu;
+    private final AtomicReference<PreviewFrame> mPendingFrame = new AtomicReference<>();
+    private final CopyOnWriteArrayList<OnDetectionListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private volatile Thread mThread;
+    private volatile boolean mRunning;
+    private volatile boolean mTargetSizeFollowsFrame;
+    private byte[] mNV21Data;
+    // 检测线程使用，当前设置给模型的输入长边
+    private int mTargetSize;
+
+    /* 统计数据 */
+    private final AtomicLong mInCount = new AtomicLong(0);
+    private final AtomicLong mProcessedCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private final AtomicLong mSupersededCount = new AtomicLong(0);
+    private final LatencyStats mLatencyStats = new LatencyStats();
+
+    public DetectionWorker(AssetManager assetManager) {
+        this(assetManager, 0, 0);
+    }
+
+    /**
+     * @param assetManager 模型所在的AssetManager
+     * @param modelId      模型序号，参考{@link SCRFDNcnn#loadModel}
+     * @param cpuGpu       0：CPU，1：GPU
+     */
+    public DetectionWorker(AssetManager assetManager, int modelId, int cpuGpu) {
+        mAssetManager = assetManager;
+        mModelId = modelId;
+        mCpuGpu = cpuGpu;
+    }
+
+    public void addOnDetectionListener(OnDetectionListener listener) {
+        if (listener != null && !mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeOnDetectionListener(OnDetectionListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 启动检测线程
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::runLoop, "FaceDetector");
+        mThread.start();
+    }
+
+    /**
+     * 停止检测线程，等待正在进行的检测结束
+     */
+    public synchronized void stop() {
+        Thread thread = mThread;
+        if (thread == null) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mThread = null;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 设置检测器输入长边是否跟随帧尺寸
+     * <p>
+     * 开启后每帧检测前把{@link SCRFDNcnn#setTargetSize}设置为帧的长边，画面不再被缩放到固定的640，
+     * 推理耗时随分辨率变化，低分辨率推理更快，高分辨率能检出更小的人脸。
+     *
+     * @param follow
+     */
+    public void setTargetSizeFollowsFrame(boolean follow) {
+        mTargetSizeFollowsFrame = follow;
+    }
+
+    /**
+     * 只有数据没有帧引用时无法跨线程持有，计入丢弃
+     */
+    @Override
+    public void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format) {
+        mInCount.incrementAndGet();
+        mDroppedCount.incrementAndGet();
+    }
+
+    @Override
+    public void onPreviewFrame(PreviewFrame frame) {
+        submit(frame);
+    }
+
+    /**
+     * 提交一帧待检测，替换掉尚未处理的旧帧
+     *
+     * @param frame
+     */
+    public void submit(PreviewFrame frame) {
+        mInCount.incrementAndGet();
+        if (!mRunning) {
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        PreviewFrame previous = mPendingFrame.getAndSet(frame.acquire());
+        if (previous != null) {
+            previous.release();
+            mSupersededCount.incrementAndGet();
+        }
+        if (!mRunning) {
+            // 检测线程已经退出，帧不会再被取走
+            discardPendingFrame();
+            return;
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    private void runLoop() {
+        Log.i(TAG, "start DetectionWorker.");
+        SCRFDNcnn scrfdNcnn = new SCRFDNcnn();
+        scrfdNcnn.create();
+        boolean ret_init = scrfdNcnn.loadModel(mAssetManager, mModelId, mCpuGpu);
+        if (!ret_init) {
+            Log.e(TAG, "scrfdncnn loadModel failed");
+        }
+        scrfdNcnn.resetStats();
+        // 重新加载的模型使用默认输入尺寸
+        mTargetSize = 0;
+
+        while (mRunning) {
+            PreviewFrame frame = mPendingFrame.getAndSet(null);
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                detect(scrfdNcnn, frame);
+            } finally {
+                frame.release();
+            }
+        }
+
+        discardPendingFrame();
+        Log.i(TAG, String.valueOf(scrfdNcnn.getStats()));
+        scrfdNcnn.destroy();
+        Log.v(TAG, "exit DetectionWorker.");
+    }
+
+    private void detect(SCRFDNcnn scrfdNcnn, PreviewFrame frame) {
+        byte[] nv21 = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (frame.getFormat() == YUVFormat.I420) {
+            if (mNV21Data == null || mNV21Data.length != nv21.length) {
+                mNV21Data = new byte[nv21.length];
+            }
+            YUVUtils.yuv420pToNV21(nv21, width, height, mNV21Data);
+            nv21 = mNV21Data;
+        }
+        if (mTargetSizeFollowsFrame) {
+            int targetSize = Math.max(width, height);
+            if (targetSize != mTargetSize && scrfdNcnn.setTargetSize(targetSize)) {
+                mTargetSize = targetSize;
+            }
+        }
+        FrameLatency latency = new FrameLatency(frame);
+        latency.markDequeue();
+        Face[] faces = null;
+        boolean traced = Tracer.beginSection(Tracer.STAGE_DETECT);
+        try {
+            faces = scrfdNcnn.detectNV21(nv21, width, height, frame.getOrientation());
+        } finally {
+            Tracer.endSection(traced, Tracer.STAGE_DETECT, faces == null ? 0 : faces.length);
+        }
+        latency.markInferenceEnd();
+        mProcessedCount.incrementAndGet();
+        for (OnDetectionListener listener : mListeners) {
+            listener.onDetected(frame, faces, latency);
+        }
+    }
+
+    private void discardPendingFrame() {
+        PreviewFrame frame = mPendingFrame.getAndSet(null);
+        if (frame != null) {
+            frame.release();
+            mDroppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 提交的总帧数
+     */
+    public long getInCount() {
+        return mInCount.get();
+    }
+
+    /**
+     * 完成检测的帧数
+     */
+    public long getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    /**
+     * 检测线程未运行时被丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 等待期间被更新的帧替换掉的帧数
+     */
+    public long getSupersededCount() {
+        return mSupersededCount.get();
+    }
+
+    /**
+     * 延迟统计，由绘制检测结果的一方记录
+     */
+    public LatencyStats getLatencyStats() {
+        return mLatencyStats;
+    }
+
+    public void resetStats() {
+        mLatencyStats.reset();
+        mInCount.set(0);
+        mProcessedCount.set(0);
+        mDroppedCount.set(0);
+        mSupersededCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionWorker{in=" + mInCount.get()
+                + ", processed=" + mProcessedCount.get()
+                + ", dropped=" + mDroppedCount.get()
+                + ", superseded=" + mSupersededCount.get() + "}";
+    }
+}
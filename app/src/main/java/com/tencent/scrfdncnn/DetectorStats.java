@@ -0,0 +1,168 @@
+package com.tencent.scrfdncnn;
+
+/**
+ * native检测各阶段耗时的快照，由{@link SCRFDNcnn#getStats()}获取
+ * <p>
+ * 每个阶段保存次数、总耗时、最小最大耗时和log2直方图，直方图第i个桶统计[2^i, 2^(i+1))纳秒的样本，
+ * 最后一个桶包含更大的样本。
+ *
+ * @author xiaozhi
+ * @since 2024/9/18
+ */
+public class DetectorStats {
+
+    /**
+     * YUV旋转，只有NV21检测先旋转再转换颜色
+     */
+    public static final int ROTATE = 0;
+    /**
+     * YUV转RGB，只有NV21检测单独转换颜色
+     */
+    public static final int COLOR = 1;
+    /**
+     * 缩放、填充、归一化
+     */
+    public static final int PREPROCESS = 2;
+    /**
+     * 网络推理
+     */
+    public static final int FORWARD = 3;
+    /**
+     * 候选框解码
+     */
+    public static final int DECODE = 4;
+    /**
+     * 排序和NMS
+     */
+    public static final int NMS = 5;
+    /**
+     * JNI结果转换
+     */
+    public static final int MARSHAL = 6;
+    /**
+     * 整个JNI检测调用
+     */
+    public static final int TOTAL = 7;
+    /**
+     * 裁剪、旋转和YUV转RGB一次完成，NDK相机和HardwareBuffer检测使用
+     */
+    public static final int CROPROTATE = 8;
+    public static final int STAGE_COUNT = 9;
+
+    public static final int BUCKET_COUNT = 32;
+    // 与native stats.h中STAT_FIELDS_PER_STAGE一致
+    static final int FIELDS_PER_STAGE = 4 + BUCKET_COUNT;
+
+    private static final String[] STAGE_NAMES = {"rotate", "color", "preprocess", "forward", "decode", "nms", "marshal", "total", "croprotate"};
+
+    private final long[] mData;
+
+    DetectorStats(long[] data) {
+        mData = data;
+    }
+
+    static long[] newBuffer() {
+        return new long[STAGE_COUNT * FIELDS_PER_STAGE];
+    }
+
+    private long get(int stage, int field) {
+        return mData[stage * FIELDS_PER_STAGE + field];
+    }
+
+    /**
+     * 阶段名
+     */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * 样本数
+     *
+     * @param stage {@link #ROTATE}、{@link #COLOR}、{@link #PREPROCESS}、{@link #FORWARD}、{@link #DECODE}、
+     *              {@link #NMS}、{@link #MARSHAL}、{@link #TOTAL}
+     */
+    public long getCount(int stage) {
+        return get(stage, 0);
+    }
+
+    /**
+     * 总耗时，单位ns
+     */
+    public long getSumNanos(int stage) {
+        return get(stage, 1);
+    }
+
+    /**
+     * 最小耗时，单位ns
+     */
+    public long getMinNanos(int stage) {
+        return get(stage, 2);
+    }
+
+    /**
+     * 最大耗时，单位ns
+     */
+    public long getMaxNanos(int stage) {
+        return get(stage, 3);
+    }
+
+    /**
+     * 平均耗时，单位ms
+     */
+    public float getAverageMs(int stage) {
+        long count = getCount(stage);
+        return count == 0 ? 0 : getSumNanos(stage) / 1e6f / count;
+    }
+
+    /**
+     * 直方图桶内的样本数
+     */
+    public long getBucketCount(int stage, int bucket) {
+        return get(stage, 4 + bucket);
+    }
+
+    /**
+     * 根据直方图估算分位数，返回所在桶的上界，单位ns
+     *
+     * @param percentile 0到100
+     */
+    public long getPercentileNanos(int stage, float percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += getBucketCount(stage, i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += getBucketCount(stage, i);
+            if (seen >= target) {
+                // 上界不超过实际最大值
+                return Math.min(2L << i, getMaxNanos(stage));
+            }
+        }
+        return getMaxNanos(stage);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DetectorStats{");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (getCount(i) == 0) {
+                continue;
+            }
+            builder.append(STAGE_NAMES[i]).append('=')
+                    .append(String.format("%.2f/%.2f/%.2fms(n=%d)", getAverageMs(i),
+                            getPercentileNanos(i, 99) / 1e6f, getMaxNanos(i) / 1e6f, getCount(i)))
+                    .append(", ");
+        }
+        if (builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 2);
+        }
+        builder.append('}');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.tencent.scrfdncnn;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.ICameraManager;
+import com.android.xz.camera.PreviewFrame;
+import com.tencent.scrfdncnn.model.Face;
+
+/**
+ * 根据检测吞吐量调整相机帧率
+ * <p>
+ * 统计每个窗口内完成检测的帧数，目标帧率为检测帧率乘以余量，限制在[最小帧率, 最大帧率]之间，
+ * 与当前目标相差超过阈值时通过{@link ICameraManager#setTargetFrameRate(int)}下发。
+ * 相机帧率限制了检测帧率，余量保证检测变快时帧率能够逐步回升。
+ *
+ * @author xiaozhi
+ * @since 2024/9/12
+ */
+public class FrameRateController implements DetectionWorker.OnDetectionListener {
+
+    private static final String TAG = FrameRateController.class.getSimpleName();
+
+    private final ICameraManager mCameraManager;
+
+    private int mMinFrameRate = 15;
+    private int mMaxFrameRate = 30;
+    private float mHeadroom = 1.25f;
+    private int mThreshold = 3;
+    private long mWindowMs = 2000;
+
+    private long mWindowStart = -1;
+    private int mWindowCount;
+    private float mDetectionFps;
+
+    public FrameRateController(ICameraManager cameraManager) {
+        mCameraManager = cameraManager;
+    }
+
+    /**
+     * 设置帧率范围，最小帧率保证预览流畅
+     *
+     * @param minFrameRate
+     * @param maxFrameRate
+     */
+    public void setFrameRateRange(int minFrameRate, int maxFrameRate) {
+        mMinFrameRate = minFrameRate;
+        mMaxFrameRate = maxFrameRate;
+    }
+
+    /**
+     * 设置帧率余量，目标帧率为检测帧率的headroom倍
+     *
+     * @param headroom
+     */
+    public void setHeadroom(float headroom) {
+        mHeadroom = headroom;
+    }
+
+    /**
+     * 设置统计窗口和调整阈值
+     *
+     * @param windowMs  统计窗口，单位ms
+     * @param threshold 目标帧率变化超过该值时才调整
+     */
+    public void setWindow(long windowMs, int threshold) {
+        mWindowMs = windowMs;
+        mThreshold = threshold;
+    }
+
+    /**
+     * 最近一个窗口的检测帧率
+     */
+    public float getDetectionFps() {
+        return mDetectionFps;
+    }
+
+    @Override
+    public void onDetected(PreviewFrame frame, Face[] faces, FrameLatency latency) {
+        long now = SystemClock.elapsedRealtime();
+        if (mWindowStart < 0) {
+            mWindowStart = now;
+            mWindowCount = 0;
+            return;
+        }
+        mWindowCount++;
+        long elapsed = now - mWindowStart;
+        if (elapsed < mWindowMs) {
+            return;
+        }
+        mDetectionFps = mWindowCount * 1000f / elapsed;
+        mWindowStart = now;
+        mWindowCount = 0;
+
+        int target = (int) Math.ceil(mDetectionFps * mHeadroom);
+        target = Math.max(mMinFrameRate, Math.min(mMaxFrameRate, target));
+        int current = mCameraManager.getTargetFrameRate();
+        if (current == 0 || Math.abs(target - current) >= mThreshold) {
+            Log.i(TAG, "detectionFps: " + mDetectionFps + ", targetFrameRate: " + target);
+            mCameraManager.setTargetFrameRate(target);
+        }
+    }
+
+    /**
+     * 重新开始统计，相机重新打开时调用
+     */
+    public void reset() {
+        mWindowStart = -1;
+        mWindowCount = 0;
+    }
+}
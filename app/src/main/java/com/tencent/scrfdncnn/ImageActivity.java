@@ -12,6 +12,7 @@ import android.os.Bundle;
 import android.util.Log;
 import android.widget.ImageView;
 
+import com.android.xz.util.RGBUtils;
 import com.tencent.scrfdncnn.model.Face;
 
 import java.nio.ByteBuffer;
@@ -89,16 +90,8 @@ public class ImageActivity extends AppCompatActivity {
         byte[] rgba = buffer.array();
         byte[] pixels = new byte[(rgba.length / 4) * 3];
 
-        int count = rgba.length / 4;
-
         //Bitmap像素点的色彩通道排列顺序是RGBA
-        for (int i = 0; i < count; i++) {
-
-            pixels[i * 3] = rgba[i * 4];        //R
-            pixels[i * 3 + 1] = rgba[i * 4 + 1];    //G
-            pixels[i * 3 + 2] = rgba[i * 4 + 2];       //B
-
-        }
+        RGBUtils.rgbaToRGB(rgba, rgba.length / 4, pixels);
 
         return pixels;
     }
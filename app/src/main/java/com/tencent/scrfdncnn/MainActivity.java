@@ -3,10 +3,25 @@ package com.tencent.scrfdncnn;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = MainActivity.class.getSimpleName();
+
+    // 逐层分析的网络输入长边，覆盖常用的检测尺寸
+    private static final int[] PROFILE_TARGET_SIZES = {320, 480, 640};
+    private static final int PROFILE_LOOPS = 10;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -16,5 +31,40 @@ public class MainActivity extends AppCompatActivity {
         findViewById(R.id.imageDetectBtn).setOnClickListener(v -> startActivity(new Intent(this, ImageActivity.class)));
         findViewById(R.id.faceCameraBtn).setOnClickListener(v -> startActivity(new Intent(this, CameraActivity.class)));
         findViewById(R.id.faceCamera2Btn).setOnClickListener(v -> startActivity(new Intent(this, Camera2Activity.class)));
+        findViewById(R.id.faceCameraPipelineBtn).setOnClickListener(v -> startActivity(new Intent(this, CameraPipelineActivity.class)));
+        findViewById(R.id.faceCamera2StreamBtn).setOnClickListener(v -> startActivity(new Intent(this, Camera2StreamActivity.class)));
+        View hardwareBufferBtn = findViewById(R.id.faceCamera2HardwareBufferBtn);
+        // HardwareBuffer需要Android 10
+        hardwareBufferBtn.setEnabled(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q);
+        hardwareBufferBtn.setOnClickListener(v -> startActivity(new Intent(this, Camera2StreamActivity.class)
+                .putExtra(Camera2StreamActivity.EXTRA_HARDWARE_BUFFER, true)));
+        findViewById(R.id.faceCamera2GLBtn).setOnClickListener(v -> startActivity(new Intent(this, Camera2GLActivity.class)));
+        findViewById(R.id.profileModelBtn).setOnClickListener(this::profileModels);
+    }
+
+    /**
+     * 在后台线程分析所有模型，结果写入应用外部文件目录下的scrfd_profile.json
+     */
+    private void profileModels(View button) {
+        button.setEnabled(false);
+        Toast.makeText(this, "开始分析，耗时较长", Toast.LENGTH_SHORT).show();
+        File file = new File(getExternalFilesDir(null), "scrfd_profile.json");
+        new Thread(() -> {
+            String report = new SCRFDNcnn().profileModels(getAssets(), PROFILE_TARGET_SIZES, 640, 480, PROFILE_LOOPS, 0);
+            String message;
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(report.getBytes(StandardCharsets.UTF_8));
+                message = "分析结果：" + file.getAbsolutePath();
+            } catch (IOException e) {
+                e.printStackTrace();
+                message = "写入失败：" + e.getMessage();
+            }
+            Log.i(TAG, message);
+            String toast = message;
+            runOnUiThread(() -> {
+                button.setEnabled(true);
+                Toast.makeText(this, toast, Toast.LENGTH_LONG).show();
+            });
+        }, "ModelProfiler").start();
     }
-}
\ No newline at end of file
+}
@@ -26,6 +26,7 @@ import android.view.WindowManager;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.Spinner;
+import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
@@ -44,6 +45,10 @@ public class NDKCameraActivity extends AppCompatActivity implements SurfaceHolde
     private int current_cpugpu = 0;
 
     private SurfaceView cameraView;
+    private TextView textFaces;
+
+    private NativeResultChannel resultChannel;
+    private int lastFaceCount = -1;
 
     /** Called when the activity is first created. */
     @Override
@@ -110,14 +115,32 @@ public class NDKCameraActivity extends AppCompatActivity implements SurfaceHolde
             }
         });
 
+        textFaces = (TextView) findViewById(R.id.textFaces);
+
         scrfdncnn.create();
 
         reload();
+
+        // 检测结果在主线程读取，不经过Face对象
+        resultChannel = new NativeResultChannel(scrfdncnn);
+        resultChannel.open(new NativeResultChannel.OnResultListener() {
+            @Override
+            public void onResult(NativeResultChannel.Result result)
+            {
+                int faceCount = result.getFaceCount();
+                if (faceCount != lastFaceCount)
+                {
+                    lastFaceCount = faceCount;
+                    textFaces.setText("人脸: " + faceCount);
+                }
+            }
+        });
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        resultChannel.close();
         scrfdncnn.destroy();
     }
 
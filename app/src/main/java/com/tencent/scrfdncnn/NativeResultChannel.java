@@ -0,0 +1,247 @@
+package com.tencent.scrfdncnn;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * NDK相机路径的检测结果通道
+ * <p>
+ * native检测线程持锁把结果写入预先分配的direct ByteBuffer的发布区，再通过eventfd通知，
+ * 这里在Looper线程上监听eventfd，调用{@link SCRFDNcnn#readResultChannel}持同一把锁把最新结果拷贝到读取区后再解析，
+ * 读取区只在该调用中被写入，解析时不会与检测线程并发。整个过程不创建Face对象，native也不需要AttachCurrentThread。
+ * 处理不过来时只读取最新一次结果，中间的结果计入跳过数。
+ *
+ * @author xiaozhi
+ * @since 2024/9/14
+ */
+public class NativeResultChannel {
+
+    private static final String TAG = NativeResultChannel.class.getSimpleName();
+
+    /**
+     * 每个人脸的float数：x y w h prob 5个关键点xy
+     */
+    public static final int FACE_STRIDE = 15;
+    public static final int DEFAULT_MAX_FACES = 32;
+
+    /* 布局与scrfdncnn.cpp一致 */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * 检测结果监听，在Looper线程回调
+     */
+    public interface OnResultListener {
+        /**
+         * @param result 检测结果，对象复用，只在回调内有效，下一次回调前不会被修改
+         */
+        void onResult(Result result);
+    }
+
+    /**
+     * 一次检测结果，坐标基于检测时裁剪旋转后的画面
+     */
+    public static class Result {
+        private long mSequence;
+        private long mTimestamp;
+        private int mWidth;
+        private int mHeight;
+        private int mFaceCount;
+        private int mInferenceUs;
+        private final float[] mData;
+
+        Result(int maxFaces) {
+            mData = new float[maxFaces * FACE_STRIDE];
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * 检测完成时间，与{@link android.os.SystemClock#elapsedRealtimeNanos()}同一时间基准
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFaceCount() {
+            return mFaceCount;
+        }
+
+        public int getInferenceUs() {
+            return mInferenceUs;
+        }
+
+        /**
+         * 人脸数据，第i个人脸从i * {@link #FACE_STRIDE}开始
+         */
+        public float[] getData() {
+            return mData;
+        }
+    }
+
+    private final SCRFDNcnn mScrfdNcnn;
+    private final int mMaxFaces;
+    // 读取区在buffer中的偏移，前面是native的发布区
+    private final int mReadOffset;
+    private final ByteBuffer mBuffer;
+    // 已交给监听的结果和下一次解析用的结果，校验通过后才交换
+    private Result mResult;
+    private Result mScratch;
+    private final byte[] mEventBuffer = new byte[8];
+
+    private ParcelFileDescriptor mEventFd;
+    private MessageQueue mQueue;
+    private OnResultListener mListener;
+    private long mLastSequence;
+    private long mSkippedCount;
+    private long mInvalidCount;
+
+    private final MessageQueue.OnFileDescriptorEventListener mEventListener = new MessageQueue.OnFileDescriptorEventListener() {
+        @Override
+        public int onFileDescriptorEvents(FileDescriptor fd, int events) {
+            if ((events & EVENT_INPUT) != 0) {
+                try {
+                    // 清空eventfd计数，多次通知合并为一次读取
+                    Os.read(fd, mEventBuffer, 0, mEventBuffer.length);
+                } catch (ErrnoException | IOException e) {
+                    // EAGAIN
+                }
+                readLatest();
+            }
+            return EVENT_INPUT;
+        }
+    };
+
+    public NativeResultChannel(SCRFDNcnn scrfdNcnn) {
+        this(scrfdNcnn, DEFAULT_MAX_FACES);
+    }
+
+    /**
+     * @param scrfdNcnn
+     * @param maxFaces  每次结果最多保存的人脸数
+     */
+    public NativeResultChannel(SCRFDNcnn scrfdNcnn, int maxFaces) {
+        mScrfdNcnn = scrfdNcnn;
+        mMaxFaces = maxFaces;
+        mReadOffset = HEADER_SIZE + maxFaces * FACE_STRIDE * 4;
+        mBuffer = ByteBuffer.allocateDirect(getBufferSize(maxFaces)).order(ByteOrder.nativeOrder());
+        mResult = new Result(maxFaces);
+        mScratch = new Result(maxFaces);
+    }
+
+    /**
+     * 缓冲区所需字节数，发布区和读取区各一块
+     */
+    public static int getBufferSize(int maxFaces) {
+        return 2 * (HEADER_SIZE + maxFaces * FACE_STRIDE * 4);
+    }
+
+    /**
+     * 打开通道，在接收回调的Looper线程调用
+     *
+     * @param listener
+     * @return 是否成功
+     */
+    public boolean open(OnResultListener listener) {
+        if (mEventFd != null) {
+            mListener = listener;
+            return true;
+        }
+        int fd = mScrfdNcnn.openResultChannel(mBuffer, mMaxFaces);
+        if (fd < 0) {
+            Log.e(TAG, "openResultChannel failed");
+            return false;
+        }
+        mEventFd = ParcelFileDescriptor.adoptFd(fd);
+        mListener = listener;
+        mLastSequence = 0;
+        mQueue = Looper.myQueue();
+        mQueue.addOnFileDescriptorEventListener(mEventFd.getFileDescriptor(),
+                MessageQueue.OnFileDescriptorEventListener.EVENT_INPUT, mEventListener);
+        return true;
+    }
+
+    /**
+     * 关闭通道，native停止写入后再关闭eventfd
+     */
+    public void close() {
+        if (mEventFd == null) {
+            return;
+        }
+        mScrfdNcnn.closeResultChannel();
+        mQueue.removeOnFileDescriptorEventListener(mEventFd.getFileDescriptor());
+        try {
+            mEventFd.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mEventFd = null;
+        mQueue = null;
+        mListener = null;
+    }
+
+    private void readLatest() {
+        long sequence = mScrfdNcnn.readResultChannel(mLastSequence);
+        if (sequence <= mLastSequence) {
+            return;
+        }
+        // 先解析到备用对象，校验通过后再交给监听，已交出的对象不会被改写
+        int offset = mReadOffset;
+        Result result = mScratch;
+        result.mTimestamp = mBuffer.getLong(offset + 8);
+        result.mWidth = mBuffer.getInt(offset + 16);
+        result.mHeight = mBuffer.getInt(offset + 20);
+        result.mFaceCount = mBuffer.getInt(offset + 24);
+        result.mInferenceUs = mBuffer.getInt(offset + 28);
+        if (mBuffer.getLong(offset) != sequence || result.mFaceCount < 0 || result.mFaceCount > mMaxFaces) {
+            mInvalidCount++;
+            return;
+        }
+        int dataOffset = offset + HEADER_SIZE;
+        for (int i = 0; i < result.mFaceCount * FACE_STRIDE; i++) {
+            result.mData[i] = mBuffer.getFloat(dataOffset + i * 4);
+        }
+        if (mLastSequence > 0) {
+            mSkippedCount += sequence - mLastSequence - 1;
+        }
+        mLastSequence = sequence;
+        result.mSequence = sequence;
+        mScratch = mResult;
+        mResult = result;
+        if (mListener != null) {
+            mListener.onResult(result);
+        }
+    }
+
+    /**
+     * 处理不及时被跳过的结果数
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * 校验失败而丢弃的结果数
+     */
+    public long getInvalidCount() {
+        return mInvalidCount;
+    }
+}
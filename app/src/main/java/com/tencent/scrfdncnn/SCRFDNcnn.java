@@ -15,10 +15,16 @@
 package com.tencent.scrfdncnn;
 
 import android.content.res.AssetManager;
+import android.hardware.HardwareBuffer;
+import android.os.Build;
 import android.view.Surface;
 
+import androidx.annotation.RequiresApi;
+
 import com.tencent.scrfdncnn.model.Face;
 
+import java.nio.ByteBuffer;
+
 public class SCRFDNcnn {
 
 
@@ -54,6 +60,27 @@ public class SCRFDNcnn {
      */
     public native boolean NV21RotateToRGB(byte[] yuv, byte[] rgb, int[] hw, int rotate);
 
+    /**
+     * 设置网络输入的长边，默认640，向上取整到32的倍数，需要在loadModel之后调用
+     *
+     * @param targetSize 输入越小推理越快，小脸的检出率越低
+     */
+    public native boolean setTargetSize(int targetSize);
+
+    /**
+     * 逐个加载{@link #loadModel}支持的所有模型，对每个输入尺寸统计逐层推理耗时和输出内存，
+     * 不影响当前用于检测的模型。耗时较长，不要在主线程调用
+     *
+     * @param mgr         模型所在的AssetManager
+     * @param targetSizes 网络输入长边列表
+     * @param width       模拟的画面宽，与targetSize一起决定输入尺寸
+     * @param height      模拟的画面高
+     * @param loops       每个尺寸的测量次数，另有一次预热
+     * @param cpugpu      0：CPU，1：GPU，GPU下逐层耗时包含数据下载，只有整体耗时可参考
+     * @return JSON数组，每个模型一项，assets中缺少的模型带error字段
+     */
+    public native String profileModels(AssetManager mgr, int[] targetSizes, int width, int height, int loops, int cpugpu);
+
     /**
      * 检测人脸
      *
@@ -64,6 +91,16 @@ public class SCRFDNcnn {
      */
     public native Face[] detectRGB(byte[] rgb, int width, int height);
 
+    /**
+     * 检测RGBA数据，用于GPU读回的画面，数据已经旋转到正向
+     *
+     * @param rgba   direct ByteBuffer，行间无填充
+     * @param width  图像宽
+     * @param height 图像高
+     * @return 人脸数据
+     */
+    public native Face[] detectRGBA(ByteBuffer rgba, int width, int height);
+
     /**
      * 检测NV21数据
      *
@@ -75,6 +112,59 @@ public class SCRFDNcnn {
      */
     public native Face[] detectNV21(byte[] nv21, int width, int height, int orientation);
 
+    /**
+     * 检测相机帧的硬件缓冲区，直接锁定缓冲区读取YUV平面，不经过Java数组拷贝
+     *
+     * @param buffer      YUV_420_888格式、CPU可读的硬件缓冲区
+     * @param orientation 图像旋转方向
+     * @param mirror      是否在旋转后水平镜像，前置摄像头传true，人脸坐标与镜像后的显示画面一致
+     * @return
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    public native Face[] detectHardwareBuffer(HardwareBuffer buffer, int orientation, boolean mirror);
+
+    /**
+     * 打开NDK相机路径的检测结果通道，检测线程把结果写入buffer的发布区并通过eventfd通知，参考{@link NativeResultChannel}
+     *
+     * @param buffer   direct ByteBuffer，容量不小于{@link NativeResultChannel#getBufferSize(int)}
+     * @param maxFaces 每次结果最多保存的人脸数
+     * @return eventfd，由调用方持有和关闭，失败返回-1
+     */
+    public native int openResultChannel(ByteBuffer buffer, int maxFaces);
+
+    /**
+     * 把最新一次结果从发布区拷贝到buffer的读取区，与检测线程的写入互斥
+     *
+     * @param lastSequence 上次读取的序号
+     * @return 拷贝的结果序号，没有更新的结果或通道未打开时返回0
+     */
+    public native long readResultChannel(long lastSequence);
+
+    /**
+     * 关闭检测结果通道，返回后native不再写入buffer和eventfd
+     */
+    public native boolean closeResultChannel();
+
+    /**
+     * 获取native检测各阶段耗时的快照，统计在所有检测调用之间共享
+     *
+     * @return 读取失败时返回null
+     */
+    public DetectorStats getStats() {
+        long[] data = DetectorStats.newBuffer();
+        if (!readStats(data)) {
+            return null;
+        }
+        return new DetectorStats(data);
+    }
+
+    private native boolean readStats(long[] stats);
+
+    /**
+     * 清空native检测耗时统计
+     */
+    public native void resetStats();
+
     static {
         System.loadLibrary("scrfdncnn");
     }
@@ -0,0 +1,367 @@
+package com.tencent.scrfdncnn.view;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.Matrix;
+import android.util.AttributeSet;
+
+import com.android.xz.camera.Camera2Manager;
+import com.android.xz.camera.ICameraManager;
+import com.android.xz.camera.callback.CameraCallback;
+import com.android.xz.camera.view.base.BaseCameraView;
+import com.android.xz.gles.ES3ContextFactory;
+import com.android.xz.gles.FaceOverlayFilter;
+import com.android.xz.gles.GLESUtils;
+import com.android.xz.gles.OESFilter;
+import com.android.xz.gles.ReadbackFrameBuffer;
+import com.android.xz.util.Logs;
+import com.android.xz.util.MatrixUtils;
+import com.android.xz.util.Tracer;
+import com.tencent.scrfdncnn.model.Face;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * 相机直接输出到OES纹理的预览View，画面全程在GPU处理
+ * <p>
+ * 每帧先把相机纹理旋转、等比缩放到检测尺寸（不足部分填黑）绘制到离屏帧缓冲区并异步读回RGBA，
+ * 再用同一个着色器绘制到屏幕，最后叠加人脸框。CPU只接触检测尺寸的RGBA数据。
+ *
+ * @author xiaozhi
+ * @since 2024/9/17
+ */
+public class CameraOESGLSurfaceView extends GLSurfaceView implements CameraCallback, BaseCameraView {
+
+    private static final String TAG = CameraOESGLSurfaceView.class.getSimpleName();
+
+    /**
+     * 检测画面回调，在渲染线程调用
+     */
+    public interface OnDetectionFrameListener {
+        /**
+         * @param rgba      检测画面RGBA数据，已旋转到正向，只在回调内有效
+         * @param width     检测画面宽
+         * @param height    检测画面高
+         * @param timestamp 相机帧时间戳，单位纳秒
+         */
+        void onDetectionFrame(ByteBuffer rgba, int width, int height, long timestamp);
+    }
+
+    private Camera2Manager mCameraManager;
+    private MyRenderer mMyRenderer;
+    private SurfaceTexture mSurfaceTexture;
+    private boolean isPaused;
+
+    public CameraOESGLSurfaceView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public CameraOESGLSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    private void init(Context context) {
+        mCameraManager = new Camera2Manager(context);
+        mCameraManager.setCameraCallback(this);
+        mMyRenderer = new MyRenderer();
+        setEGLContextClientVersion(2);
+        // 支持时使用ES 3上下文，检测画面才能通过像素缓冲区异步读回
+        setEGLContextFactory(new ES3ContextFactory());
+        setRenderer(mMyRenderer);
+        setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+    }
+
+    @Override
+    public ICameraManager getCameraManager() {
+        return mCameraManager;
+    }
+
+    /**
+     * 设置检测画面尺寸，宽高会按画面方向自动交换，画面比例不一致时两侧填黑
+     */
+    public void setDetectionSize(int width, int height) {
+        mMyRenderer.mDetectionLongSide = Math.max(width, height);
+        mMyRenderer.mDetectionShortSide = Math.min(width, height);
+    }
+
+    public void setOnDetectionFrameListener(OnDetectionFrameListener listener) {
+        mMyRenderer.mOnDetectionFrameListener = listener;
+    }
+
+    /**
+     * 设置人脸框和关键点，可在任意线程调用，只保存数据不触发重绘
+     *
+     * @param faces 检测结果，坐标基于{@link OnDetectionFrameListener}回调的检测画面，没有人脸时为null
+     */
+    public void setFaces(Face[] faces) {
+        mMyRenderer.setFaces(faces);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        isPaused = false;
+        // 上下文被销毁时会重新创建SurfaceTexture，在onSurfaceTextureCreated中打开摄像头
+        if (mSurfaceTexture != null) {
+            openCamera();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        isPaused = true;
+        closeCamera();
+        // GLSurfaceView暂停时销毁EGL上下文，纹理和SurfaceTexture随之失效
+        mSurfaceTexture = null;
+        super.onPause();
+    }
+
+    @Override
+    public void onDestroy() {
+    }
+
+    private void onSurfaceTextureCreated(SurfaceTexture surfaceTexture) {
+        Logs.i(TAG, "onSurfaceTextureCreated.");
+        mSurfaceTexture = surfaceTexture;
+        if (!isPaused) {
+            openCamera();
+        }
+    }
+
+    private void openCamera() {
+        if (mCameraManager.isOpen()) {
+            Logs.w(TAG, "Camera is opened！");
+            return;
+        }
+        mCameraManager.openCamera();
+    }
+
+    private void closeCamera() {
+        mCameraManager.releaseCamera();
+    }
+
+    @Override
+    public void onOpen() {
+        mMyRenderer.setCamera(mCameraManager.getCameraId(), mCameraManager.getOrientation());
+        mCameraManager.startPreview(mSurfaceTexture);
+    }
+
+    @Override
+    public void onOpenError(int error, String msg) {
+
+    }
+
+    @Override
+    public void onPreview(int previewWidth, int previewHeight) {
+        mMyRenderer.setPreviewSize(previewWidth, previewHeight);
+    }
+
+    @Override
+    public void onPreviewError(int error, String msg) {
+
+    }
+
+    @Override
+    public void onClose() {
+
+    }
+
+    /**
+     * 检测画面的布局，检测坐标 = 正向画面坐标 * scale + pad
+     */
+    static class DetectionLayout {
+        final int width;
+        final int height;
+        final float scale;
+        final float padX;
+        final float padY;
+        final int frameWidth;
+        final int frameHeight;
+
+        DetectionLayout(int frameWidth, int frameHeight, int longSide, int shortSide) {
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            width = frameWidth >= frameHeight ? longSide : shortSide;
+            height = frameWidth >= frameHeight ? shortSide : longSide;
+            scale = Math.min(width * 1f / frameWidth, height * 1f / frameHeight);
+            padX = (width - frameWidth * scale) / 2;
+            padY = (height - frameHeight * scale) / 2;
+        }
+    }
+
+    class MyRenderer implements Renderer {
+
+        private OESFilter mOESFilter;
+        private FaceOverlayFilter mFaceOverlayFilter;
+        private ReadbackFrameBuffer mReadbackFrameBuffer;
+        private SurfaceTexture mRenderSurfaceTexture;
+        private int mTextureId;
+
+        private float[] mTexMatrix = new float[16];
+        private float[] mDisplayMatrix = new float[16];
+        private float[] mDetectionMatrix = new float[16];
+
+        // 人脸数据转换缓冲区，只在提交人脸的线程使用
+        private final float[] mFaceData = new float[FaceOverlayFilter.MAX_FACES * FaceOverlayFilter.FACE_STRIDE];
+
+        private volatile OnDetectionFrameListener mOnDetectionFrameListener;
+        private volatile int mDetectionLongSide = 640;
+        private volatile int mDetectionShortSide = 480;
+        private volatile DetectionLayout mDetectionLayout;
+
+        private volatile int mCameraId;
+        private volatile int mOrientation;
+        private volatile int mPreviewWidth;
+        private volatile int mPreviewHeight;
+        private int mViewWidth;
+        private int mViewHeight;
+
+        MyRenderer() {
+            mOESFilter = new OESFilter();
+            mFaceOverlayFilter = new FaceOverlayFilter();
+            mReadbackFrameBuffer = new ReadbackFrameBuffer();
+        }
+
+        void setCamera(int cameraId, int orientation) {
+            mCameraId = cameraId;
+            mOrientation = orientation;
+            mFaceOverlayFilter.setMirror(cameraId == 1);
+        }
+
+        void setPreviewSize(int width, int height) {
+            mPreviewWidth = width;
+            mPreviewHeight = height;
+        }
+
+        void setFaces(Face[] faces) {
+            DetectionLayout layout = mDetectionLayout;
+            if (layout == null) {
+                return;
+            }
+            int faceCount = 0;
+            if (faces != null) {
+                faceCount = Math.min(faces.length, FaceOverlayFilter.MAX_FACES);
+                for (int i = 0; i < faceCount; i++) {
+                    int offset = i * FaceOverlayFilter.FACE_STRIDE;
+                    float[] rect = faces[i].getRect();
+                    mFaceData[offset] = (rect[0] - layout.padX) / layout.scale;
+                    mFaceData[offset + 1] = (rect[1] - layout.padY) / layout.scale;
+                    mFaceData[offset + 2] = rect[2] / layout.scale;
+                    mFaceData[offset + 3] = rect[3] / layout.scale;
+
+                    float[] landmark = faces[i].getLandmark();
+                    boolean hasLandmark = false;
+                    for (float value : landmark) {
+                        if (value != 0) {
+                            hasLandmark = true;
+                            break;
+                        }
+                    }
+                    for (int j = 0; j < 10; j += 2) {
+                        mFaceData[offset + 4 + j] = hasLandmark ? (landmark[j] - layout.padX) / layout.scale : 0;
+                        mFaceData[offset + 5 + j] = hasLandmark ? (landmark[j + 1] - layout.padY) / layout.scale : 0;
+                    }
+                }
+            }
+            mFaceOverlayFilter.setFaces(mFaceData, faceCount, layout.frameWidth, layout.frameHeight);
+        }
+
+        @Override
+        public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+            if (mRenderSurfaceTexture != null) {
+                mRenderSurfaceTexture.release();
+            }
+            mTextureId = GLESUtils.createOESTexture();
+            mRenderSurfaceTexture = new SurfaceTexture(mTextureId);
+            mRenderSurfaceTexture.setOnFrameAvailableListener(surfaceTexture -> requestRender());
+
+            mOESFilter.surfaceCreated();
+            mOESFilter.setTextureId(mTextureId);
+            mFaceOverlayFilter.surfaceCreated();
+            mReadbackFrameBuffer.surfaceCreated();
+
+            SurfaceTexture surfaceTexture = mRenderSurfaceTexture;
+            post(() -> onSurfaceTextureCreated(surfaceTexture));
+        }
+
+        @Override
+        public void onSurfaceChanged(GL10 gl, int width, int height) {
+            mViewWidth = width;
+            mViewHeight = height;
+            mFaceOverlayFilter.surfaceChanged(width, height);
+        }
+
+        @Override
+        public void onDrawFrame(GL10 gl) {
+            SurfaceTexture surfaceTexture = mRenderSurfaceTexture;
+            try {
+                surfaceTexture.updateTexImage();
+            } catch (Exception e) {
+                Logs.w(TAG, e.getMessage());
+                return;
+            }
+            surfaceTexture.getTransformMatrix(mTexMatrix);
+            int orientation = mOrientation;
+
+            OnDetectionFrameListener listener = mOnDetectionFrameListener;
+            if (listener != null && mPreviewWidth > 0 && mPreviewHeight > 0) {
+                drawDetectionFrame(listener, orientation, surfaceTexture.getTimestamp());
+            }
+
+            // 显示：按传感器方向顺时针旋转，前置摄像头再左右镜像
+            boolean traced = Tracer.beginSection(Tracer.STAGE_RENDER);
+            try {
+                GLES20.glViewport(0, 0, mViewWidth, mViewHeight);
+                Matrix.setIdentityM(mDisplayMatrix, 0);
+                MatrixUtils.flip(mDisplayMatrix, mCameraId == 1, false);
+                MatrixUtils.rotate(mDisplayMatrix, -orientation);
+                mOESFilter.onDraw(mDisplayMatrix, mTexMatrix);
+                mFaceOverlayFilter.onDraw();
+            } finally {
+                Tracer.endSection(traced, Tracer.STAGE_RENDER, mViewWidth * mViewHeight);
+            }
+        }
+
+        private void drawDetectionFrame(OnDetectionFrameListener listener, int orientation, long timestamp) {
+            int frameWidth = orientation % 180 == 0 ? mPreviewWidth : mPreviewHeight;
+            int frameHeight = orientation % 180 == 0 ? mPreviewHeight : mPreviewWidth;
+            DetectionLayout layout = mDetectionLayout;
+            if (layout == null || layout.frameWidth != frameWidth || layout.frameHeight != frameHeight
+                    || Math.max(layout.width, layout.height) != mDetectionLongSide
+                    || Math.min(layout.width, layout.height) != mDetectionShortSide) {
+                layout = new DetectionLayout(frameWidth, frameHeight, mDetectionLongSide, mDetectionShortSide);
+                mDetectionLayout = layout;
+            }
+            mReadbackFrameBuffer.setSize(layout.width, layout.height);
+
+            // 检测画面不镜像；读回的第一行是帧缓冲区底部，上下翻转后第一行为画面顶部
+            Matrix.setIdentityM(mDetectionMatrix, 0);
+            MatrixUtils.flip(mDetectionMatrix, false, true);
+            MatrixUtils.scale(mDetectionMatrix, frameWidth * layout.scale / layout.width,
+                    frameHeight * layout.scale / layout.height);
+            MatrixUtils.rotate(mDetectionMatrix, -orientation);
+
+            boolean ready = false;
+            boolean traced = Tracer.beginSection(Tracer.STAGE_READBACK);
+            try {
+                mReadbackFrameBuffer.bind();
+                mOESFilter.onDraw(mDetectionMatrix, mTexMatrix);
+                ready = mReadbackFrameBuffer.readPixels(timestamp);
+                mReadbackFrameBuffer.unbind();
+            } finally {
+                Tracer.endSection(traced, Tracer.STAGE_READBACK, ready ? 1 : 0);
+            }
+            if (ready) {
+                listener.onDetectionFrame(mReadbackFrameBuffer.getPixels(), mReadbackFrameBuffer.getWidth(),
+                        mReadbackFrameBuffer.getHeight(), mReadbackFrameBuffer.getTimestamp());
+            }
+        }
+    }
+}
@@ -5,16 +5,25 @@ import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 import android.util.Log;
 
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.LatencyStats;
+import com.android.xz.camera.PreviewFrame;
 import com.android.xz.camera.YUVFormat;
+import com.android.xz.camera.callback.PreviewBufferCallback;
+import com.android.xz.gles.ES3ContextFactory;
+import com.android.xz.gles.FaceOverlayFilter;
 import com.android.xz.gles.YUVFilter;
 import com.android.xz.util.MatrixUtils;
+import com.android.xz.util.Tracer;
+import com.android.xz.util.YUVFrameBuffer;
+import com.tencent.scrfdncnn.model.Face;
 
-import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class DisplayYUVGLSurfaceView extends GLSurfaceView {
+public class DisplayYUVGLSurfaceView extends GLSurfaceView implements PreviewBufferCallback {
 
     private static final String TAG = DisplayYUVGLSurfaceView.class.getSimpleName();
 
@@ -35,148 +44,201 @@ public class DisplayYUVGLSurfaceView extends GLSurfaceView {
         mContext = context;
         mMyRenderer = new MyRenderer();
         setEGLContextClientVersion(2);
+        // 支持时使用ES 3上下文，YUVFilter才能用像素缓冲区上传纹理
+        setEGLContextFactory(new ES3ContextFactory());
         setRenderer(mMyRenderer);
         setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
+    /**
+     * 提交一帧YUV数据，数据拷贝到空闲缓冲区后立即返回，由渲染线程按自己的节奏取最新一帧绘制
+     * <p>
+     * 只允许一个线程提交数据
+     */
     public void feedYUVData(byte[] yuvData, int width, int height, YUVFormat yuvFormat, int rotate) {
         if (yuvData == null) {
             return;
         }
-        mMyRenderer.feedData(yuvData, width, height, yuvFormat, rotate);
+        if (mMyRenderer.feedData(yuvData, width, height, yuvFormat, rotate)) {
+            requestRender();
+        }
     }
 
     public void setCameraId(int id) {
         mMyRenderer.setCameraId(id);
     }
 
-    static class MyRenderer implements Renderer {
+    /**
+     * 设置人脸框和关键点，在画面之后的同一个渲染过程中绘制，只保存数据不触发重绘
+     * <p>
+     * 画面按相机帧率显示最新一帧，人脸框来自更早检测完成的那一帧，人脸移动时框会落后画面
+     * 约一次检测耗时，保留到下一次检测结果到达为止。
+     *
+     * @param faces   检测结果，坐标基于旋转后的画面，没有人脸时为null
+     * @param width   旋转后画面的宽
+     * @param height  旋转后画面的高
+     * @param latency 该帧的延迟数据，叠加层首次绘制时记录显示时间
+     */
+    public void setFaces(Face[] faces, int width, int height, FrameLatency latency) {
+        mMyRenderer.setFaces(faces, width, height, latency);
+    }
 
-        private YUVFilter mYUVFilter;
+    /**
+     * 设置延迟统计，叠加层绘制时记录
+     */
+    public void setLatencyStats(LatencyStats latencyStats) {
+        mMyRenderer.mLatencyStats = latencyStats;
+    }
+
+    @Override
+    public void onPreviewBufferFrame(byte[] data, int width, int height, YUVFormat format) {
+        feedYUVData(data, width, height, format, mMyRenderer.mRotate);
+    }
+
+    @Override
+    public void onPreviewFrame(PreviewFrame frame) {
+        feedYUVData(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getFormat(), frame.getOrientation());
+    }
+
+    /**
+     * 帧缓冲区，附带该帧的尺寸、格式和旋转角度
+     */
+    static class FrameBuffer extends YUVFrameBuffer {
+        int width;
+        int height;
+        YUVFormat format;
+        int rotate;
+        volatile boolean fresh;
+    }
 
-        private YUVFormat mYUVFormat;
+    static class MyRenderer implements Renderer {
 
-        private int mWidth;
-        private int mHeight;
+        private YUVFilter mYUVFilter;
+        private FaceOverlayFilter mFaceOverlayFilter;
+        // 人脸数据转换缓冲区，只在提交人脸的线程使用
+        private final float[] mFaceData = new float[FaceOverlayFilter.MAX_FACES * FaceOverlayFilter.FACE_STRIDE];
+        private volatile FrameLatency mPendingLatency;
+        private volatile LatencyStats mLatencyStats;
 
         // vPMatrix is an abbreviation for "Model View Projection Matrix"
         private float[] mMVPMatrix = new float[16];
 
-        // y分量数据
-        private ByteBuffer y = ByteBuffer.allocate(0);
-        // u分量数据
-        private ByteBuffer u = ByteBuffer.allocate(0);
-        // v分量数据
-        private ByteBuffer v = ByteBuffer.allocate(0);
-        // uv分量数据
-        private ByteBuffer uv = ByteBuffer.allocate(0);
+        /*
+         * 三缓冲：提交线程写mWriting，渲染线程读mDrawing，mReady在两者之间原子交换，
+         * 提交和绘制互不等待，渲染线程总是拿到最新写完的一帧
+         */
+        private FrameBuffer mWriting = new FrameBuffer();
+        private final AtomicReference<FrameBuffer> mReady = new AtomicReference<>(new FrameBuffer());
+        private FrameBuffer mDrawing = new FrameBuffer();
 
         // 标识GLSurfaceView是否准备好
-        private boolean hasVisibility = false;
-        private boolean isMirror = false;
-        private int mRotate;
-        private int mCameraId;
+        private volatile boolean hasVisibility = false;
+        private volatile int mRotate;
+        private volatile int mCameraId;
 
         public MyRenderer() {
             mYUVFilter = new YUVFilter();
+            mYUVFilter.setPixelBufferEnabled(true);
+            mFaceOverlayFilter = new FaceOverlayFilter();
         }
 
         public void setCameraId(int cameraId) {
             mCameraId = cameraId;
+            mFaceOverlayFilter.setMirror(cameraId == 1);
+        }
+
+        public void setFaces(Face[] faces, int width, int height, FrameLatency latency) {
+            int faceCount = 0;
+            if (faces != null) {
+                faceCount = Math.min(faces.length, FaceOverlayFilter.MAX_FACES);
+                for (int i = 0; i < faceCount; i++) {
+                    int offset = i * FaceOverlayFilter.FACE_STRIDE;
+                    System.arraycopy(faces[i].getRect(), 0, mFaceData, offset, 4);
+                    System.arraycopy(faces[i].getLandmark(), 0, mFaceData, offset + 4, 10);
+                }
+            }
+            mFaceOverlayFilter.setFaces(mFaceData, faceCount, width, height);
+            mPendingLatency = latency;
         }
 
         @Override
         public void onSurfaceCreated(GL10 gl, EGLConfig config) {
             mYUVFilter.surfaceCreated();
+            mFaceOverlayFilter.surfaceCreated();
         }
 
         @Override
         public void onSurfaceChanged(GL10 gl, int width, int height) {
             mYUVFilter.surfaceChanged(width, height);
+            mFaceOverlayFilter.surfaceChanged(width, height);
 
             hasVisibility = true;
         }
 
         @Override
         public void onDrawFrame(GL10 gl) {
-            synchronized (this) {
-                if (y.capacity() > 0) {
-                    y.position(0);
-                    if (mYUVFormat == YUVFormat.I420) {
-                        u.position(0);
-                        v.position(0);
-                        mYUVFilter.feedTextureWithImageData(y, u, v, mWidth, mHeight);
-                    } else {
-                        uv.position(0);
-                        mYUVFilter.feedTextureWithImageData(y, uv, mWidth, mHeight);
-                    }
-
-                    MatrixUtils.getMatrix(mMVPMatrix, MatrixUtils.TYPE_FITXY, mWidth, mHeight, mWidth, mHeight);
-                    MatrixUtils.flip(mMVPMatrix, false, true);
-                    if (mCameraId == 1) {
-                        MatrixUtils.flip(mMVPMatrix, true, false);
-                    }
-                    MatrixUtils.rotate(mMVPMatrix, mRotate);
-
-                    try {
-                        long start = System.currentTimeMillis();
-                        mYUVFilter.onDraw(mMVPMatrix, mYUVFormat);
-                        Log.i(TAG, "drawTexture " + mWidth + "x" + mHeight + " 耗时：" + (System.currentTimeMillis() - start) + "ms");
-                    } catch (Exception e) {
-                        Log.w(TAG, e.getMessage());
-                    }
+            if (mReady.get().fresh) {
+                mDrawing.fresh = false;
+                mDrawing = mReady.getAndSet(mDrawing);
+            }
+            FrameBuffer frame = mDrawing;
+            if (frame.format == null) {
+                return;
+            }
+
+            if (frame.format == YUVFormat.I420) {
+                mYUVFilter.feedTextureWithImageData(frame.getY(), frame.getU(), frame.getV(), frame.width, frame.height);
+            } else {
+                mYUVFilter.feedTextureWithImageData(frame.getY(), frame.getUV(), frame.width, frame.height);
+            }
+
+            MatrixUtils.getMatrix(mMVPMatrix, MatrixUtils.TYPE_FITXY, frame.width, frame.height, frame.width, frame.height);
+            MatrixUtils.flip(mMVPMatrix, false, true);
+            if (mCameraId == 1) {
+                MatrixUtils.flip(mMVPMatrix, true, false);
+            }
+            MatrixUtils.rotate(mMVPMatrix, frame.rotate);
+
+            boolean traced = Tracer.beginSection(Tracer.STAGE_RENDER);
+            try {
+                mYUVFilter.onDraw(mMVPMatrix, frame.format);
+                mFaceOverlayFilter.onDraw();
+            } catch (Exception e) {
+                Log.w(TAG, e.getMessage());
+            } finally {
+                Tracer.endSection(traced, Tracer.STAGE_RENDER, frame.width * frame.height);
+            }
+
+            FrameLatency latency = mPendingLatency;
+            if (latency != null) {
+                mPendingLatency = null;
+                latency.markRendered();
+                LatencyStats latencyStats = mLatencyStats;
+                if (latencyStats != null) {
+                    latencyStats.record(latency);
                 }
             }
         }
 
         /**
-         * 设置渲染的YUV数据的宽高
+         * 写入空闲缓冲区并发布为最新帧
          *
-         * @param width  宽度
-         * @param height 高度
+         * @return 是否有新帧需要绘制
          */
-        public void setYuvDataSize(int width, int height) {
-            if (width > 0 && height > 0) {
-                // 初始化容器
-                if (width != mWidth || height != mHeight) {
-                    this.mWidth = width;
-                    this.mHeight = height;
-                    int yarraySize = width * height;
-                    int uvarraySize = yarraySize / 4;
-                    synchronized (this) {
-                        y = ByteBuffer.allocate(yarraySize);
-                        u = ByteBuffer.allocate(uvarraySize);
-                        v = ByteBuffer.allocate(uvarraySize);
-                        uv = ByteBuffer.allocate(uvarraySize * 2);
-                    }
-                }
-            }
-        }
-
-        public void feedData(byte[] yuvData, int width, int height, YUVFormat yuvFormat, int rotate) {
-            setYuvDataSize(width, height);
-
-            synchronized (this) {
-                mWidth = width;
-                mHeight = height;
-                mYUVFormat = yuvFormat;
-                mRotate = rotate;
-                if (hasVisibility) {
-                    if (yuvFormat == YUVFormat.I420) {
-                        y.clear();
-                        u.clear();
-                        v.clear();
-                        y.put(yuvData, 0, width * height);
-                        u.put(yuvData, width * height, width * height / 4);
-                        v.put(yuvData, width * height * 5 / 4, width * height / 4);
-                    } else {
-                        y.clear();
-                        uv.clear();
-                        y.put(yuvData, 0, width * height);
-                        uv.put(yuvData, width * height, width * height / 2);
-                    }
-                }
+        public boolean feedData(byte[] yuvData, int width, int height, YUVFormat yuvFormat, int rotate) {
+            mRotate = rotate;
+            if (!hasVisibility) {
+                return false;
             }
+            FrameBuffer frame = mWriting;
+            frame.put(yuvData, width, height);
+            frame.width = width;
+            frame.height = height;
+            frame.format = yuvFormat;
+            frame.rotate = rotate;
+            frame.fresh = true;
+            mWriting = mReady.getAndSet(frame);
+            return true;
         }
     }
 }
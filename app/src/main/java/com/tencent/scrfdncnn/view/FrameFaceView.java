@@ -5,11 +5,14 @@ import android.content.res.Configuration;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 
+import com.android.xz.camera.FrameLatency;
+import com.android.xz.camera.LatencyStats;
+import com.android.xz.util.Tracer;
+
 import java.util.List;
 
 /**
@@ -24,7 +27,29 @@ public class FrameFaceView extends View {
 
     private Paint mPaint;
 
-    private List<float[]> mLocFaces;
+    /**
+     * 每个人脸的float数：x y w h 5个关键点xy
+     */
+    public static final int FACE_STRIDE = 14;
+
+    // 原始人脸数据和所在画面的尺寸，检测线程写入后台缓冲区，绘制时与前台交换后在主线程映射到视图坐标
+    private final Object mLock = new Object();
+    private float[] mFaces = new float[0];
+    private int mFaceCount;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private float[] mBackFaces = new float[0];
+    private int mBackFaceCount;
+    private int mBackFrameWidth;
+    private int mBackFrameHeight;
+    private boolean mBackPending;
+    // 最近一次提交的人脸数，前后都为0时不刷新
+    private int mPublishedFaceCount;
+    private float[] mFaceData = new float[0];
+
+    // 人脸框线段和关键点，视图坐标，只在主线程使用
+    private float[] mLines = new float[0];
+    private float[] mLandmarks = new float[0];
 
     private int[] mPoints;
 
@@ -46,6 +71,10 @@ public class FrameFaceView extends View {
 
     private Context mContext;
 
+    private volatile FrameLatency mPendingLatency;
+
+    private LatencyStats mLatencyStats;
+
     public FrameFaceView(Context context) {
         super(context);
         init(context);
@@ -157,50 +186,109 @@ public class FrameFaceView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        List<float[]> locFaces = mLocFaces;
-
-        if (locFaces == null)
-            return;
-        for (float[] locFace : locFaces) {
-            float right;
-            float left;
-
-            if (!isMirror) {
-                left = getX(locFace[0]);
-                right = left + (float) locFace[2] * mWidth / previewWidth;
-            } else {
-                right = getX(locFace[0]);
-                left = right - (float) locFace[2] * mWidth / previewWidth;
+        FrameLatency latency = mPendingLatency;
+        if (latency != null) {
+            mPendingLatency = null;
+            latency.markRendered();
+            if (mLatencyStats != null) {
+                mLatencyStats.record(latency);
             }
+        }
 
-            float top = getY(locFace[1]);
-            float bottom = top + (float) locFace[3] * mHeight / previewHeight;
+        synchronized (mLock) {
+            if (mBackPending) {
+                mBackPending = false;
+                float[] faces = mFaces;
+                mFaces = mBackFaces;
+                mBackFaces = faces;
+                mFaceCount = mBackFaceCount;
+                mFrameWidth = mBackFrameWidth;
+                mFrameHeight = mBackFrameHeight;
+            }
+        }
 
-            canvas.drawRect(new Rect((int) left, (int) top, (int) right, (int) bottom), mPaint);
-            Log.i(TAG, "draw... left:" + left + " right:" + right + " top:" + top + "bottom:" + bottom);
+        // 所有人脸框和关键点各一次批量绘制
+        boolean traced = Tracer.beginSection(Tracer.STAGE_OVERLAY);
+        int frameWidth = mFrameWidth > 0 ? mFrameWidth : previewWidth;
+        int frameHeight = mFrameHeight > 0 ? mFrameHeight : previewHeight;
+        int lineCount = buildLines(frameWidth, frameHeight);
+        int landmarkCount = buildLandmarks(frameWidth, frameHeight);
+        if (lineCount > 0) {
+            canvas.drawLines(mLines, 0, lineCount, mPaint);
+        }
+        if (landmarkCount > 0) {
+            canvas.drawPoints(mLandmarks, 0, landmarkCount, mPaint);
         }
+        Tracer.endSection(traced, Tracer.STAGE_OVERLAY, mFaceCount);
 
         int[] points = mPoints;
         if (points != null) {
             for (int i = 0; i < points.length / 2; i++) {
                 float x, y;
-                x = getX(points[i * 2]);
-                y = getY(points[i * 2 + 1]);
+                x = getX(points[i * 2], previewWidth);
+                y = getY(points[i * 2 + 1], previewHeight);
 
                 canvas.drawPoint(x, y, mPaint);
             }
         }
     }
 
-    private float getY(float y) {
-        return y * mHeight / previewHeight;
+    /**
+     * 人脸框映射到视图坐标，每个人脸4条线段
+     *
+     * @return 写入mLines的float数
+     */
+    private int buildLines(int frameWidth, int frameHeight) {
+        if (mLines.length < mFaceCount * 16) {
+            mLines = new float[mFaceCount * 16];
+        }
+        int line = 0;
+        for (int i = 0; i < mFaceCount; i++) {
+            int offset = i * FACE_STRIDE;
+            float left = getX(mFaces[offset], frameWidth);
+            float right = getX(mFaces[offset] + mFaces[offset + 2], frameWidth);
+            float top = getY(mFaces[offset + 1], frameHeight);
+            float bottom = getY(mFaces[offset + 1] + mFaces[offset + 3], frameHeight);
+            line = putLine(line, left, top, right, top);
+            line = putLine(line, right, top, right, bottom);
+            line = putLine(line, right, bottom, left, bottom);
+            line = putLine(line, left, bottom, left, top);
+        }
+        return line;
     }
 
-    private float getX(float x) {
+    /**
+     * 关键点映射到视图坐标，关键点全为0的人脸跳过
+     *
+     * @return 写入mLandmarks的float数
+     */
+    private int buildLandmarks(int frameWidth, int frameHeight) {
+        if (mLandmarks.length < mFaceCount * 10) {
+            mLandmarks = new float[mFaceCount * 10];
+        }
+        int landmark = 0;
+        for (int i = 0; i < mFaceCount; i++) {
+            int offset = i * FACE_STRIDE;
+            if (!hasLandmarks(mFaces, offset)) {
+                continue;
+            }
+            for (int j = 0; j < 5; j++) {
+                mLandmarks[landmark++] = getX(mFaces[offset + 4 + j * 2], frameWidth);
+                mLandmarks[landmark++] = getY(mFaces[offset + 5 + j * 2], frameHeight);
+            }
+        }
+        return landmark;
+    }
+
+    private float getY(float y, int frameHeight) {
+        return y * mHeight / frameHeight;
+    }
+
+    private float getX(float x, int frameWidth) {
         if (!isMirror) {
-            return x * mWidth / previewWidth;
+            return x * mWidth / frameWidth;
         } else {
-            return mWidth - x * mWidth / previewWidth;
+            return mWidth - x * mWidth / frameWidth;
         }
     }
 
@@ -209,7 +297,105 @@ public class FrameFaceView extends View {
     }
 
     public void setLocFaces(List<float[]> locFaces) {
-        mLocFaces = locFaces;
-        postInvalidate();
+        setLocFaces(locFaces, null);
+    }
+
+    /**
+     * 设置人脸框，绘制时记录该帧的显示时间
+     *
+     * @param locFaces
+     * @param latency
+     */
+    public void setLocFaces(List<float[]> locFaces, FrameLatency latency) {
+        int faceCount = locFaces == null ? 0 : locFaces.size();
+        if (mFaceData.length < faceCount * FACE_STRIDE) {
+            mFaceData = new float[faceCount * FACE_STRIDE];
+        }
+        for (int i = 0; i < faceCount; i++) {
+            int offset = i * FACE_STRIDE;
+            System.arraycopy(locFaces.get(i), 0, mFaceData, offset, 4);
+            for (int j = 4; j < FACE_STRIDE; j++) {
+                mFaceData[offset + j] = 0;
+            }
+        }
+        setFaces(mFaceData, faceCount, latency);
+    }
+
+    /**
+     * 设置人脸框和关键点，坐标按{@link #setpreviewSize}设置的画面尺寸映射
+     *
+     * @see #setFaces(float[], int, int, int, FrameLatency)
+     */
+    public void setFaces(float[] faces, int faceCount, FrameLatency latency) {
+        setFaces(faces, faceCount, 0, 0, latency);
+    }
+
+    /**
+     * 设置人脸框和关键点，可在任意线程调用，数据会被拷贝
+     * <p>
+     * 这里只保存原始数据和画面尺寸，映射到视图坐标在主线程绘制时进行，不读取主线程更新的视图尺寸。
+     * 结果前后都为空时不刷新
+     *
+     * @param faces       人脸数据，每个人脸{@link #FACE_STRIDE}个float，关键点全为0时不绘制关键点
+     * @param faceCount   人脸数
+     * @param frameWidth  人脸坐标所在画面的宽，不大于0时使用{@link #setpreviewSize}设置的尺寸
+     * @param frameHeight 人脸坐标所在画面的高
+     * @param latency     该帧的延迟数据，可为null
+     */
+    public void setFaces(float[] faces, int faceCount, int frameWidth, int frameHeight, FrameLatency latency) {
+        boolean invalidate;
+        synchronized (mLock) {
+            if (mBackFaces.length < faceCount * FACE_STRIDE) {
+                mBackFaces = new float[faceCount * FACE_STRIDE];
+            }
+            System.arraycopy(faces, 0, mBackFaces, 0, faceCount * FACE_STRIDE);
+            mBackFaceCount = faceCount;
+            mBackFrameWidth = frameWidth;
+            mBackFrameHeight = frameHeight;
+            mBackPending = true;
+
+            invalidate = faceCount > 0 || mPublishedFaceCount > 0;
+            mPublishedFaceCount = faceCount;
+            if (invalidate) {
+                mPendingLatency = latency;
+            }
+        }
+        if (invalidate) {
+            // 硬件加速下局部刷新区域不生效，整个视图重绘
+            postInvalidate();
+        }
+        if (!invalidate && latency != null) {
+            // 前后都没有人脸，画面无需更新
+            latency.markRendered();
+            if (mLatencyStats != null) {
+                mLatencyStats.record(latency);
+            }
+        }
+    }
+
+    private int putLine(int index, float x0, float y0, float x1, float y1) {
+        mLines[index++] = x0;
+        mLines[index++] = y0;
+        mLines[index++] = x1;
+        mLines[index++] = y1;
+        return index;
+    }
+
+    private static boolean hasLandmarks(float[] faces, int offset) {
+        for (int i = 4; i < FACE_STRIDE; i++) {
+            if (faces[offset + i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 设置延迟统计，绘制人脸框时记录
+     *
+     * @param latencyStats
+     */
+    public void setLatencyStats(LatencyStats latencyStats) {
+        mLatencyStats = latencyStats;
     }
 }
@@ -0,0 +1,345 @@
+// host benchmarks of the detector and the frame preprocessing
+//
+// all inputs are generated from fixed seeds so runs on different machines see the same data
+// models are read from SCRFD_MODEL_DIR or the app assets, model types without files are skipped
+// SCRFD_NUM_THREADS pins the detector threads, by default load() uses all big cores
+//
+//   ./scrfd_benchmark --benchmark_out=scrfd_benchmark.json --benchmark_out_format=json
+
+#include <benchmark/benchmark.h>
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <string>
+#include <vector>
+
+#include <opencv2/core/core.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+
+#include "mat.h"
+
+#include "preprocess.h"
+#include "scrfd.h"
+
+#ifndef SCRFD_DEFAULT_MODEL_DIR
+#define SCRFD_DEFAULT_MODEL_DIR "."
+#endif
+
+static const char* g_model_types[] =
+{
+    "500m",
+    "500m_kps",
+    "1g",
+    "2.5g",
+    "2.5g_kps",
+    "10g",
+    "10g_kps",
+    "34g"
+};
+
+static const int g_model_type_count = sizeof(g_model_types) / sizeof(g_model_types[0]);
+
+static const uint64_t g_seed = 20240918;
+
+// 0 keeps the thread count chosen by SCRFD::load
+static int g_num_threads = 0;
+
+// smooth random picture, blurred so the network sees gradients rather than white noise
+static cv::Mat make_rgb_image(int width, int height)
+{
+    cv::Mat rgb(height, width, CV_8UC3);
+    cv::RNG rng(g_seed);
+    rng.fill(rgb, cv::RNG::UNIFORM, 0, 256);
+    cv::blur(rgb, rgb, cv::Size(15, 15));
+    return rgb;
+}
+
+// packed nv21 frame of width * height * 3 / 2 bytes
+static std::vector<unsigned char> make_nv21_frame(int width, int height)
+{
+    std::vector<unsigned char> nv21(width * height * 3 / 2);
+    cv::Mat plane(1, (int)nv21.size(), CV_8UC1, nv21.data());
+    cv::RNG rng(g_seed);
+    rng.fill(plane, cv::RNG::UNIFORM, 0, 256);
+    return nv21;
+}
+
+static bool model_exists(const char* modeltype)
+{
+    char parampath[256];
+    sprintf(parampath, "scrfd_%s-opt2.param", modeltype);
+    FILE* fp = fopen(parampath, "rb");
+    if (!fp)
+        return false;
+    fclose(fp);
+    return true;
+}
+
+// args: image width, image height, target size
+static void BM_detect(benchmark::State& state, const char* modeltype)
+{
+    const int width = state.range(0);
+    const int height = state.range(1);
+
+    SCRFD scrfd;
+    if (scrfd.load(modeltype) != 0)
+    {
+        state.SkipWithError("load model failed");
+        return;
+    }
+    scrfd.set_target_size(state.range(2));
+    if (g_num_threads > 0)
+        scrfd.set_num_threads(g_num_threads);
+
+    cv::Mat rgb = make_rgb_image(width, height);
+    std::vector<FaceObject> faceobjects;
+
+    // the first run allocates the blob pools
+    scrfd.detect(rgb, faceobjects);
+
+    for (auto _ : state)
+    {
+        scrfd.detect(rgb, faceobjects);
+        benchmark::DoNotOptimize(faceobjects.data());
+    }
+
+    state.counters["faces"] = faceobjects.size();
+    state.SetItemsProcessed(state.iterations());
+}
+
+// args: width, height, kanna rotate type
+static void BM_kanna_rotate_yuv420sp(benchmark::State& state)
+{
+    const int width = state.range(0);
+    const int height = state.range(1);
+    const int type = state.range(2);
+    const int dstw = type >= 5 ? height : width;
+    const int dsth = type >= 5 ? width : height;
+
+    std::vector<unsigned char> nv21 = make_nv21_frame(width, height);
+    std::vector<unsigned char> rotated(nv21.size());
+
+    for (auto _ : state)
+    {
+        ncnn::kanna_rotate_yuv420sp(nv21.data(), width, height, rotated.data(), dstw, dsth, type);
+        benchmark::ClobberMemory();
+    }
+
+    state.SetBytesProcessed(state.iterations() * (int64_t)nv21.size());
+}
+
+// args: width, height
+static void BM_yuv420sp2rgb(benchmark::State& state)
+{
+    const int width = state.range(0);
+    const int height = state.range(1);
+
+    std::vector<unsigned char> nv21 = make_nv21_frame(width, height);
+    std::vector<unsigned char> rgb(width * height * 3);
+
+    for (auto _ : state)
+    {
+        ncnn::yuv420sp2rgb(nv21.data(), width, height, rgb.data());
+        benchmark::ClobberMemory();
+    }
+
+    state.SetBytesProcessed(state.iterations() * (int64_t)nv21.size());
+}
+
+// the path the camera callbacks take, args: width, height, kanna rotate type
+static void BM_yuv_semiplanar_croprotate_to_rgb(benchmark::State& state)
+{
+    const int width = state.range(0);
+    const int height = state.range(1);
+    const int type = state.range(2);
+
+    std::vector<unsigned char> nv21 = make_nv21_frame(width, height);
+    YuvSemiPlanar yuv = yuv_semiplanar_from_nv21(nv21.data(), width, height);
+    cv::Mat scratch;
+    cv::Mat rgb;
+
+    for (auto _ : state)
+    {
+        yuv_semiplanar_croprotate_to_rgb(yuv, 0, 0, width, height, type, scratch, rgb);
+        benchmark::ClobberMemory();
+    }
+
+    state.SetBytesProcessed(state.iterations() * (int64_t)nv21.size());
+}
+
+// head outputs of one stride for a 640x640 input, about 2% of the anchors pass the threshold
+// args: feat stride, has kps
+static void BM_generate_proposals(benchmark::State& state)
+{
+    const int feat_stride = state.range(0);
+    const bool has_kps = state.range(1) != 0;
+    const int w = 640 / feat_stride;
+    const int h = 640 / feat_stride;
+    const int num_anchors = 2;
+    const float prob_threshold = 0.5f;
+
+    ncnn::Mat ratios(1);
+    ratios[0] = 1.f;
+    ncnn::Mat scales(2);
+    scales[0] = 1.f;
+    scales[1] = 2.f;
+    // same anchor settings as SCRFD::detect
+    const int base_size = feat_stride == 8 ? 16 : feat_stride == 16 ? 64 : 256;
+    ncnn::Mat anchors = generate_anchors(base_size, ratios, scales);
+
+    ncnn::Mat score_blob(w, h, num_anchors);
+    ncnn::Mat bbox_blob(w, h, num_anchors * 4);
+    ncnn::Mat kps_blob;
+    if (has_kps)
+        kps_blob.create(w, h, num_anchors * 10);
+
+    cv::RNG rng(g_seed);
+    for (int q = 0; q < score_blob.c; q++)
+    {
+        float* ptr = score_blob.channel(q);
+        for (int i = 0; i < w * h; i++)
+        {
+            ptr[i] = rng.uniform(0.f, 1.f) < 0.02f ? rng.uniform(prob_threshold, 1.f) : rng.uniform(0.f, prob_threshold);
+        }
+    }
+    for (int q = 0; q < bbox_blob.c; q++)
+    {
+        float* ptr = bbox_blob.channel(q);
+        for (int i = 0; i < w * h; i++)
+        {
+            ptr[i] = rng.uniform(0.5f, 4.f);
+        }
+    }
+    for (int q = 0; q < kps_blob.c; q++)
+    {
+        float* ptr = kps_blob.channel(q);
+        for (int i = 0; i < w * h; i++)
+        {
+            ptr[i] = rng.uniform(-2.f, 2.f);
+        }
+    }
+
+    std::vector<FaceObject> faceobjects;
+    for (auto _ : state)
+    {
+        faceobjects.clear();
+        generate_proposals(anchors, feat_stride, score_blob, bbox_blob, kps_blob, prob_threshold, faceobjects);
+        benchmark::DoNotOptimize(faceobjects.data());
+    }
+
+    state.counters["proposals"] = faceobjects.size();
+    state.SetItemsProcessed(state.iterations() * (int64_t)w * h * num_anchors);
+}
+
+// proposals jittered around 32 faces like the overlapping anchors of a real frame, sorted beforehand
+// args: proposal count
+static void BM_nms_sorted_bboxes(benchmark::State& state)
+{
+    const int count = state.range(0);
+    const int face_count = 32;
+
+    cv::RNG rng(g_seed);
+    std::vector<cv::Rect_<float> > faces(face_count);
+    for (int i = 0; i < face_count; i++)
+    {
+        float size = rng.uniform(24.f, 200.f);
+        faces[i] = cv::Rect_<float>(rng.uniform(0.f, 640.f - size), rng.uniform(0.f, 640.f - size), size, size);
+    }
+
+    std::vector<FaceObject> faceproposals(count);
+    for (int i = 0; i < count; i++)
+    {
+        const cv::Rect_<float>& face = faces[i % face_count];
+        float jitter = face.width * 0.1f;
+        FaceObject& obj = faceproposals[i];
+        obj.rect.x = face.x + rng.uniform(-jitter, jitter);
+        obj.rect.y = face.y + rng.uniform(-jitter, jitter);
+        obj.rect.width = face.width + rng.uniform(-jitter, jitter);
+        obj.rect.height = face.height + rng.uniform(-jitter, jitter);
+        obj.prob = rng.uniform(0.5f, 1.f);
+    }
+    qsort_descent_inplace(faceproposals);
+
+    std::vector<int> picked;
+    for (auto _ : state)
+    {
+        picked.clear();
+        nms_sorted_bboxes(faceproposals, picked, 0.45f);
+        benchmark::DoNotOptimize(picked.data());
+    }
+
+    state.counters["picked"] = picked.size();
+    state.SetItemsProcessed(state.iterations() * count);
+}
+
+// camera frame sizes, landscape as delivered by the sensor
+static void frame_sizes(benchmark::internal::Benchmark* b)
+{
+    b->Args({640, 480});
+    b->Args({1280, 720});
+    b->Args({1920, 1080});
+}
+
+// frame sizes with upright, 90 degree and mirrored 270 degree rotation, the types the app uses most
+static void rotated_frame_sizes(benchmark::internal::Benchmark* b)
+{
+    const int types[] = {1, 6, 7};
+    for (int type : types)
+    {
+        b->Args({640, 480, type});
+        b->Args({1280, 720, type});
+        b->Args({1920, 1080, type});
+    }
+}
+
+BENCHMARK(BM_kanna_rotate_yuv420sp)->Apply(rotated_frame_sizes);
+BENCHMARK(BM_yuv420sp2rgb)->Apply(frame_sizes);
+BENCHMARK(BM_yuv_semiplanar_croprotate_to_rgb)->Apply(rotated_frame_sizes);
+BENCHMARK(BM_generate_proposals)->ArgsProduct({{8, 16, 32}, {0, 1}});
+BENCHMARK(BM_nms_sorted_bboxes)->Arg(256)->Arg(1024)->Arg(4096);
+
+int main(int argc, char** argv)
+{
+    const char* model_dir = getenv("SCRFD_MODEL_DIR");
+    if (!model_dir)
+        model_dir = SCRFD_DEFAULT_MODEL_DIR;
+
+    // SCRFD::load opens the model files relative to the working directory
+    if (chdir(model_dir) != 0)
+    {
+        fprintf(stderr, "cannot enter model dir %s, detect benchmarks are skipped\n", model_dir);
+    }
+    else
+    {
+        for (int i = 0; i < g_model_type_count; i++)
+        {
+            const char* modeltype = g_model_types[i];
+            if (!model_exists(modeltype))
+                continue;
+
+            std::string name = std::string("BM_detect/") + modeltype;
+            benchmark::RegisterBenchmark(name.c_str(), BM_detect, modeltype)
+                ->Args({640, 480, 320})
+                ->Args({640, 480, 640})
+                ->Args({1280, 720, 320})
+                ->Args({1280, 720, 640})
+                ->ArgNames({"w", "h", "target"})
+                ->Unit(benchmark::kMillisecond)
+                ->UseRealTime();
+        }
+    }
+
+    const char* num_threads = getenv("SCRFD_NUM_THREADS");
+    if (num_threads)
+        g_num_threads = atoi(num_threads);
+
+    benchmark::Initialize(&argc, argv);
+    if (benchmark::ReportUnrecognizedArguments(argc, argv))
+        return 1;
+    benchmark::RunSpecifiedBenchmarks();
+    benchmark::Shutdown();
+    return 0;
+}
@@ -16,6 +16,7 @@
 
 #include <string>
 
+#include <android/hardware_buffer.h>
 #include <android/log.h>
 
 #include <opencv2/core/core.hpp>
@@ -32,6 +33,37 @@ static void onError(void* context, ACameraDevice* device, int error)
     __android_log_print(ANDROID_LOG_WARN, "NdkCamera", "onError %p %d", device, error);
 }
 
+// lock the frame's hardware buffer once and hand the planes over without copying
+static bool on_image_hardware_buffer(NdkCamera* camera, AImage* image, int width, int height)
+{
+    if (__builtin_available(android 29, *))
+    {
+        AHardwareBuffer* hardware_buffer = 0;
+        if (AImage_getHardwareBuffer(image, &hardware_buffer) != AMEDIA_OK || !hardware_buffer)
+            return false;
+
+        AHardwareBuffer_Planes planes;
+        if (AHardwareBuffer_lockPlanes(hardware_buffer, AHARDWAREBUFFER_USAGE_CPU_READ_OFTEN, -1, NULL, &planes) != 0)
+            return false;
+
+        YuvSemiPlanar yuv;
+        bool semiplanar = planes.planeCount == 3 && yuv_semiplanar_from_planes(
+                (const unsigned char*)planes.planes[0].data, planes.planes[0].pixelStride, planes.planes[0].rowStride,
+                (const unsigned char*)planes.planes[1].data, planes.planes[1].pixelStride, planes.planes[1].rowStride,
+                (const unsigned char*)planes.planes[2].data, planes.planes[2].pixelStride, planes.planes[2].rowStride,
+                yuv);
+        if (semiplanar)
+        {
+            camera->on_image(yuv, width, height);
+        }
+
+        AHardwareBuffer_unlock(hardware_buffer, NULL);
+        return semiplanar;
+    }
+
+    return false;
+}
+
 static void onImageAvailable(void* context, AImageReader* reader)
 {
 //     __android_log_print(ANDROID_LOG_WARN, "NdkCamera", "onImageAvailable %p", reader);
@@ -55,6 +87,12 @@ static void onImageAvailable(void* context, AImageReader* reader)
     AImage_getWidth(image, &width);
     AImage_getHeight(image, &height);
 
+    if (on_image_hardware_buffer((NdkCamera*)context, image, width, height))
+    {
+        AImage_delete(image);
+        return;
+    }
+
     int32_t y_pixelStride = 0;
     int32_t u_pixelStride = 0;
     int32_t v_pixelStride = 0;
@@ -79,49 +117,21 @@ static void onImageAvailable(void* context, AImageReader* reader)
     AImage_getPlaneData(image, 1, &u_data, &u_len);
     AImage_getPlaneData(image, 2, &v_data, &v_len);
 
-    if (u_data == v_data + 1 && v_data == y_data + width * height && y_pixelStride == 1 && u_pixelStride == 2 && v_pixelStride == 2 && y_rowStride == width && u_rowStride == width && v_rowStride == width)
+    YuvSemiPlanar yuv;
+    if (yuv_semiplanar_from_planes(y_data, y_pixelStride, y_rowStride, u_data, u_pixelStride, u_rowStride, v_data, v_pixelStride, v_rowStride, yuv))
     {
-        // already nv21  :)
-        ((NdkCamera*)context)->on_image((unsigned char*)y_data, (int)width, (int)height);
+        // semi-planar nv21 or nv12, read the planes in place  :)
+        ((NdkCamera*)context)->on_image(yuv, (int)width, (int)height);
     }
     else
     {
-        // construct nv21
-        unsigned char* nv21 = new unsigned char[width * height + width * height / 2];
-        {
-            // Y
-            unsigned char* yptr = nv21;
-            for (int y=0; y<height; y++)
-            {
-                const unsigned char* y_data_ptr = y_data + y_rowStride * y;
-                for (int x=0; x<width; x++)
-                {
-                    yptr[0] = y_data_ptr[0];
-                    yptr++;
-                    y_data_ptr += y_pixelStride;
-                }
-            }
-
-            // UV
-            unsigned char* uvptr = nv21 + width * height;
-            for (int y=0; y<height/2; y++)
-            {
-                const unsigned char* v_data_ptr = v_data + v_rowStride * y;
-                const unsigned char* u_data_ptr = u_data + u_rowStride * y;
-                for (int x=0; x<width/2; x++)
-                {
-                    uvptr[0] = v_data_ptr[0];
-                    uvptr[1] = u_data_ptr[0];
-                    uvptr += 2;
-                    v_data_ptr += v_pixelStride;
-                    u_data_ptr += u_pixelStride;
-                }
-            }
-        }
+        // construct nv21 into the camera's reused buffer
+        NdkCamera* camera = (NdkCamera*)context;
+        unsigned char* nv21 = camera->nv21_buffer(width, height);
 
-        ((NdkCamera*)context)->on_image((unsigned char*)nv21, (int)width, (int)height);
+        yuv420_planes_to_nv21(y_data, y_pixelStride, y_rowStride, u_data, u_pixelStride, u_rowStride, v_data, v_pixelStride, v_rowStride, width, height, nv21);
 
-        delete[] nv21;
+        camera->on_image(nv21, (int)width, (int)height);
     }
 
     AImage_delete(image);
@@ -180,7 +190,15 @@ NdkCamera::NdkCamera()
 
     // setup imagereader and its surface
     {
-        AImageReader_new(640, 480, AIMAGE_FORMAT_YUV_420_888, /*maxImages*/2, &image_reader);
+        if (__builtin_available(android 26, *))
+        {
+            // cpu readable hardware buffers for zero copy ingestion
+            AImageReader_newWithUsage(640, 480, AIMAGE_FORMAT_YUV_420_888, AHARDWAREBUFFER_USAGE_CPU_READ_OFTEN, /*maxImages*/2, &image_reader);
+        }
+        else
+        {
+            AImageReader_new(640, 480, AIMAGE_FORMAT_YUV_420_888, /*maxImages*/2, &image_reader);
+        }
 
         AImageReader_ImageListener listener;
         listener.context = this;
@@ -372,49 +390,48 @@ void NdkCamera::close()
     }
 }
 
+unsigned char* NdkCamera::nv21_buffer(int width, int height)
+{
+    size_t size = (size_t)width * height + width * height / 2;
+    if (nv21_pool.size() != size)
+        nv21_pool.resize(size);
+
+    return nv21_pool.data();
+}
+
 void NdkCamera::on_image(const cv::Mat& rgb) const
 {
 }
 
 void NdkCamera::on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const
 {
-    // rotate nv21
-    int w = 0;
-    int h = 0;
+    on_image(yuv_semiplanar_from_nv21(nv21, nv21_width, nv21_height), nv21_width, nv21_height);
+}
+
+void NdkCamera::on_image(const YuvSemiPlanar& yuv, int nv21_width, int nv21_height) const
+{
+    // rotate type
     int rotate_type = 0;
     {
         if (camera_orientation == 0)
         {
-            w = nv21_width;
-            h = nv21_height;
             rotate_type = camera_facing == 0 ? 2 : 1;
         }
         if (camera_orientation == 90)
         {
-            w = nv21_height;
-            h = nv21_width;
             rotate_type = camera_facing == 0 ? 5 : 6;
         }
         if (camera_orientation == 180)
         {
-            w = nv21_width;
-            h = nv21_height;
             rotate_type = camera_facing == 0 ? 4 : 3;
         }
         if (camera_orientation == 270)
         {
-            w = nv21_height;
-            h = nv21_width;
             rotate_type = camera_facing == 0 ? 7 : 8;
         }
     }
 
-    cv::Mat nv21_rotated(h + h / 2, w, CV_8UC1);
-    ncnn::kanna_rotate_yuv420sp(nv21, nv21_width, nv21_height, nv21_rotated.data, w, h, rotate_type);
-
-    // nv21_rotated to rgb
-    cv::Mat rgb(h, w, CV_8UC3);
-    ncnn::yuv420sp2rgb(nv21_rotated.data, w, h, rgb.data);
+    yuv_semiplanar_croprotate_to_rgb(yuv, 0, 0, nv21_width, nv21_height, rotate_type, yuv_rotated, rgb);
 
     on_image(rgb);
 }
@@ -427,6 +444,8 @@ NdkCameraWindow::NdkCameraWindow() : NdkCamera()
     sensor_event_queue = 0;
     accelerometer_sensor = 0;
     win = 0;
+    buffers_transform = -1;
+    buffers_transform_set = false;
 
     accelerometer_orientation = 0;
 
@@ -465,13 +484,21 @@ void NdkCameraWindow::set_window(ANativeWindow* _win)
 
     win = _win;
     ANativeWindow_acquire(win);
+
+    // a new window starts with the identity transform
+    buffers_transform = -1;
+    buffers_transform_set = false;
+}
+
+void NdkCameraWindow::on_image_detect(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const
+{
 }
 
-void NdkCameraWindow::on_image_render(cv::Mat& rgb) const
+void NdkCameraWindow::on_image_render(cv::Mat& rgbx) const
 {
 }
 
-void NdkCameraWindow::on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const
+void NdkCameraWindow::on_image(const YuvSemiPlanar& yuv, int nv21_width, int nv21_height) const
 {
     // resolve orientation from camera_orientation and accelerometer_sensor
     {
@@ -703,68 +730,65 @@ void NdkCameraWindow::on_image(const unsigned char* nv21, int nv21_width, int nv
         }
     }
 
-    // crop and rotate nv21
-    cv::Mat nv21_croprotated(roi_h + roi_h / 2, roi_w, CV_8UC1);
+    // let the compositor rotate the buffer to the window orientation when it can
+    bool window_transform = false;
+    if (__builtin_available(android 26, *))
     {
-        const unsigned char* srcY = nv21 + nv21_roi_y * nv21_width + nv21_roi_x;
-        unsigned char* dstY = nv21_croprotated.data;
-        ncnn::kanna_rotate_c1(srcY, nv21_roi_w, nv21_roi_h, nv21_width, dstY, roi_w, roi_h, roi_w, rotate_type);
-
-        const unsigned char* srcUV = nv21 + nv21_width * nv21_height + nv21_roi_y * nv21_width / 2 + nv21_roi_x;
-        unsigned char* dstUV = nv21_croprotated.data + roi_w * roi_h;
-        ncnn::kanna_rotate_c2(srcUV, nv21_roi_w / 2, nv21_roi_h / 2, nv21_width, dstUV, roi_w / 2, roi_h / 2, roi_w, rotate_type);
+        int32_t transform = ANATIVEWINDOW_TRANSFORM_IDENTITY;
+        if (render_rotate_type == 3)
+            transform = ANATIVEWINDOW_TRANSFORM_ROTATE_180;
+        if (render_rotate_type == 6)
+            transform = ANATIVEWINDOW_TRANSFORM_ROTATE_90;
+        if (render_rotate_type == 8)
+            transform = ANATIVEWINDOW_TRANSFORM_ROTATE_270;
+
+        // the transform stays on the window, set it again only when the device orientation changes
+        if (transform != buffers_transform)
+        {
+            buffers_transform_set = ANativeWindow_setBuffersTransform(win, transform) == 0;
+            buffers_transform = transform;
+        }
+        window_transform = buffers_transform_set;
     }
 
-    // nv21_croprotated to rgb
-    cv::Mat rgb(roi_h, roi_w, CV_8UC3);
-    ncnn::yuv420sp2rgb(nv21_croprotated.data, roi_w, roi_h, rgb.data);
+    on_image_detect(yuv, nv21_roi_x, nv21_roi_y, nv21_roi_w, nv21_roi_h, rotate_type);
 
-    on_image_render(rgb);
+    if (window_transform)
+    {
+        // crop, rotate and convert straight into the window buffer, the overlay is drawn in place
+        ANativeWindow_setBuffersGeometry(win, roi_w, roi_h, AHARDWAREBUFFER_FORMAT_R8G8B8X8_UNORM);
+
+        ANativeWindow_Buffer buf;
+        if (ANativeWindow_lock(win, &buf, NULL) != 0)
+            return;
 
-    // rotate to native window orientation
-    cv::Mat rgb_render(render_h, render_w, CV_8UC3);
-    ncnn::kanna_rotate_c3(rgb.data, roi_w, roi_h, rgb_render.data, render_w, render_h, render_rotate_type);
+        if (buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM || buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8X8_UNORM)
+        {
+            cv::Mat rgbx(roi_h, roi_w, CV_8UC4, buf.bits, buf.stride * 4);
+            yuv_semiplanar_croprotate_to_rgbx(yuv, nv21_roi_x, nv21_roi_y, nv21_roi_w, nv21_roi_h, rotate_type, yuv_rotated, rgbx.data, (int)rgbx.step);
 
-    ANativeWindow_setBuffersGeometry(win, render_w, render_h, AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM);
+            on_image_render(rgbx);
+        }
+
+        ANativeWindow_unlockAndPost(win);
+        return;
+    }
+
+    // crop, rotate and convert to rgbx once, then rotate to native window orientation while writing the window buffer
+    rgbx_render.create(roi_h, roi_w, CV_8UC4);
+    yuv_semiplanar_croprotate_to_rgbx(yuv, nv21_roi_x, nv21_roi_y, nv21_roi_w, nv21_roi_h, rotate_type, yuv_rotated, rgbx_render.data, (int)rgbx_render.step);
+
+    on_image_render(rgbx_render);
+
+    ANativeWindow_setBuffersGeometry(win, render_w, render_h, AHARDWAREBUFFER_FORMAT_R8G8B8X8_UNORM);
 
     ANativeWindow_Buffer buf;
-    ANativeWindow_lock(win, &buf, NULL);
+    if (ANativeWindow_lock(win, &buf, NULL) != 0)
+        return;
 
-    // scale to target size
     if (buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM || buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8X8_UNORM)
     {
-        for (int y = 0; y < render_h; y++)
-        {
-            const unsigned char* ptr = rgb_render.ptr<const unsigned char>(y);
-            unsigned char* outptr = (unsigned char*)buf.bits + buf.stride * 4 * y;
-
-            int x = 0;
-#if __ARM_NEON
-            for (; x + 7 < render_w; x += 8)
-            {
-                uint8x8x3_t _rgb = vld3_u8(ptr);
-                uint8x8x4_t _rgba;
-                _rgba.val[0] = _rgb.val[0];
-                _rgba.val[1] = _rgb.val[1];
-                _rgba.val[2] = _rgb.val[2];
-                _rgba.val[3] = vdup_n_u8(255);
-                vst4_u8(outptr, _rgba);
-
-                ptr += 24;
-                outptr += 32;
-            }
-#endif // __ARM_NEON
-            for (; x < render_w; x++)
-            {
-                outptr[0] = ptr[0];
-                outptr[1] = ptr[1];
-                outptr[2] = ptr[2];
-                outptr[3] = 255;
-
-                ptr += 3;
-                outptr += 4;
-            }
-        }
+        ncnn::kanna_rotate_c4(rgbx_render.data, roi_w, roi_h, (int)rgbx_render.step, (unsigned char*)buf.bits, render_w, render_h, buf.stride * 4, render_rotate_type);
     }
 
     ANativeWindow_unlockAndPost(win);
@@ -23,8 +23,12 @@
 #include <camera/NdkCameraMetadata.h>
 #include <media/NdkImageReader.h>
 
+#include <vector>
+
 #include <opencv2/core/core.hpp>
 
+#include "preprocess.h"
+
 class NdkCamera
 {
 public:
@@ -39,10 +43,22 @@ public:
 
     virtual void on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const;
 
+    // frame planes straight from the image or its hardware buffer, valid only during the call
+    virtual void on_image(const YuvSemiPlanar& yuv, int width, int height) const;
+
+    // packed nv21 buffer for planar frames, reused until the frame size changes
+    // only used from the image reader callback
+    unsigned char* nv21_buffer(int width, int height);
+
 public:
     int camera_facing;
     int camera_orientation;
 
+protected:
+    // reused conversion buffers
+    mutable cv::Mat yuv_rotated;
+    mutable cv::Mat rgb;
+
 private:
     ACameraManager* camera_manager;
     ACameraDevice* camera_device;
@@ -53,6 +69,8 @@ private:
     ACaptureSessionOutputContainer* capture_session_output_container;
     ACaptureSessionOutput* capture_session_output;
     ACameraCaptureSession* capture_session;
+
+    std::vector<unsigned char> nv21_pool;
 };
 
 class NdkCameraWindow : public NdkCamera
@@ -63,18 +81,31 @@ public:
 
     void set_window(ANativeWindow* win);
 
-    virtual void on_image_render(cv::Mat& rgb) const;
+    // source planes with the crop and rotate_type of the rendered frame, called before on_image_render
+    // convert the detector input here instead of reading back the window buffer
+    virtual void on_image_detect(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const;
 
-    virtual void on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const;
+    // rgbx frame cropped to the window aspect, draw the overlay in place before it is shown
+    virtual void on_image_render(cv::Mat& rgbx) const;
+
+    virtual void on_image(const YuvSemiPlanar& yuv, int width, int height) const;
 
 public:
     mutable int accelerometer_orientation;
 
+protected:
+    // rgbx frame in roi orientation, only used when the window cannot rotate buffers itself
+    mutable cv::Mat rgbx_render;
+
 private:
     ASensorManager* sensor_manager;
     mutable ASensorEventQueue* sensor_event_queue;
     const ASensor* accelerometer_sensor;
     ANativeWindow* win;
+
+    // last transform set on the window, -1 before the first frame
+    mutable int32_t buffers_transform;
+    mutable bool buffers_transform_set;
 };
 
 #endif // NDKCAMERA_H
@@ -0,0 +1,340 @@
+#include "preprocess.h"
+
+#include <algorithm>
+#include <string.h>
+
+#if __ARM_NEON
+#include <arm_neon.h>
+#endif // __ARM_NEON
+
+#include "mat.h"
+
+bool yuv_semiplanar_from_planes(const unsigned char* y, int y_pixel_stride, int y_row_stride,
+                                const unsigned char* u, int u_pixel_stride, int u_row_stride,
+                                const unsigned char* v, int v_pixel_stride, int v_row_stride,
+                                YuvSemiPlanar& yuv)
+{
+    if (y_pixel_stride != 1 || u_pixel_stride != 2 || v_pixel_stride != 2 || u_row_stride != v_row_stride)
+        return false;
+
+    if (u == v + 1)
+    {
+        yuv.uv = v;
+        yuv.nv12 = false;
+    }
+    else if (v == u + 1)
+    {
+        yuv.uv = u;
+        yuv.nv12 = true;
+    }
+    else
+    {
+        return false;
+    }
+
+    yuv.y = y;
+    yuv.y_stride = y_row_stride;
+    yuv.uv_stride = u_row_stride;
+    return true;
+}
+
+static void copy_plane_row(const unsigned char* src, int pixel_stride, int width, unsigned char* dst)
+{
+    if (pixel_stride == 1)
+    {
+        memcpy(dst, src, width);
+        return;
+    }
+
+    int x = 0;
+#if __ARM_NEON
+    if (pixel_stride == 2)
+    {
+        // vld2 reads 32 bytes, keep the last pair inside the row
+        for (; x + 16 < width; x += 16)
+        {
+            uint8x16x2_t _p = vld2q_u8(src);
+            vst1q_u8(dst, _p.val[0]);
+            src += 32;
+            dst += 16;
+        }
+    }
+#endif // __ARM_NEON
+    for (; x < width; x++)
+    {
+        *dst++ = *src;
+        src += pixel_stride;
+    }
+}
+
+static void interleave_vu_row(const unsigned char* v, const unsigned char* u, int pixel_stride, int width, unsigned char* vu)
+{
+    int x = 0;
+#if __ARM_NEON
+    if (pixel_stride == 1)
+    {
+        for (; x + 16 <= width; x += 16)
+        {
+            uint8x16x2_t _vu;
+            _vu.val[0] = vld1q_u8(v);
+            _vu.val[1] = vld1q_u8(u);
+            vst2q_u8(vu, _vu);
+            v += 16;
+            u += 16;
+            vu += 32;
+        }
+    }
+    else if (pixel_stride == 2)
+    {
+        for (; x + 16 < width; x += 16)
+        {
+            uint8x16x2_t _v = vld2q_u8(v);
+            uint8x16x2_t _u = vld2q_u8(u);
+            uint8x16x2_t _vu;
+            _vu.val[0] = _v.val[0];
+            _vu.val[1] = _u.val[0];
+            vst2q_u8(vu, _vu);
+            v += 32;
+            u += 32;
+            vu += 32;
+        }
+    }
+#endif // __ARM_NEON
+    for (; x < width; x++)
+    {
+        vu[0] = *v;
+        vu[1] = *u;
+        vu += 2;
+        v += pixel_stride;
+        u += pixel_stride;
+    }
+}
+
+void yuv420_planes_to_nv21(const unsigned char* y, int y_pixel_stride, int y_row_stride,
+                           const unsigned char* u, int u_pixel_stride, int u_row_stride,
+                           const unsigned char* v, int v_pixel_stride, int v_row_stride,
+                           int width, int height, unsigned char* nv21)
+{
+    // Y
+    if (y_pixel_stride == 1 && y_row_stride == width)
+    {
+        memcpy(nv21, y, width * height);
+    }
+    else
+    {
+        for (int i = 0; i < height; i++)
+        {
+            copy_plane_row(y + y_row_stride * i, y_pixel_stride, width, nv21 + width * i);
+        }
+    }
+
+    // VU
+    unsigned char* vu = nv21 + width * height;
+    const int w2 = width / 2;
+    const int h2 = height / 2;
+    for (int i = 0; i < h2; i++)
+    {
+        const unsigned char* v_row = v + v_row_stride * i;
+        const unsigned char* u_row = u + u_row_stride * i;
+        if (u_pixel_stride == v_pixel_stride)
+        {
+            interleave_vu_row(v_row, u_row, v_pixel_stride, w2, vu);
+        }
+        else
+        {
+            for (int x = 0; x < w2; x++)
+            {
+                vu[x * 2] = v_row[x * v_pixel_stride];
+                vu[x * 2 + 1] = u_row[x * u_pixel_stride];
+            }
+        }
+        vu += w2 * 2;
+    }
+}
+
+YuvSemiPlanar yuv_semiplanar_from_nv21(const unsigned char* nv21, int width, int height)
+{
+    YuvSemiPlanar yuv;
+    yuv.y = nv21;
+    yuv.uv = nv21 + width * height;
+    yuv.y_stride = width;
+    yuv.uv_stride = width;
+    yuv.nv12 = false;
+    return yuv;
+}
+
+static void yuv420sp_to_rgb(const unsigned char* yuv420sp, int w, int h, bool nv12, unsigned char* rgb)
+{
+    if (nv12)
+        ncnn::yuv420sp2rgb_nv12(yuv420sp, w, h, rgb);
+    else
+        ncnn::yuv420sp2rgb(yuv420sp, w, h, rgb);
+}
+
+void yuv_semiplanar_croprotate_to_rgb(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h,
+                                      int rotate_type, cv::Mat& scratch, cv::Mat& rgb)
+{
+    int w = roi_w;
+    int h = roi_h;
+    if (rotate_type >= 5)
+    {
+        // transposed
+        std::swap(w, h);
+    }
+
+    rgb.create(h, w, CV_8UC3);
+
+    const unsigned char* srcY = yuv.y + roi_y * yuv.y_stride + roi_x;
+    const unsigned char* srcUV = yuv.uv + roi_y / 2 * yuv.uv_stride + roi_x;
+
+    if (rotate_type == 1 && yuv.y_stride == roi_w && yuv.uv_stride == roi_w && srcUV == srcY + roi_w * roi_h)
+    {
+        // packed and upright, convert straight from the source
+        yuv420sp_to_rgb(srcY, w, h, yuv.nv12, rgb.data);
+        return;
+    }
+
+    // rotate both planes from their strided source into one reused packed buffer
+    scratch.create(h + h / 2, w, CV_8UC1);
+    ncnn::kanna_rotate_c1(srcY, roi_w, roi_h, yuv.y_stride, scratch.data, w, h, w, rotate_type);
+    ncnn::kanna_rotate_c2(srcUV, roi_w / 2, roi_h / 2, yuv.uv_stride, scratch.data + w * h, w / 2, h / 2, w, rotate_type);
+
+    yuv420sp_to_rgb(scratch.data, w, h, yuv.nv12, rgb.data);
+}
+
+void yuv420sp_to_rgbx(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride,
+                      int w, int h, bool nv12, unsigned char* rgbx, int rgbx_stride)
+{
+    // same fixed point coefficients as ncnn::yuv420sp2rgb
+    // R = ((Y << 6) + 90 * (V-128)) >> 6
+    // G = ((Y << 6) - 46 * (V-128) - 22 * (U-128)) >> 6
+    // B = ((Y << 6) + 113 * (U-128)) >> 6
+#define SATURATE_CAST_UCHAR(X) (unsigned char)std::min(std::max((int)(X), 0), 255)
+    for (int i = 0; i + 1 < h; i += 2)
+    {
+        const unsigned char* yptr0 = y + i * y_stride;
+        const unsigned char* yptr1 = yptr0 + y_stride;
+        const unsigned char* vuptr = uv + i / 2 * uv_stride;
+        unsigned char* rgbx0 = rgbx + i * rgbx_stride;
+        unsigned char* rgbx1 = rgbx0 + rgbx_stride;
+
+        int x = 0;
+#if __ARM_NEON
+        uint8x8_t _v128 = vdup_n_u8(128);
+        int8x8_t _v90 = vdup_n_s8(90);
+        int8x8_t _v46 = vdup_n_s8(46);
+        int8x8_t _v22 = vdup_n_s8(22);
+        int8x8_t _v113 = vdup_n_s8(113);
+        uint8x8_t _v255 = vdup_n_u8(255);
+        for (; x + 7 < w; x += 8)
+        {
+            int16x8_t _yy0 = vreinterpretq_s16_u16(vshll_n_u8(vld1_u8(yptr0), 6));
+            int16x8_t _yy1 = vreinterpretq_s16_u16(vshll_n_u8(vld1_u8(yptr1), 6));
+
+            int8x8_t _vvuu = vreinterpret_s8_u8(vsub_u8(vld1_u8(vuptr), _v128));
+            int8x8x2_t _vvvvuuuu = vtrn_s8(_vvuu, _vvuu);
+            int8x8_t _vv = nv12 ? _vvvvuuuu.val[1] : _vvvvuuuu.val[0];
+            int8x8_t _uu = nv12 ? _vvvvuuuu.val[0] : _vvvvuuuu.val[1];
+
+            int16x8_t _r0 = vmlal_s8(_yy0, _vv, _v90);
+            int16x8_t _g0 = vmlsl_s8(_yy0, _vv, _v46);
+            _g0 = vmlsl_s8(_g0, _uu, _v22);
+            int16x8_t _b0 = vmlal_s8(_yy0, _uu, _v113);
+
+            int16x8_t _r1 = vmlal_s8(_yy1, _vv, _v90);
+            int16x8_t _g1 = vmlsl_s8(_yy1, _vv, _v46);
+            _g1 = vmlsl_s8(_g1, _uu, _v22);
+            int16x8_t _b1 = vmlal_s8(_yy1, _uu, _v113);
+
+            uint8x8x4_t _rgbx0;
+            _rgbx0.val[0] = vqshrun_n_s16(_r0, 6);
+            _rgbx0.val[1] = vqshrun_n_s16(_g0, 6);
+            _rgbx0.val[2] = vqshrun_n_s16(_b0, 6);
+            _rgbx0.val[3] = _v255;
+
+            uint8x8x4_t _rgbx1;
+            _rgbx1.val[0] = vqshrun_n_s16(_r1, 6);
+            _rgbx1.val[1] = vqshrun_n_s16(_g1, 6);
+            _rgbx1.val[2] = vqshrun_n_s16(_b1, 6);
+            _rgbx1.val[3] = _v255;
+
+            vst4_u8(rgbx0, _rgbx0);
+            vst4_u8(rgbx1, _rgbx1);
+
+            yptr0 += 8;
+            yptr1 += 8;
+            vuptr += 8;
+            rgbx0 += 32;
+            rgbx1 += 32;
+        }
+#endif // __ARM_NEON
+        for (; x + 1 < w; x += 2)
+        {
+            int v = (nv12 ? vuptr[1] : vuptr[0]) - 128;
+            int u = (nv12 ? vuptr[0] : vuptr[1]) - 128;
+
+            int ruv = 90 * v;
+            int guv = -46 * v + -22 * u;
+            int buv = 113 * u;
+
+            int y00 = yptr0[0] << 6;
+            rgbx0[0] = SATURATE_CAST_UCHAR((y00 + ruv) >> 6);
+            rgbx0[1] = SATURATE_CAST_UCHAR((y00 + guv) >> 6);
+            rgbx0[2] = SATURATE_CAST_UCHAR((y00 + buv) >> 6);
+            rgbx0[3] = 255;
+
+            int y01 = yptr0[1] << 6;
+            rgbx0[4] = SATURATE_CAST_UCHAR((y01 + ruv) >> 6);
+            rgbx0[5] = SATURATE_CAST_UCHAR((y01 + guv) >> 6);
+            rgbx0[6] = SATURATE_CAST_UCHAR((y01 + buv) >> 6);
+            rgbx0[7] = 255;
+
+            int y10 = yptr1[0] << 6;
+            rgbx1[0] = SATURATE_CAST_UCHAR((y10 + ruv) >> 6);
+            rgbx1[1] = SATURATE_CAST_UCHAR((y10 + guv) >> 6);
+            rgbx1[2] = SATURATE_CAST_UCHAR((y10 + buv) >> 6);
+            rgbx1[3] = 255;
+
+            int y11 = yptr1[1] << 6;
+            rgbx1[4] = SATURATE_CAST_UCHAR((y11 + ruv) >> 6);
+            rgbx1[5] = SATURATE_CAST_UCHAR((y11 + guv) >> 6);
+            rgbx1[6] = SATURATE_CAST_UCHAR((y11 + buv) >> 6);
+            rgbx1[7] = 255;
+
+            yptr0 += 2;
+            yptr1 += 2;
+            vuptr += 2;
+            rgbx0 += 8;
+            rgbx1 += 8;
+        }
+    }
+#undef SATURATE_CAST_UCHAR
+}
+
+void yuv_semiplanar_croprotate_to_rgbx(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h,
+                                       int rotate_type, cv::Mat& scratch, unsigned char* rgbx, int rgbx_stride)
+{
+    const unsigned char* srcY = yuv.y + roi_y * yuv.y_stride + roi_x;
+    const unsigned char* srcUV = yuv.uv + roi_y / 2 * yuv.uv_stride + roi_x;
+
+    if (rotate_type == 1)
+    {
+        // upright, convert straight from the strided source
+        yuv420sp_to_rgbx(srcY, yuv.y_stride, srcUV, yuv.uv_stride, roi_w, roi_h, yuv.nv12, rgbx, rgbx_stride);
+        return;
+    }
+
+    int w = roi_w;
+    int h = roi_h;
+    if (rotate_type >= 5)
+    {
+        // transposed
+        std::swap(w, h);
+    }
+
+    scratch.create(h + h / 2, w, CV_8UC1);
+    ncnn::kanna_rotate_c1(srcY, roi_w, roi_h, yuv.y_stride, scratch.data, w, h, w, rotate_type);
+    ncnn::kanna_rotate_c2(srcUV, roi_w / 2, roi_h / 2, yuv.uv_stride, scratch.data + w * h, w / 2, h / 2, w, rotate_type);
+
+    yuv420sp_to_rgbx(scratch.data, w, scratch.data + w * h, w, w, h, yuv.nv12, rgbx, rgbx_stride);
+}
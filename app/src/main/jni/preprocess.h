@@ -0,0 +1,47 @@
+#ifndef PREPROCESS_H
+#define PREPROCESS_H
+
+#include <opencv2/core/core.hpp>
+
+// view of a semi-planar yuv420 frame, planes may have row padding and need not be contiguous
+struct YuvSemiPlanar
+{
+    const unsigned char* y;
+    // interleaved chroma, V first for nv21 and U first for nv12
+    const unsigned char* uv;
+    int y_stride;
+    int uv_stride;
+    bool nv12;
+};
+
+// build a semi-planar view from YUV_420_888 plane pointers and strides
+// returns false when the chroma planes are not interleaved
+bool yuv_semiplanar_from_planes(const unsigned char* y, int y_pixel_stride, int y_row_stride,
+                                const unsigned char* u, int u_pixel_stride, int u_row_stride,
+                                const unsigned char* v, int v_pixel_stride, int v_row_stride,
+                                YuvSemiPlanar& yuv);
+
+// pack YUV_420_888 planes of any pixel and row stride into a packed nv21 buffer of width * height * 3 / 2
+void yuv420_planes_to_nv21(const unsigned char* y, int y_pixel_stride, int y_row_stride,
+                           const unsigned char* u, int u_pixel_stride, int u_row_stride,
+                           const unsigned char* v, int v_pixel_stride, int v_row_stride,
+                           int width, int height, unsigned char* nv21);
+
+// view of a packed nv21 buffer
+YuvSemiPlanar yuv_semiplanar_from_nv21(const unsigned char* nv21, int width, int height);
+
+// crop roi (even aligned) from the strided planes, rotate with kanna rotate_type and convert to rgb
+// scratch and rgb are reused across calls, no allocation happens while the frame size stays the same
+void yuv_semiplanar_croprotate_to_rgb(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h,
+                                      int rotate_type, cv::Mat& scratch, cv::Mat& rgb);
+
+// convert strided semi-planar planes to rgbx rows of rgbx_stride bytes, x is filled with 255
+void yuv420sp_to_rgbx(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride,
+                      int w, int h, bool nv12, unsigned char* rgbx, int rgbx_stride);
+
+// crop roi (even aligned), rotate with kanna rotate_type and convert to rgbx straight into the destination rows
+// the upright case reads the source planes directly, other cases rotate through the reused scratch
+void yuv_semiplanar_croprotate_to_rgbx(const YuvSemiPlanar& yuv, int roi_x, int roi_y, int roi_w, int roi_h,
+                                       int rotate_type, cv::Mat& scratch, unsigned char* rgbx, int rgbx_stride);
+
+#endif // PREPROCESS_H
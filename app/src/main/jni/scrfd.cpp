@@ -14,12 +14,16 @@
 
 #include "scrfd.h"
 
+#include <stdio.h>
 #include <string.h>
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
 
+#include "benchmark.h"
 #include "cpu.h"
 
+#include "stats.h"
+
 static inline float intersection_area(const FaceObject& a, const FaceObject& b)
 {
     cv::Rect_<float> inter = a.rect & b.rect;
@@ -63,7 +67,7 @@ static void qsort_descent_inplace(std::vector<FaceObject>& faceobjects, int left
     }
 }
 
-static void qsort_descent_inplace(std::vector<FaceObject>& faceobjects)
+void qsort_descent_inplace(std::vector<FaceObject>& faceobjects)
 {
     if (faceobjects.empty())
         return;
@@ -71,7 +75,7 @@ static void qsort_descent_inplace(std::vector<FaceObject>& faceobjects)
     qsort_descent_inplace(faceobjects, 0, faceobjects.size() - 1);
 }
 
-static void nms_sorted_bboxes(const std::vector<FaceObject>& faceobjects, std::vector<int>& picked, float nms_threshold)
+void nms_sorted_bboxes(const std::vector<FaceObject>& faceobjects, std::vector<int>& picked, float nms_threshold)
 {
     picked.clear();
 
@@ -106,7 +110,7 @@ static void nms_sorted_bboxes(const std::vector<FaceObject>& faceobjects, std::v
 }
 
 // insightface/detection/scrfd/mmdet/core/anchor/anchor_generator.py gen_single_level_base_anchors()
-static ncnn::Mat generate_anchors(int base_size, const ncnn::Mat& ratios, const ncnn::Mat& scales)
+ncnn::Mat generate_anchors(int base_size, const ncnn::Mat& ratios, const ncnn::Mat& scales)
 {
     int num_ratio = ratios.w;
     int num_scale = scales.w;
@@ -143,7 +147,7 @@ static ncnn::Mat generate_anchors(int base_size, const ncnn::Mat& ratios, const
     return anchors;
 }
 
-static void generate_proposals(const ncnn::Mat& anchors, int feat_stride, const ncnn::Mat& score_blob, const ncnn::Mat& bbox_blob, const ncnn::Mat& kps_blob, float prob_threshold, std::vector<FaceObject>& faceobjects)
+void generate_proposals(const ncnn::Mat& anchors, int feat_stride, const ncnn::Mat& score_blob, const ncnn::Mat& bbox_blob, const ncnn::Mat& kps_blob, float prob_threshold, std::vector<FaceObject>& faceobjects)
 {
     int w = score_blob.w;
     int h = score_blob.h;
@@ -225,6 +229,24 @@ static void generate_proposals(const ncnn::Mat& anchors, int feat_stride, const
     }
 }
 
+SCRFD::SCRFD()
+{
+    has_kps = false;
+    target_size = 640;
+}
+
+void SCRFD::set_target_size(int _target_size)
+{
+    target_size = std::max((_target_size + 31) / 32 * 32, 32);
+}
+
+void SCRFD::set_num_threads(int num_threads)
+{
+    num_threads = std::max(num_threads, 1);
+    ncnn::set_omp_num_threads(num_threads);
+    scrfd.opt.num_threads = num_threads;
+}
+
 int SCRFD::load(const char* modeltype, bool use_gpu)
 {
     scrfd.clear();
@@ -245,14 +267,15 @@ int SCRFD::load(const char* modeltype, bool use_gpu)
     sprintf(parampath, "scrfd_%s-opt2.param", modeltype);
     sprintf(modelpath, "scrfd_%s-opt2.bin", modeltype);
 
-    scrfd.load_param(parampath);
-    scrfd.load_model(modelpath);
-
     has_kps = strstr(modeltype, "_kps") != NULL;
 
+    if (scrfd.load_param(parampath) != 0 || scrfd.load_model(modelpath) != 0)
+        return -1;
+
     return 0;
 }
 
+#ifdef __ANDROID__
 int SCRFD::load(AAssetManager* mgr, const char* modeltype, bool use_gpu)
 {
     scrfd.clear();
@@ -273,22 +296,21 @@ int SCRFD::load(AAssetManager* mgr, const char* modeltype, bool use_gpu)
     sprintf(parampath, "scrfd_%s-opt2.param", modeltype);
     sprintf(modelpath, "scrfd_%s-opt2.bin", modeltype);
 
-    scrfd.load_param(mgr, parampath);
-    scrfd.load_model(mgr, modelpath);
-
     has_kps = strstr(modeltype, "_kps") != NULL;
 
+    if (scrfd.load_param(mgr, parampath) != 0 || scrfd.load_model(mgr, modelpath) != 0)
+        return -1;
+
     return 0;
 }
+#endif // __ANDROID__
 
 int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, float prob_threshold, float nms_threshold)
 {
     int width = rgb.cols;
     int height = rgb.rows;
 
-    // insightface/detection/scrfd/configs/scrfd/scrfd_500m.py
-    const int target_size = 640;
-
+    // insightface/detection/scrfd/configs/scrfd/scrfd_500m.py uses 640
     // pad to multiple of 32
     int w = width;
     int h = height;
@@ -306,7 +328,11 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
         w = w * scale;
     }
 
-    ncnn::Mat in = ncnn::Mat::from_pixels_resize(rgb.data, ncnn::Mat::PIXEL_RGB, width, height, w, h);
+    int64_t t0 = stats_now();
+
+    // RGBA input comes from GPU readback, alpha is dropped while resizing
+    int pixel_type = rgb.channels() == 4 ? ncnn::Mat::PIXEL_RGBA2RGB : ncnn::Mat::PIXEL_RGB;
+    ncnn::Mat in = ncnn::Mat::from_pixels_resize(rgb.data, pixel_type, width, height, (int)rgb.step[0], w, h);
 
     // pad to target_size rectangle
     int wpad = (w + 31) / 32 * 32 - w;
@@ -318,19 +344,29 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
     const float norm_vals[3] = {1/128.f, 1/128.f, 1/128.f};
     in_pad.substract_mean_normalize(mean_vals, norm_vals);
 
+    int64_t t1 = stats_now();
+    stats_record(STAT_PREPROCESS, t1 - t0);
+
     ncnn::Extractor ex = scrfd.create_extractor();
 
     ex.input("input.1", in_pad);
 
     std::vector<FaceObject> faceproposals;
 
+    // extract runs the network lazily, so forward and decode are summed over the three strides
+    int64_t forward_ns = 0;
+    int64_t decode_ns = 0;
+
     // stride 8
     {
+        int64_t start = stats_now();
         ncnn::Mat score_blob, bbox_blob, kps_blob;
         ex.extract("score_8", score_blob);
         ex.extract("bbox_8", bbox_blob);
         if (has_kps)
             ex.extract("kps_8", kps_blob);
+        int64_t extracted = stats_now();
+        forward_ns += extracted - start;
 
         const int base_size = 16;
         const int feat_stride = 8;
@@ -345,15 +381,19 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
         generate_proposals(anchors, feat_stride, score_blob, bbox_blob, kps_blob, prob_threshold, faceobjects8);
 
         faceproposals.insert(faceproposals.end(), faceobjects8.begin(), faceobjects8.end());
+        decode_ns += stats_now() - extracted;
     }
 
     // stride 16
     {
+        int64_t start = stats_now();
         ncnn::Mat score_blob, bbox_blob, kps_blob;
         ex.extract("score_16", score_blob);
         ex.extract("bbox_16", bbox_blob);
         if (has_kps)
             ex.extract("kps_16", kps_blob);
+        int64_t extracted = stats_now();
+        forward_ns += extracted - start;
 
         const int base_size = 64;
         const int feat_stride = 16;
@@ -368,15 +408,19 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
         generate_proposals(anchors, feat_stride, score_blob, bbox_blob, kps_blob, prob_threshold, faceobjects16);
 
         faceproposals.insert(faceproposals.end(), faceobjects16.begin(), faceobjects16.end());
+        decode_ns += stats_now() - extracted;
     }
 
     // stride 32
     {
+        int64_t start = stats_now();
         ncnn::Mat score_blob, bbox_blob, kps_blob;
         ex.extract("score_32", score_blob);
         ex.extract("bbox_32", bbox_blob);
         if (has_kps)
             ex.extract("kps_32", kps_blob);
+        int64_t extracted = stats_now();
+        forward_ns += extracted - start;
 
         const int base_size = 256;
         const int feat_stride = 32;
@@ -391,8 +435,14 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
         generate_proposals(anchors, feat_stride, score_blob, bbox_blob, kps_blob, prob_threshold, faceobjects32);
 
         faceproposals.insert(faceproposals.end(), faceobjects32.begin(), faceobjects32.end());
+        decode_ns += stats_now() - extracted;
     }
 
+    stats_record(STAT_FORWARD, forward_ns);
+    stats_record(STAT_DECODE, decode_ns);
+
+    int64_t t2 = stats_now();
+
     // sort all proposals by score from highest to lowest
     qsort_descent_inplace(faceproposals);
 
@@ -449,10 +499,17 @@ int SCRFD::detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, floa
         }
     }
 
+    stats_record(STAT_NMS, stats_now() - t2);
+
     return 0;
 }
 
 int SCRFD::draw(cv::Mat& rgb, const std::vector<FaceObject>& faceobjects)
+{
+    return draw(rgb, faceobjects, has_kps);
+}
+
+int SCRFD::draw(cv::Mat& rgb, const std::vector<FaceObject>& faceobjects, bool has_kps)
 {
     for (size_t i = 0; i < faceobjects.size(); i++)
     {
@@ -492,3 +549,132 @@ int SCRFD::draw(cv::Mat& rgb, const std::vector<FaceObject>& faceobjects)
 
     return 0;
 }
+
+int SCRFD::profile(int width, int height, int loops, std::string& report)
+{
+    // same input geometry as detect()
+    int w = width;
+    int h = height;
+    if (w > h)
+    {
+        h = h * target_size / w;
+        w = target_size;
+    }
+    else
+    {
+        w = w * target_size / h;
+        h = target_size;
+    }
+    w = (w + 31) / 32 * 32;
+    h = (h + 31) / 32 * 32;
+
+    // deterministic pseudo random input in the normalized range, values do not change the kernels taken
+    ncnn::Mat in(w, h, 3);
+    unsigned int seed = 12345;
+    for (int q = 0; q < in.c; q++)
+    {
+        float* ptr = in.channel(q);
+        for (int i = 0; i < w * h; i++)
+        {
+            seed = seed * 1664525 + 1013904223;
+            ptr[i] = (int)(seed >> 24) / 128.f - 1.f;
+        }
+    }
+
+    const std::vector<ncnn::Layer*>& layers = scrfd.layers();
+    const std::vector<ncnn::Blob>& blobs = scrfd.blobs();
+    const int layer_count = (int)layers.size();
+
+    std::vector<double> layer_sum(layer_count, 0.0);
+    std::vector<double> layer_min(layer_count, 1e9);
+    std::vector<size_t> layer_bytes(layer_count, 0);
+    std::vector<int> layer_shape(layer_count * 3, 0);
+    double forward_sum = 0.0;
+    double forward_min = 1e9;
+
+    // loop -1 is warmup
+    for (int loop = -1; loop < loops; loop++)
+    {
+        // whole network as detect() runs it
+        {
+            double start = ncnn::get_current_time();
+            ncnn::Extractor ex = scrfd.create_extractor();
+            ex.input("input.1", in);
+            ncnn::Mat out;
+            ex.extract("score_8", out);
+            ex.extract("score_16", out);
+            ex.extract("score_32", out);
+            double elapsed = ncnn::get_current_time() - start;
+            if (loop >= 0)
+            {
+                forward_sum += elapsed;
+                forward_min = std::min(forward_min, elapsed);
+            }
+        }
+
+        // extracting layer outputs in order runs exactly one more layer per extract
+        // with the vulkan backend every extract also downloads the blob, so per-layer times are only meaningful on cpu
+        ncnn::Extractor ex = scrfd.create_extractor();
+        ex.set_light_mode(false);
+        ex.input("input.1", in);
+        for (int i = 0; i < layer_count; i++)
+        {
+            const ncnn::Layer* layer = layers[i];
+            if (layer->type == "Input" || layer->tops.empty())
+                continue;
+
+            ncnn::Mat out;
+            double start = ncnn::get_current_time();
+            ex.extract(layer->tops[0], out);
+            double elapsed = ncnn::get_current_time() - start;
+
+            if (loop < 0)
+            {
+                size_t bytes = 0;
+                for (size_t j = 0; j < layer->tops.size(); j++)
+                {
+                    ncnn::Mat top;
+                    ex.extract(layer->tops[j], top);
+                    bytes += top.total() * top.elemsize;
+                }
+                layer_bytes[i] = bytes;
+                layer_shape[i * 3] = out.w;
+                layer_shape[i * 3 + 1] = out.h;
+                layer_shape[i * 3 + 2] = out.c * out.elempack;
+            }
+            else
+            {
+                layer_sum[i] += elapsed;
+                layer_min[i] = std::min(layer_min[i], elapsed);
+            }
+        }
+    }
+
+    loops = std::max(loops, 1);
+
+    char buf[512];
+    snprintf(buf, sizeof(buf), "{\"input\":[%d,%d,3],\"target_size\":%d,\"loops\":%d,\"threads\":%d,\"vulkan\":%s,"
+             "\"forward_ms\":%.3f,\"forward_min_ms\":%.3f,\"layers\":[",
+             w, h, target_size, loops, scrfd.opt.num_threads, scrfd.opt.use_vulkan_compute ? "true" : "false",
+             forward_sum / loops, forward_min == 1e9 ? 0.0 : forward_min);
+    report += buf;
+
+    bool first = true;
+    for (int i = 0; i < layer_count; i++)
+    {
+        const ncnn::Layer* layer = layers[i];
+        if (layer->type == "Input" || layer->tops.empty())
+            continue;
+
+        snprintf(buf, sizeof(buf), "%s{\"index\":%d,\"name\":\"%s\",\"type\":\"%s\",\"top\":\"%s\",\"ms\":%.4f,\"min_ms\":%.4f,"
+                 "\"shape\":[%d,%d,%d],\"bytes\":%zu}",
+                 first ? "" : ",", i, layer->name.c_str(), layer->type.c_str(), blobs[layer->tops[0]].name.c_str(),
+                 layer_sum[i] / loops, layer_min[i] == 1e9 ? 0.0 : layer_min[i],
+                 layer_shape[i * 3], layer_shape[i * 3 + 1], layer_shape[i * 3 + 2], layer_bytes[i]);
+        report += buf;
+        first = false;
+    }
+    report += "]}";
+
+    return 0;
+}
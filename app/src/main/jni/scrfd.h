@@ -19,6 +19,9 @@
 
 #include <net.h>
 
+#include <string>
+#include <vector>
+
 struct FaceObject
 {
     cv::Rect_<float> rect;
@@ -29,17 +32,53 @@ struct FaceObject
 class SCRFD
 {
 public:
+    SCRFD();
+
     int load(const char* modeltype, bool use_gpu = false);
 
+#ifdef __ANDROID__
     int load(AAssetManager* mgr, const char* modeltype, bool use_gpu = false);
+#endif // __ANDROID__
 
+    // rgb is CV_8UC3 RGB or CV_8UC4 RGBA, rows may be padded
     int detect(const cv::Mat& rgb, std::vector<FaceObject>& faceobjects, float prob_threshold = 0.5f, float nms_threshold = 0.45f);
 
     int draw(cv::Mat& rgb, const std::vector<FaceObject>& faceobjects);
 
+    // draw without touching the model, for results produced on another thread
+    static int draw(cv::Mat& rgb, const std::vector<FaceObject>& faceobjects, bool has_kps);
+
+    bool has_keypoints() const { return has_kps; }
+
+    // long side of the network input, default 640, rounded up to a multiple of 32
+    void set_target_size(int _target_size);
+    int get_target_size() const { return target_size; }
+
+    // cpu threads used by detect(), load() defaults to the big core count
+    void set_num_threads(int num_threads);
+
+    // run the loaded model on a synthetic input of the size detect() would use for a width x height image
+    // and append a json object with per-layer forward time and output blob memory to report
+    int profile(int width, int height, int loops, std::string& report);
+
 private:
     ncnn::Net scrfd;
     bool has_kps;
+    int target_size;
 };
 
+// decoding steps of SCRFD::detect, exposed for the host benchmarks
+
+// insightface anchor_generator.py gen_single_level_base_anchors(), one row of x0 y0 x1 y1 per ratio and scale
+ncnn::Mat generate_anchors(int base_size, const ncnn::Mat& ratios, const ncnn::Mat& scales);
+
+// append the anchors of one stride whose score passes prob_threshold, kps_blob may be empty
+void generate_proposals(const ncnn::Mat& anchors, int feat_stride, const ncnn::Mat& score_blob, const ncnn::Mat& bbox_blob, const ncnn::Mat& kps_blob, float prob_threshold, std::vector<FaceObject>& faceobjects);
+
+// sort by prob from highest to lowest
+void qsort_descent_inplace(std::vector<FaceObject>& faceobjects);
+
+// faceobjects must be sorted, picked receives the indices kept
+void nms_sorted_bboxes(const std::vector<FaceObject>& faceobjects, std::vector<int>& picked, float nms_threshold);
+
 #endif // SCRFD_H
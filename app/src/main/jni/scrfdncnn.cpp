@@ -13,6 +13,7 @@
 // specific language governing permissions and limitations under the License.
 
 #include <android/asset_manager_jni.h>
+#include <android/hardware_buffer_jni.h>
 #include <android/native_window_jni.h>
 #include <android/native_window.h>
 
@@ -20,6 +21,12 @@
 
 #include <jni.h>
 
+#include <string.h>
+#include <sys/eventfd.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <algorithm>
 #include <string>
 #include <vector>
 
@@ -29,6 +36,8 @@
 #include "scrfd.h"
 
 #include "ndkcamera.h"
+#include "preprocess.h"
+#include "stats.h"
 
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
@@ -118,27 +127,290 @@ static int draw_fps(cv::Mat &rgb) {
 static SCRFD *g_scrfd = 0;
 static ncnn::Mutex lock;
 
+// loadModel的modelid即下标
+static const char *g_model_types[] =
+        {
+                "500m",
+                "500m_kps",
+                "1g",
+                "2.5g",
+                "2.5g_kps",
+                "10g",
+                "10g_kps",
+                "34g"
+        };
+static const int g_model_type_count = sizeof(g_model_types) / sizeof(g_model_types[0]);
+
+// 检测结果转换为Java Face数组，没有人脸时返回NULL
+static jobjectArray to_face_array(JNIEnv *env, const std::vector<FaceObject> &faceobjects) {
+    jobjectArray faceArray = NULL;
+    if (faceobjects.size() > 0) {
+        jclass faceClass = env->FindClass("com/tencent/scrfdncnn/model/Face");
+        faceArray = env->NewObjectArray(faceobjects.size(), faceClass, NULL);
+        for (size_t i = 0; i < faceobjects.size(); i++) {
+            const FaceObject &obj = faceobjects[i];
+
+            jmethodID constructor = env->GetMethodID(faceClass, "<init>", "()V");
+            jobject faceObj = env->NewObject(faceClass, constructor);
+
+            jfieldID rectField = env->GetFieldID(faceClass, "rect", "[F");
+            jfloatArray rectArray = static_cast<jfloatArray>(env->GetObjectField(faceObj,
+                                                                                 rectField));
+            jfloat *_rect = env->GetFloatArrayElements(rectArray, 0);
+            _rect[0] = obj.rect.x;
+            _rect[1] = obj.rect.y;
+            _rect[2] = obj.rect.width;
+            _rect[3] = obj.rect.height;
+
+            jfieldID landmarkField = env->GetFieldID(faceClass, "landmark", "[F");
+            jfloatArray landmarkArray = static_cast<jfloatArray>(env->GetObjectField(faceObj,
+                                                                                     landmarkField));
+            jfloat *_landmark = env->GetFloatArrayElements(landmarkArray, 0);
+            for (int j = 0; j < 5; j++) {
+                _landmark[j * 2] = obj.landmark[j].x;
+                _landmark[j * 2 + 1] = obj.landmark[j].y;
+            }
+
+            env->SetObjectArrayElement(faceArray, i, faceObj);
+
+            // 释放局部变量
+            env->ReleaseFloatArrayElements(rectArray, _rect, 0);
+            env->DeleteLocalRef(rectArray);
+            env->ReleaseFloatArrayElements(landmarkArray, _landmark, 0);
+            env->DeleteLocalRef(landmarkArray);
+            env->DeleteLocalRef(faceObj);
+        }
+        env->DeleteLocalRef(faceClass);
+    }
+
+    return faceArray;
+}
+
+// 检测结果通道：Java分配的direct ByteBuffer双缓冲 + eventfd通知，布局与NativeResultChannel.java一致
+//
+// buffer分为布局相同的两块，都由result_channel_lock保护：
+//   发布区：检测线程持锁写入最新一次结果，Java不直接读取
+//   读取区：Java线程调用readResultChannel时持锁从发布区拷贝，返回后只有Java线程读取，检测线程不会写入
+// 每块 RESULT_HEADER_SIZE 字节头部，之后是人脸数据
+//   int64 序号，从1开始，0表示还没有结果 | int64 时间戳ns(CLOCK_BOOTTIME)
+//   int32 宽 | int32 高 | int32 人脸数 | int32 推理耗时us
+//   float[最大人脸数 * RESULT_FACE_FLOATS] 人脸数据 x y w h prob 5个关键点xy
+#define RESULT_HEADER_SIZE 32
+#define RESULT_FACE_FLOATS 15
+
+static ncnn::Mutex result_channel_lock;
+static unsigned char *g_result_buffer = 0;
+static int g_result_block_size = 0;
+static int g_result_max_faces = 0;
+static int g_result_fd = -1;
+static int64_t g_result_sequence = 0;
+
+static int64_t boottime_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_BOOTTIME, &ts);
+    return (int64_t) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+// 检测线程调用，持锁写入发布区并通知Java，不创建任何Java对象
+static void publish_results(const std::vector<FaceObject> &faceobjects, int width, int height,
+                            int inference_us) {
+    ncnn::MutexLockGuard g(result_channel_lock);
+
+    if (!g_result_buffer) {
+        return;
+    }
+
+    unsigned char *block = g_result_buffer;
+    int face_count = std::min((int) faceobjects.size(), g_result_max_faces);
+
+    *(int64_t *) block = ++g_result_sequence;
+    *(int64_t *) (block + 8) = boottime_ns();
+    int32_t *info = (int32_t *) (block + 16);
+    info[0] = width;
+    info[1] = height;
+    info[2] = face_count;
+    info[3] = inference_us;
+
+    float *data = (float *) (block + RESULT_HEADER_SIZE);
+    for (int i = 0; i < face_count; i++) {
+        const FaceObject &obj = faceobjects[i];
+        data[0] = obj.rect.x;
+        data[1] = obj.rect.y;
+        data[2] = obj.rect.width;
+        data[3] = obj.rect.height;
+        data[4] = obj.prob;
+        for (int j = 0; j < 5; j++) {
+            data[5 + j * 2] = obj.landmark[j].x;
+            data[5 + j * 2 + 1] = obj.landmark[j].y;
+        }
+        data += RESULT_FACE_FLOATS;
+    }
+
+    uint64_t one = 1;
+    write(g_result_fd, &one, sizeof(one));
+}
+
+// 预览渲染与检测解耦：相机回调只提交最新一帧并绘制最近一次的检测结果，检测在独立线程进行
 class MyNdkCamera : public NdkCameraWindow {
 public:
-    virtual void on_image_render(cv::Mat &rgb) const;
+    MyNdkCamera();
+
+    virtual ~MyNdkCamera();
+
+    virtual void on_image_detect(const YuvSemiPlanar &yuv, int roi_x, int roi_y, int roi_w,
+                                 int roi_h, int rotate_type) const;
+
+    virtual void on_image_render(cv::Mat &rgbx) const;
+
+private:
+    static void *detect_main(void *args);
+
+    void detect_loop();
+
+private:
+    ncnn::Thread *detect_thread;
+
+    // 待检测帧槽位，只保留最新一帧
+    mutable ncnn::Mutex frame_lock;
+    mutable ncnn::ConditionVariable frame_condition;
+    mutable cv::Mat pending_rgb;
+    mutable cv::Mat pending_scratch;
+    mutable bool has_pending;
+    // 检测线程正在等待新帧，与has_pending一起由frame_lock保护
+    bool detector_idle;
+    bool running;
+
+    // 最近一次检测结果
+    mutable ncnn::Mutex result_lock;
+    std::vector<FaceObject> result_faceobjects;
+    int result_width;
+    int result_height;
+    bool result_has_kps;
+    bool result_unsupported;
+    mutable std::vector<FaceObject> render_faceobjects;
 };
 
-void MyNdkCamera::on_image_render(cv::Mat &rgb) const {
-    // scrfd
-    {
-        ncnn::MutexLockGuard g(lock);
+MyNdkCamera::MyNdkCamera() {
+    has_pending = false;
+    detector_idle = true;
+    running = true;
+    result_width = 0;
+    result_height = 0;
+    result_has_kps = false;
+    result_unsupported = false;
 
-        if (g_scrfd) {
-            std::vector<FaceObject> faceobjects;
-            g_scrfd->detect(rgb, faceobjects);
+    detect_thread = new ncnn::Thread(detect_main, this);
+}
 
-            g_scrfd->draw(rgb, faceobjects);
-        } else {
-            draw_unsupported(rgb);
+MyNdkCamera::~MyNdkCamera() {
+    // 先停止相机，不再有新帧提交
+    close();
+
+    frame_lock.lock();
+    running = false;
+    frame_condition.signal();
+    frame_lock.unlock();
+
+    detect_thread->join();
+    delete detect_thread;
+}
+
+void *MyNdkCamera::detect_main(void *args) {
+    ((MyNdkCamera *) args)->detect_loop();
+    return 0;
+}
+
+void MyNdkCamera::detect_loop() {
+    cv::Mat rgb;
+    std::vector<FaceObject> faceobjects;
+
+    while (true) {
+        frame_lock.lock();
+        detector_idle = true;
+        while (running && !has_pending) {
+            frame_condition.wait(frame_lock);
+        }
+        if (!running) {
+            frame_lock.unlock();
+            break;
+        }
+        // 交换缓冲区，两块内存在相机线程和检测线程之间轮换使用
+        cv::swap(rgb, pending_rgb);
+        has_pending = false;
+        detector_idle = false;
+        frame_lock.unlock();
+
+        faceobjects.clear();
+        bool unsupported = false;
+        bool has_kps = false;
+        double inference_ms = 0;
+        {
+            ncnn::MutexLockGuard g(lock);
+
+            if (g_scrfd) {
+                double start = ncnn::get_current_time();
+                g_scrfd->detect(rgb, faceobjects);
+                inference_ms = ncnn::get_current_time() - start;
+                has_kps = g_scrfd->has_keypoints();
+            } else {
+                unsupported = true;
+            }
+        }
+
+        if (!unsupported) {
+            publish_results(faceobjects, rgb.cols, rgb.rows, (int) (inference_ms * 1000));
+        }
+
+        ncnn::MutexLockGuard g(result_lock);
+        result_faceobjects.swap(faceobjects);
+        result_width = rgb.cols;
+        result_height = rgb.rows;
+        result_has_kps = has_kps;
+        result_unsupported = unsupported;
+    }
+}
+
+void MyNdkCamera::on_image_detect(const YuvSemiPlanar &yuv, int roi_x, int roi_y, int roi_w,
+                                  int roi_h, int rotate_type) const {
+    // 提交给检测线程，未处理的旧帧直接被覆盖
+    ncnn::MutexLockGuard g(frame_lock);
+
+    // 检测线程忙且已有一帧在等待时，转换出的帧在被取走前还会被覆盖，跳过转换，不占用相机线程
+    if (!detector_idle && has_pending) {
+        return;
+    }
+
+    // 与显示画面相同的裁剪和旋转，直接从相机的YUV平面转换，不读回窗口缓冲区
+    StatScope croprotate(STAT_CROPROTATE);
+    yuv_semiplanar_croprotate_to_rgb(yuv, roi_x, roi_y, roi_w, roi_h, rotate_type, pending_scratch,
+                                     pending_rgb);
+    has_pending = true;
+    frame_condition.signal();
+}
+
+void MyNdkCamera::on_image_render(cv::Mat &rgbx) const {
+    // 绘制最近一次的检测结果，画面方向变化后尺寸不一致的结果不再绘制
+    bool unsupported;
+    bool has_kps;
+    {
+        ncnn::MutexLockGuard g(result_lock);
+
+        unsupported = result_unsupported;
+        has_kps = result_has_kps;
+        render_faceobjects.clear();
+        if (result_width == rgbx.cols && result_height == rgbx.rows) {
+            render_faceobjects.insert(render_faceobjects.end(), result_faceobjects.begin(),
+                                      result_faceobjects.end());
         }
     }
 
-    draw_fps(rgb);
+    if (unsupported) {
+        draw_unsupported(rgbx);
+    } else {
+        SCRFD::draw(rgbx, render_faceobjects, has_kps);
+    }
+
+    draw_fps(rgbx);
 }
 
 static MyNdkCamera *g_camera = 0;
@@ -166,6 +438,13 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_destroy(JNIEnv *env, jobject thiz) {
 
     delete g_camera;
     g_camera = 0;
+
+    {
+        ncnn::MutexLockGuard g(result_channel_lock);
+
+        g_result_buffer = 0;
+        g_result_fd = -1;
+    }
     return JNI_TRUE;
 }
 
@@ -227,19 +506,7 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_loadModel(JNIEnv *env, jobject thiz, jobjec
 
     __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "loadModel %p", mgr);
 
-    const char *modeltypes[] =
-            {
-                    "500m",
-                    "500m_kps",
-                    "1g",
-                    "2.5g",
-                    "2.5g_kps",
-                    "10g",
-                    "10g_kps",
-                    "34g"
-            };
-
-    const char *modeltype = modeltypes[(int) modelid];
+    const char *modeltype = g_model_types[(int) modelid];
     bool use_gpu = (int) cpugpu == 1;
 
     // reload
@@ -253,7 +520,10 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_loadModel(JNIEnv *env, jobject thiz, jobjec
         } else {
             if (!g_scrfd)
                 g_scrfd = new SCRFD;
-            g_scrfd->load(mgr, modeltype, use_gpu);
+            if (g_scrfd->load(mgr, modeltype, use_gpu) != 0) {
+                __android_log_print(ANDROID_LOG_ERROR, "ncnn", "loadModel %s failed", modeltype);
+                return JNI_FALSE;
+            }
         }
     }
 
@@ -263,6 +533,7 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_loadModel(JNIEnv *env, jobject thiz, jobjec
 JNIEXPORT jobjectArray JNICALL
 Java_com_tencent_scrfdncnn_SCRFDNcnn_detectRGB(JNIEnv *env, jobject thiz, jbyteArray rgb, jint width,
                                                jint height) {
+    StatScope total(STAT_TOTAL);
     jbyte *_rgb = env->GetByteArrayElements(rgb, 0);
 
     cv::Mat img_rgb(height, width, CV_8UC3, (unsigned char *) _rgb);
@@ -270,33 +541,10 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_detectRGB(JNIEnv *env, jobject thiz, jbyteA
     std::vector<FaceObject> faceobjects;
     g_scrfd->detect(img_rgb, faceobjects);
 
-    jobjectArray faceArray = NULL;
-    if (faceobjects.size() > 0) {
-        jclass faceClass = env->FindClass("com/tencent/scrfdncnn/model/Face");
-        faceArray = env->NewObjectArray(faceobjects.size(), faceClass, NULL);
-        for (size_t i = 0; i < faceobjects.size(); i++) {
-            const FaceObject &obj = faceobjects[i];
-
-            jmethodID constructor = env->GetMethodID(faceClass, "<init>", "()V");
-            jobject faceObj = env->NewObject(faceClass, constructor);
-
-            jfieldID rectField = env->GetFieldID(faceClass, "rect", "[F");
-            jfloatArray rectArray = static_cast<jfloatArray>(env->GetObjectField(faceObj,
-                                                                                 rectField));
-            jfloat *_rect = env->GetFloatArrayElements(rectArray, 0);
-            _rect[0] = obj.rect.x;
-            _rect[1] = obj.rect.y;
-            _rect[2] = obj.rect.width;
-            _rect[3] = obj.rect.height;
-
-            env->SetObjectArrayElement(faceArray, i, faceObj);
-
-            // 释放局部变量
-            env->ReleaseFloatArrayElements(rectArray, _rect, 0);
-            env->DeleteLocalRef(rectArray);
-            env->DeleteLocalRef(faceObj);
-        }
-        env->DeleteLocalRef(faceClass);
+    jobjectArray faceArray;
+    {
+        StatScope marshal(STAT_MARSHAL);
+        faceArray = to_face_array(env, faceobjects);
     }
 
     env->ReleaseByteArrayElements(rgb, _rgb, 0);
@@ -308,6 +556,7 @@ JNIEXPORT jobjectArray JNICALL
 Java_com_tencent_scrfdncnn_SCRFDNcnn_detectNV21(JNIEnv *env, jobject thiz, jbyteArray nv21,
                                                 jint nv21_width, jint nv21_height,
                                                 jint camera_orientation) {
+    StatScope total(STAT_TOTAL);
     jbyte *_nv21 = env->GetByteArrayElements(nv21, 0);
 
     // rotate nv21
@@ -337,49 +586,275 @@ Java_com_tencent_scrfdncnn_SCRFDNcnn_detectNV21(JNIEnv *env, jobject thiz, jbyte
         }
     }
 
+    int64_t t0 = stats_now();
     cv::Mat nv21_rotated(h + h / 2, w, CV_8UC1);
     ncnn::kanna_rotate_yuv420sp(reinterpret_cast<const unsigned char *>(_nv21), nv21_width,
                                 nv21_height, nv21_rotated.data, w, h, rotate_type);
+    int64_t t1 = stats_now();
+    stats_record(STAT_ROTATE, t1 - t0);
 
     // nv21_rotated to rgb
     cv::Mat rgb(h, w, CV_8UC3);
     ncnn::yuv420sp2rgb(nv21_rotated.data, w, h, rgb.data);
+    stats_record(STAT_COLOR, stats_now() - t1);
 
     std::vector<FaceObject> faceobjects;
     g_scrfd->detect(rgb, faceobjects);
 
-    jobjectArray faceArray = NULL;
-    if (faceobjects.size() > 0) {
-        jclass faceClass = env->FindClass("com/tencent/scrfdncnn/model/Face");
-        faceArray = env->NewObjectArray(faceobjects.size(), faceClass, NULL);
-        for (size_t i = 0; i < faceobjects.size(); i++) {
-            const FaceObject &obj = faceobjects[i];
+    jobjectArray faceArray;
+    {
+        StatScope marshal(STAT_MARSHAL);
+        faceArray = to_face_array(env, faceobjects);
+    }
 
-            jmethodID constructor = env->GetMethodID(faceClass, "<init>", "()V");
-            jobject faceObj = env->NewObject(faceClass, constructor);
+    env->ReleaseByteArrayElements(nv21, _nv21, 0);
 
-            jfieldID rectField = env->GetFieldID(faceClass, "rect", "[F");
-            jfloatArray rectArray = static_cast<jfloatArray>(env->GetObjectField(faceObj,
-                                                                                 rectField));
-            jfloat *_rect = env->GetFloatArrayElements(rectArray, 0);
-            _rect[0] = obj.rect.x;
-            _rect[1] = obj.rect.y;
-            _rect[2] = obj.rect.width;
-            _rect[3] = obj.rect.height;
+    return faceArray;
+}
 
-            env->SetObjectArrayElement(faceArray, i, faceObj);
+// public native boolean setTargetSize(int targetSize);
+JNIEXPORT jboolean JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_setTargetSize(JNIEnv *env, jobject thiz, jint target_size) {
+    if (target_size <= 0) {
+        return JNI_FALSE;
+    }
 
-            // 释放局部变量
-            env->ReleaseFloatArrayElements(rectArray, _rect, 0);
-            env->DeleteLocalRef(rectArray);
-            env->DeleteLocalRef(faceObj);
+    ncnn::MutexLockGuard g(lock);
+    if (!g_scrfd) {
+        return JNI_FALSE;
+    }
+    g_scrfd->set_target_size(target_size);
+
+    return JNI_TRUE;
+}
+
+// public native String profileModels(AssetManager mgr, int[] targetSizes, int width, int height, int loops, int cpugpu);
+JNIEXPORT jstring JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_profileModels(JNIEnv *env, jobject thiz, jobject assetManager,
+                                                   jintArray target_sizes, jint width, jint height,
+                                                   jint loops, jint cpugpu) {
+    AAssetManager *mgr = AAssetManager_fromJava(env, assetManager);
+    bool use_gpu = cpugpu == 1 && ncnn::get_gpu_count() > 0;
+
+    int size_count = env->GetArrayLength(target_sizes);
+    std::vector<jint> sizes(size_count);
+    env->GetIntArrayRegion(target_sizes, 0, size_count, sizes.data());
+
+    // 每个模型单独加载，不影响正在检测的g_scrfd
+    std::string report = "[";
+    bool first = true;
+    for (int i = 0; i < g_model_type_count; i++) {
+        const char *modeltype = g_model_types[i];
+        if (!first) {
+            report += ",";
         }
-        env->DeleteLocalRef(faceClass);
+        first = false;
+        report += "{\"model\":\"";
+        report += modeltype;
+        report += "\",";
+
+        SCRFD scrfd;
+        if (scrfd.load(mgr, modeltype, use_gpu) != 0) {
+            __android_log_print(ANDROID_LOG_WARN, "ncnn", "profile %s load failed", modeltype);
+            report += "\"error\":\"load failed\"}";
+            continue;
+        }
+
+        report += "\"runs\":[";
+        for (int j = 0; j < size_count; j++) {
+            if (j > 0) {
+                report += ",";
+            }
+            scrfd.set_target_size(sizes[j]);
+            scrfd.profile(width, height, loops, report);
+        }
+        report += "]}";
+        __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "profile %s done", modeltype);
     }
+    report += "]";
 
-    env->ReleaseByteArrayElements(nv21, _nv21, 0);
+    return env->NewStringUTF(report.c_str());
+}
 
-    return faceArray;
+// public native Face[] detectRGBA(ByteBuffer rgba, int width, int height);
+JNIEXPORT jobjectArray JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_detectRGBA(JNIEnv *env, jobject thiz, jobject rgba,
+                                                jint width, jint height) {
+    StatScope total(STAT_TOTAL);
+    unsigned char *data = (unsigned char *) env->GetDirectBufferAddress(rgba);
+    if (!data || env->GetDirectBufferCapacity(rgba) < (jlong) width * height * 4) {
+        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "detectRGBA invalid buffer");
+        return NULL;
+    }
+
+    // 直接引用direct缓冲区，缩放时去掉alpha通道，不做额外拷贝
+    cv::Mat img_rgba(height, width, CV_8UC4, data);
+
+    std::vector<FaceObject> faceobjects;
+    {
+        ncnn::MutexLockGuard g(lock);
+        if (g_scrfd) {
+            g_scrfd->detect(img_rgba, faceobjects);
+        }
+    }
+
+    StatScope marshal(STAT_MARSHAL);
+    return to_face_array(env, faceobjects);
+}
+
+// public native Face[] detectHardwareBuffer(HardwareBuffer buffer, int orientation, boolean mirror);
+JNIEXPORT jobjectArray JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_detectHardwareBuffer(JNIEnv *env, jobject thiz,
+                                                          jobject hardwareBuffer,
+                                                          jint camera_orientation,
+                                                          jboolean mirror) {
+    StatScope total(STAT_TOTAL);
+    if (__builtin_available(android 29, *)) {
+        AHardwareBuffer *buffer = AHardwareBuffer_fromHardwareBuffer(env, hardwareBuffer);
+        if (!buffer) {
+            return NULL;
+        }
+
+        AHardwareBuffer_Desc desc;
+        AHardwareBuffer_describe(buffer, &desc);
+
+        AHardwareBuffer_Planes planes;
+        if (AHardwareBuffer_lockPlanes(buffer, AHARDWAREBUFFER_USAGE_CPU_READ_OFTEN, -1, NULL,
+                                       &planes) != 0) {
+            return NULL;
+        }
+
+        YuvSemiPlanar yuv;
+        bool semiplanar = planes.planeCount == 3 && yuv_semiplanar_from_planes(
+                (const unsigned char *) planes.planes[0].data, planes.planes[0].pixelStride,
+                planes.planes[0].rowStride,
+                (const unsigned char *) planes.planes[1].data, planes.planes[1].pixelStride,
+                planes.planes[1].rowStride,
+                (const unsigned char *) planes.planes[2].data, planes.planes[2].pixelStride,
+                planes.planes[2].rowStride,
+                yuv);
+
+        std::vector<FaceObject> faceobjects;
+        if (semiplanar) {
+            // 与ndkcamera一致，前置摄像头在旋转的同时水平镜像，检测结果与显示画面方向相同
+            int rotate_type = mirror ? 2 : 1;
+            if (camera_orientation == 90) {
+                rotate_type = mirror ? 5 : 6;
+            } else if (camera_orientation == 180) {
+                rotate_type = mirror ? 4 : 3;
+            } else if (camera_orientation == 270) {
+                rotate_type = mirror ? 7 : 8;
+            }
+
+            // 转换缓冲区复用，只在尺寸变化时重新分配
+            static cv::Mat yuv_rotated;
+            static cv::Mat rgb;
+
+            ncnn::MutexLockGuard g(lock);
+            {
+                // 裁剪旋转与颜色转换在一次遍历中完成，单独计为一个阶段
+                StatScope croprotate(STAT_CROPROTATE);
+                yuv_semiplanar_croprotate_to_rgb(yuv, 0, 0, desc.width, desc.height, rotate_type,
+                                                 yuv_rotated, rgb);
+            }
+            AHardwareBuffer_unlock(buffer, NULL);
+
+            if (g_scrfd) {
+                g_scrfd->detect(rgb, faceobjects);
+            }
+        } else {
+            AHardwareBuffer_unlock(buffer, NULL);
+            __android_log_print(ANDROID_LOG_WARN, "ncnn", "detectHardwareBuffer unsupported layout");
+        }
+
+        StatScope marshal(STAT_MARSHAL);
+        return to_face_array(env, faceobjects);
+    }
+
+    return NULL;
+}
+
+// public native int openResultChannel(ByteBuffer buffer, int maxFaces);
+JNIEXPORT jint JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_openResultChannel(JNIEnv *env, jobject thiz, jobject buffer,
+                                                       jint max_faces) {
+    unsigned char *address = (unsigned char *) env->GetDirectBufferAddress(buffer);
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    int block_size = RESULT_HEADER_SIZE + max_faces * RESULT_FACE_FLOATS * sizeof(float);
+    if (!address || max_faces < 0 || capacity < 2 * (jlong) block_size) {
+        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "openResultChannel invalid buffer");
+        return -1;
+    }
+
+    int fd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+    if (fd < 0) {
+        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "openResultChannel eventfd failed");
+        return -1;
+    }
+
+    ncnn::MutexLockGuard g(result_channel_lock);
+
+    memset(address, 0, 2 * (size_t) block_size);
+
+    g_result_buffer = address;
+    g_result_block_size = block_size;
+    g_result_max_faces = max_faces;
+    g_result_fd = fd;
+    g_result_sequence = 0;
+
+    // fd交给Java持有和关闭
+    return fd;
+}
+
+// public native long readResultChannel(long lastSequence);
+JNIEXPORT jlong JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_readResultChannel(JNIEnv *env, jobject thiz,
+                                                       jlong last_sequence) {
+    ncnn::MutexLockGuard g(result_channel_lock);
+
+    if (!g_result_buffer || g_result_sequence <= last_sequence) {
+        return 0;
+    }
+
+    // 只拷贝有效的人脸数据，检测线程写入期间持有同一把锁，拷贝到的一定是完整的一次结果
+    const unsigned char *published = g_result_buffer;
+    int face_count = ((const int32_t *) (published + 16))[2];
+    memcpy(g_result_buffer + g_result_block_size, published,
+           RESULT_HEADER_SIZE + face_count * RESULT_FACE_FLOATS * sizeof(float));
+
+    return g_result_sequence;
+}
+
+// public native boolean closeResultChannel();
+JNIEXPORT jboolean JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_closeResultChannel(JNIEnv *env, jobject thiz) {
+    ncnn::MutexLockGuard g(result_channel_lock);
+
+    g_result_buffer = 0;
+    g_result_fd = -1;
+
+    return JNI_TRUE;
+}
+
+// public native boolean readStats(long[] stats);
+JNIEXPORT jboolean JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_readStats(JNIEnv *env, jobject thiz, jlongArray stats) {
+    if (!stats || env->GetArrayLength(stats) < STAT_STAGE_COUNT * STAT_FIELDS_PER_STAGE) {
+        return JNI_FALSE;
+    }
+
+    int64_t snapshot[STAT_STAGE_COUNT * STAT_FIELDS_PER_STAGE];
+    stats_snapshot(snapshot);
+    env->SetLongArrayRegion(stats, 0, STAT_STAGE_COUNT * STAT_FIELDS_PER_STAGE,
+                            (const jlong *) snapshot);
+
+    return JNI_TRUE;
+}
+
+// public native void resetStats();
+JNIEXPORT void JNICALL
+Java_com_tencent_scrfdncnn_SCRFDNcnn_resetStats(JNIEnv *env, jobject thiz) {
+    stats_reset();
 }
 
 // public native boolean openCamera(int facing);
@@ -0,0 +1,93 @@
+#include "stats.h"
+
+#include <atomic>
+#include <time.h>
+
+struct StageStats
+{
+    std::atomic<int64_t> count;
+    std::atomic<int64_t> sum;
+    std::atomic<int64_t> min;
+    std::atomic<int64_t> max;
+    std::atomic<int64_t> buckets[STAT_BUCKET_COUNT];
+};
+
+static StageStats g_stats[STAT_STAGE_COUNT];
+
+static struct StatsInitializer
+{
+    StatsInitializer() { stats_reset(); }
+} g_stats_initializer;
+
+int64_t stats_now()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000000 + ts.tv_nsec;
+}
+
+static int bucket_index(int64_t ns)
+{
+    if (ns <= 1)
+        return 0;
+
+    int index = 63 - __builtin_clzll((uint64_t)ns);
+    return index < STAT_BUCKET_COUNT ? index : STAT_BUCKET_COUNT - 1;
+}
+
+void stats_record(int stage, int64_t ns)
+{
+    if (stage < 0 || stage >= STAT_STAGE_COUNT)
+        return;
+
+    if (ns < 0)
+        ns = 0;
+
+    StageStats& s = g_stats[stage];
+    s.count.fetch_add(1, std::memory_order_relaxed);
+    s.sum.fetch_add(ns, std::memory_order_relaxed);
+    s.buckets[bucket_index(ns)].fetch_add(1, std::memory_order_relaxed);
+
+    int64_t current = s.min.load(std::memory_order_relaxed);
+    while (ns < current && !s.min.compare_exchange_weak(current, ns, std::memory_order_relaxed))
+    {
+    }
+
+    current = s.max.load(std::memory_order_relaxed);
+    while (ns > current && !s.max.compare_exchange_weak(current, ns, std::memory_order_relaxed))
+    {
+    }
+}
+
+void stats_snapshot(int64_t* out)
+{
+    for (int i = 0; i < STAT_STAGE_COUNT; i++)
+    {
+        const StageStats& s = g_stats[i];
+        int64_t* p = out + i * STAT_FIELDS_PER_STAGE;
+        p[0] = s.count.load(std::memory_order_relaxed);
+        p[1] = s.sum.load(std::memory_order_relaxed);
+        p[2] = p[0] == 0 ? 0 : s.min.load(std::memory_order_relaxed);
+        p[3] = s.max.load(std::memory_order_relaxed);
+        for (int j = 0; j < STAT_BUCKET_COUNT; j++)
+        {
+            p[4 + j] = s.buckets[j].load(std::memory_order_relaxed);
+        }
+    }
+}
+
+void stats_reset()
+{
+    for (int i = 0; i < STAT_STAGE_COUNT; i++)
+    {
+        StageStats& s = g_stats[i];
+        s.count.store(0, std::memory_order_relaxed);
+        s.sum.store(0, std::memory_order_relaxed);
+        s.min.store(INT64_MAX, std::memory_order_relaxed);
+        s.max.store(0, std::memory_order_relaxed);
+        for (int j = 0; j < STAT_BUCKET_COUNT; j++)
+        {
+            s.buckets[j].store(0, std::memory_order_relaxed);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+#ifndef STATS_H
+#define STATS_H
+
+#include <stdint.h>
+
+// pipeline stages timed in nanoseconds
+enum
+{
+    STAT_ROTATE = 0,     // separate yuv rotate before the color conversion (nv21 path)
+    STAT_COLOR = 1,      // separate yuv to rgb conversion (nv21 path)
+    STAT_PREPROCESS = 2, // resize, pad and normalize into the input blob
+    STAT_FORWARD = 3,    // network forward, summed over all extracted blobs
+    STAT_DECODE = 4,     // anchor generation and proposal decode
+    STAT_NMS = 5,        // sort and nms, including mapping back to the source image
+    STAT_MARSHAL = 6,    // jni result array construction
+    STAT_TOTAL = 7,      // whole jni detect call
+    STAT_CROPROTATE = 8, // crop, rotate and yuv to rgb fused in one pass (ndk camera and hardware buffer paths)
+    STAT_STAGE_COUNT = 9
+};
+
+// log2 histogram, bucket i counts samples in [2^i, 2^(i+1)) ns, the last bucket also takes everything above
+#define STAT_BUCKET_COUNT 32
+
+// per stage snapshot layout: count, sum_ns, min_ns, max_ns, buckets[STAT_BUCKET_COUNT]
+#define STAT_FIELDS_PER_STAGE (4 + STAT_BUCKET_COUNT)
+
+int64_t stats_now();
+
+// lock-free, callable from any thread
+void stats_record(int stage, int64_t ns);
+
+// out holds STAT_STAGE_COUNT * STAT_FIELDS_PER_STAGE values
+// fields are read one by one, a snapshot taken during recording may be off by the samples in flight
+void stats_snapshot(int64_t* out);
+
+void stats_reset();
+
+// records the time from construction to destruction
+class StatScope
+{
+public:
+    explicit StatScope(int _stage) : stage(_stage), start(stats_now()) {}
+    ~StatScope() { stats_record(stage, stats_now() - start); }
+
+private:
+    int stage;
+    int64_t start;
+};
+
+#endif // STATS_H
@@ -0,0 +1,34 @@
+package com.android.xz.util;
+
+import java.util.Random;
+
+/**
+ * 基准测试的帧尺寸和数据
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+final class BenchmarkFrames {
+
+    private static final long SEED = 20240919;
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * 解析"宽x高"
+     */
+    static int[] parseSize(String size) {
+        String[] wh = size.split("x");
+        return new int[]{Integer.parseInt(wh[0]), Integer.parseInt(wh[1])};
+    }
+
+    /**
+     * 固定种子的随机数据，每次运行内容相同
+     */
+    static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+}
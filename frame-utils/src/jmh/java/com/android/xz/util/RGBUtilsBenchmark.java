@@ -0,0 +1,51 @@
+package com.android.xz.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link RGBUtils#rgbaToRGB(byte[], int, byte[])}，ImageActivity.bitmap2RGB的像素转换部分
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+@State(Scope.Thread)
+public class RGBUtilsBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int pixels;
+    private byte[] rgba;
+    private byte[] rgb;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchmarkFrames.parseSize(size);
+        pixels = wh[0] * wh[1];
+        rgba = BenchmarkFrames.randomBytes(pixels * 4);
+        rgb = new byte[pixels * 3];
+    }
+
+    /**
+     * 输出数组复用
+     */
+    @Benchmark
+    public byte[] rgbaToRGB() {
+        RGBUtils.rgbaToRGB(rgba, pixels, rgb);
+        return rgb;
+    }
+
+    /**
+     * 与bitmap2RGB一致，每次分配输出数组
+     */
+    @Benchmark
+    public byte[] rgbaToRGBAllocating() {
+        byte[] out = new byte[pixels * 3];
+        RGBUtils.rgbaToRGB(rgba, pixels, out);
+        return out;
+    }
+}
@@ -0,0 +1,41 @@
+package com.android.xz.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link YUVFrameBuffer#put(byte[], int, int)}，DisplayYUVGLSurfaceView.feedData每帧调用
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+@State(Scope.Thread)
+public class YUVFrameBufferBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] yuv;
+    private YUVFrameBuffer frameBuffer;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchmarkFrames.parseSize(size);
+        width = wh[0];
+        height = wh[1];
+        yuv = BenchmarkFrames.randomBytes(width * height * 3 / 2);
+        frameBuffer = new YUVFrameBuffer();
+        frameBuffer.allocate(width, height);
+    }
+
+    @Benchmark
+    public YUVFrameBuffer put() {
+        frameBuffer.put(yuv, width, height);
+        return frameBuffer;
+    }
+}
@@ -0,0 +1,107 @@
+package com.android.xz.util;
+
+import com.android.xz.camera.YUVFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link YUVPlanePacker#pack}，Camera2Manager每帧调用
+ * <p>
+ * 平面用direct内存模拟ImageReader的Image.Plane：I420为三个独立平面，NV21为同一块VU交错内存上
+ * 错开一个字节的V、U平面，带填充时行跨度按相机常见的对齐方式加宽。
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+@State(Scope.Thread)
+public class YUVPlanePackerBenchmark {
+
+    // 带填充时的行对齐
+    private static final int ROW_ALIGN = 256;
+
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"I420", "NV21"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean padded;
+
+    private int width;
+    private int height;
+    private ByteBuffer bufferY;
+    private ByteBuffer bufferU;
+    private ByteBuffer bufferV;
+    private int yRowStride;
+    private int uPixelStride;
+    private int uRowStride;
+    private int vRowStride;
+    private byte[] yuvData;
+    private YUVPlanePacker packer;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchmarkFrames.parseSize(size);
+        width = wh[0];
+        height = wh[1];
+
+        yRowStride = padded ? align(width + 1) : width;
+        bufferY = direct(BenchmarkFrames.randomBytes(yRowStride * (height - 1) + width));
+
+        if (YUVFormat.valueOf(format) == YUVFormat.NV21) {
+            // 最后一行不含填充，V、U平面比交错数据各少一个字节
+            uPixelStride = 2;
+            int rowStride = padded ? align(width + 1) : width;
+            uRowStride = rowStride;
+            vRowStride = rowStride;
+            ByteBuffer vu = direct(BenchmarkFrames.randomBytes(rowStride * (height / 2 - 1) + width));
+            bufferV = slice(vu, 0, vu.capacity() - 1);
+            bufferU = slice(vu, 1, vu.capacity() - 1);
+        } else {
+            uPixelStride = 1;
+            int rowStride = padded ? align(width / 2 + 1) : width / 2;
+            uRowStride = rowStride;
+            vRowStride = rowStride;
+            bufferU = direct(BenchmarkFrames.randomBytes(rowStride * (height / 2 - 1) + width / 2));
+            bufferV = direct(BenchmarkFrames.randomBytes(rowStride * (height / 2 - 1) + width / 2));
+        }
+
+        yuvData = new byte[width * height * 3 / 2];
+        packer = new YUVPlanePacker();
+    }
+
+    private static int align(int value) {
+        return (value + ROW_ALIGN - 1) / ROW_ALIGN * ROW_ALIGN;
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        // pack读完平面后position在末尾，每帧的Image平面都从头开始
+        bufferY.rewind();
+        bufferU.rewind();
+        bufferV.rewind();
+        packer.pack(bufferY, yRowStride, bufferU, uPixelStride, uRowStride, bufferV, vRowStride, width, height, yuvData);
+        return yuvData;
+    }
+}
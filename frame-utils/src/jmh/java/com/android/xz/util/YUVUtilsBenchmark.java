@@ -0,0 +1,40 @@
+package com.android.xz.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link YUVUtils#yuv420pToNV21(byte[], int, int, byte[])}，检测线程处理I420帧时每帧调用
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+@State(Scope.Thread)
+public class YUVUtilsBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] i420;
+    private byte[] nv21;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchmarkFrames.parseSize(size);
+        width = wh[0];
+        height = wh[1];
+        i420 = BenchmarkFrames.randomBytes(width * height * 3 / 2);
+        nv21 = new byte[i420.length];
+    }
+
+    @Benchmark
+    public byte[] yuv420pToNV21() {
+        YUVUtils.yuv420pToNV21(i420, width, height, nv21);
+        return nv21;
+    }
+}
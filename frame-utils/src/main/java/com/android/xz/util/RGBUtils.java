@@ -0,0 +1,25 @@
+package com.android.xz.util;
+
+/**
+ * RGB像素数据转换
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+public class RGBUtils {
+
+    /**
+     * RGBA转RGB，丢弃A通道，RGBARGBA --> RGBRGB
+     *
+     * @param rgba   RGBA数据，Bitmap.copyPixelsToBuffer得到的ARGB_8888像素即为该顺序
+     * @param pixels 像素数
+     * @param rgb    输出，长度不小于pixels * 3
+     */
+    public static void rgbaToRGB(byte[] rgba, int pixels, byte[] rgb) {
+        for (int i = 0; i < pixels; i++) {
+            rgb[i * 3] = rgba[i * 4];            //R
+            rgb[i * 3 + 1] = rgba[i * 4 + 1];    //G
+            rgb[i * 3 + 2] = rgba[i * 4 + 2];    //B
+        }
+    }
+}
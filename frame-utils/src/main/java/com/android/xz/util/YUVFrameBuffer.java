@@ -0,0 +1,77 @@
+package com.android.xz.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 整帧YUV数据存放在一块direct内存中，各平面为其切片，用于上传纹理
+ * <p>
+ * 切片按I420划分Y、U、V，NV21/NV12使用Y和UV两个切片，尺寸不变时重复使用同一块内存。
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+public class YUVFrameBuffer {
+
+    private ByteBuffer mData = ByteBuffer.allocateDirect(0);
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private ByteBuffer mUV;
+
+    /**
+     * 按尺寸分配内存，尺寸变化时重新分配
+     */
+    public void allocate(int width, int height) {
+        int ySize = width * height;
+        int size = ySize * 3 / 2;
+        if (mData.capacity() != size) {
+            mData = ByteBuffer.allocateDirect(size);
+            mY = slice(0, ySize);
+            mU = slice(ySize, ySize / 4);
+            mV = slice(ySize * 5 / 4, ySize / 4);
+            mUV = slice(ySize, ySize / 2);
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer buffer = mData.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        return buffer.slice();
+    }
+
+    /**
+     * 拷贝一帧紧密排列的YUV420数据
+     */
+    public void put(byte[] yuvData, int width, int height) {
+        allocate(width, height);
+        mData.clear();
+        mData.put(yuvData, 0, width * height * 3 / 2);
+    }
+
+    /**
+     * Y平面，position已重置为0
+     */
+    public ByteBuffer getY() {
+        mY.position(0);
+        return mY;
+    }
+
+    public ByteBuffer getU() {
+        mU.position(0);
+        return mU;
+    }
+
+    public ByteBuffer getV() {
+        mV.position(0);
+        return mV;
+    }
+
+    /**
+     * 交错的UV平面，NV21为VU顺序
+     */
+    public ByteBuffer getUV() {
+        mUV.position(0);
+        return mUV;
+    }
+}
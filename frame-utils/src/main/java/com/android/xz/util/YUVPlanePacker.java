@@ -0,0 +1,110 @@
+package com.android.xz.util;
+
+import com.android.xz.camera.YUVFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 将YUV_420_888各平面（可能带行填充）紧密排列到一整帧数组中
+ * <p>
+ * 平面像素间隔为1时输出I420，为2时（UV交错）输出NV21。平面数据先读入内部复用的数组，
+ * 尺寸不变时不分配内存，同一实例只能在一个线程中使用。
+ *
+ * @author xiaozhi
+ * @since 2024/9/19
+ */
+public class YUVPlanePacker {
+
+    private byte[] y;
+    private byte[] u;
+    private byte[] v;
+
+    /**
+     * 从平面当前position读到limit，读完后position移到limit
+     *
+     * @param bufferY      Y平面
+     * @param yRowStride   Y平面行跨度
+     * @param bufferU      U(Cb)平面
+     * @param uPixelStride U平面像素间隔
+     * @param uRowStride   U平面行跨度
+     * @param bufferV      V(Cr)平面
+     * @param vRowStride   V平面行跨度
+     * @param width        图像宽
+     * @param height       图像高
+     * @param yuvData      输出，长度不小于width * height * 3 / 2
+     * @return 输出数据的格式
+     */
+    public YUVFormat pack(ByteBuffer bufferY, int yRowStride,
+                          ByteBuffer bufferU, int uPixelStride, int uRowStride,
+                          ByteBuffer bufferV, int vRowStride,
+                          int width, int height, byte[] yuvData) {
+        // 重复使用同一批byte数组，减少gc频率，尺寸变化时重新分配
+        if (y == null || y.length != bufferY.remaining() || u.length != bufferU.remaining() || v.length != bufferV.remaining()) {
+            y = new byte[bufferY.remaining()];
+            u = new byte[bufferU.remaining()];
+            v = new byte[bufferV.remaining()];
+        }
+        bufferY.get(y);
+        bufferU.get(u);
+        bufferV.get(v);
+
+        // 处理y
+        if (yRowStride == width) {
+            System.arraycopy(y, 0, yuvData, 0, y.length);
+        } else {
+            // 按行提取
+            for (int i = 0; i < height; i++) {
+                System.arraycopy(y, i * yRowStride, yuvData, i * width, width);
+            }
+        }
+
+        int ySize = width * height;
+
+        // 判断是p还是sp
+        YUVFormat yuvFormat = YUVFormat.I420;
+        if (uPixelStride == 1) { // P
+            int offset = ySize;
+            // 处理U
+            if (uRowStride == width / 2) {
+                System.arraycopy(u, 0, yuvData, offset, u.length);
+            } else {
+                int rowStride = width / 2;
+                for (int i = 0; i < height / 2; i++) {
+                    System.arraycopy(u, i * uRowStride, yuvData, offset + i * rowStride, rowStride);
+                }
+            }
+
+            offset = ySize + width * height / 4;
+            // 处理V
+            if (vRowStride == width / 2) {
+                System.arraycopy(v, 0, yuvData, offset, v.length);
+            } else {
+                int rowStride = width / 2;
+                for (int i = 0; i < height / 2; i++) {
+                    System.arraycopy(v, i * vRowStride, yuvData, offset + i * rowStride, rowStride);
+                }
+            }
+        } else if (uPixelStride == 2) { // SP
+            yuvFormat = YUVFormat.NV21;
+            int offset = ySize;
+            int uvSize = ySize / 2;
+
+            // 处理UV，V平面从V开始交错，最后一个U不在V平面内
+            if (vRowStride == width) {
+                System.arraycopy(v, 0, yuvData, offset, v.length > uvSize ? uvSize : v.length);
+            } else {
+                // 按行提取
+                int rowSize = height / 2;
+                for (int i = 0; i < rowSize; i++) {
+                    if (i == rowSize - 1) {
+                        int lastLineSize = v.length - i * vRowStride;
+                        System.arraycopy(v, i * vRowStride, yuvData, offset + i * width, lastLineSize < width ? lastLineSize : width);
+                    } else {
+                        System.arraycopy(v, i * vRowStride, yuvData, offset + i * width, width);
+                    }
+                }
+            }
+        }
+        return yuvFormat;
+    }
+}